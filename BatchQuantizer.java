@@ -0,0 +1,401 @@
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class that reduces the colors of a whole directory of pictures from
+ * the command line, without opening any windows.  Each picture goes
+ * through four stages: decode (loadOrFail), cluster (computeColors),
+ * map (mapToColorList) and encode (writeOrFail), which are the steps of
+ * Picture.reduceColors and SimplePicture.write.  Decode and encode run on
+ * one pool of threads and cluster and map on another, so one picture can
+ * be read or written while another is being clustered.  Only a bounded
+ * number of pictures are in the pipeline at once so memory stays bounded.
+ *
+ * A line of timings is printed for each picture as it finishes, then a
+ * summary with the pictures and megapixels done per second.
+ *
+ * Usage: java BatchQuantizer input k [options]
+ *   input            a directory, or a glob such as photos/*.jpg
+ *   k                the number of colors
+ *   -seeding name    random, first, kmeans++ (the default) or median
+ *   -format ext      the output format such as png (the default is the input's)
+ *   -out dir         the output directory (the default is input/quantized)
+ *   -workers n       the number of cluster and map threads (the default is
+ *                    the number of processors)
+ *   -io n            the number of decode and encode threads (the default is 2)
+ */
+public class BatchQuantizer
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the files to reduce */
+  private ArrayList<File> files;
+
+  /** the number of colors to reduce to */
+  private int number;
+
+  /** the way the starting palette is picked */
+  private SeedStrategy seeding = new KMeansPlusPlusSeeds(0);
+
+  /** the output format (null to keep each file's own) */
+  private String format;
+
+  /** the directory the pictures are written to */
+  private File outputDirectory;
+
+  /** the number of threads that cluster and map */
+  private int workers = Runtime.getRuntime().availableProcessors();
+
+  /** the number of threads that decode and encode */
+  private int ioThreads = 2;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the files to reduce and the number of colors
+   * @param files the image files
+   * @param number the number of colors to reduce to
+   * @param outputDirectory the directory the pictures are written to
+   */
+  public BatchQuantizer(ArrayList<File> files, int number, File outputDirectory)
+  {
+    if (number < 1)
+      throw new IllegalArgumentException("the number of colors must be at least 1, not " + number);
+    this.files = files;
+    this.number = number;
+    this.outputDirectory = outputDirectory;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to set the way the starting palette is picked
+   * @param seeding the seed strategy to use
+   */
+  public void setSeeding(SeedStrategy seeding)
+  {
+    this.seeding = seeding;
+  }
+
+  /**
+   * Method to set the output format
+   * @param format the format name such as png (null to keep each file's own)
+   */
+  public void setFormat(String format)
+  {
+    this.format = format;
+  }
+
+  /**
+   * Method to set the number of threads that cluster and map
+   * @param workers the number of threads (at least 1)
+   */
+  public void setWorkers(int workers)
+  {
+    if (workers < 1)
+      throw new IllegalArgumentException("workers must be at least 1, not " + workers);
+    this.workers = workers;
+  }
+
+  /**
+   * Method to set the number of threads that decode and encode
+   * @param ioThreads the number of threads (at least 1)
+   */
+  public void setIoThreads(int ioThreads)
+  {
+    if (ioThreads < 1)
+      throw new IllegalArgumentException("ioThreads must be at least 1, not " + ioThreads);
+    this.ioThreads = ioThreads;
+  }
+
+  /**
+   * Method to reduce every file, printing a line for each one and a summary
+   * @return the number of files that failed
+   * @throws InterruptedException if interrupted while waiting for the pictures
+   */
+  public int run() throws InterruptedException
+  {
+    if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+      throw new IllegalArgumentException(outputDirectory + " could not be made");
+
+    ExecutorService io = Executors.newFixedThreadPool(ioThreads);
+    ExecutorService cpu = Executors.newFixedThreadPool(workers);
+    // enough pictures to keep every thread busy, but not the whole directory
+    Semaphore inFlight = new Semaphore(workers + 2 * ioThreads);
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicLong totalPixels = new AtomicLong();
+    ArrayList<CompletableFuture<Void>> jobs = new ArrayList<CompletableFuture<Void>>();
+
+    System.out.println("file,width,height,decode ms,cluster ms,map ms,encode ms");
+    long start = System.nanoTime();
+    try
+    {
+      for (final File file : files)
+      {
+        inFlight.acquire();
+        final Job job = new Job(file);
+        CompletableFuture<Void> future = CompletableFuture
+          .runAsync(job::decode, io)
+          .thenRunAsync(job::cluster, cpu)
+          .thenRunAsync(job::map, cpu)
+          .thenRunAsync(job::encode, io)
+          .whenComplete((ignored, error) -> {
+            inFlight.release();
+            if (error != null)
+            {
+              failures.incrementAndGet();
+              Throwable cause = error.getCause() != null ? error.getCause() : error;
+              System.out.println(csvField(file.toString()) + "," +
+                                 csvField("failed: " + cause.getMessage()));
+            }
+            else
+            {
+              totalPixels.addAndGet((long) job.width * job.height);
+              System.out.println(job);
+            }
+          });
+        jobs.add(future);
+      }
+      for (CompletableFuture<Void> job : jobs)
+      {
+        try
+        {
+          job.join();
+        }
+        catch (RuntimeException ex)
+        {
+          // already counted and reported
+        }
+      }
+    }
+    finally
+    {
+      io.shutdown();
+      cpu.shutdown();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    int done = files.size() - failures.get();
+    System.out.println(String.format(Locale.ROOT,
+      "%d pictures (%d failed) in %.2f s: %.2f pictures/s, %.2f MP/s",
+      done, failures.get(), seconds, done / seconds, totalPixels.get() / 1e6 / seconds));
+    return failures.get();
+  }
+
+  /**
+   * Method to make a value safe to print as one CSV field, quoting it if
+   * it has a comma, quote or line break in it
+   * @param value the value
+   * @return the value, quoted with its quotes doubled if needed
+   */
+  private static String csvField(String value)
+  {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 &&
+        value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+      return value;
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  /**
+   * Method to find the files to reduce from a directory or a glob
+   * @param input a directory, or a glob such as photos/*.jpg
+   * @return the image files found, sorted by name
+   */
+  public static ArrayList<File> findFiles(String input)
+  {
+    File directory = new File(input);
+    PathMatcher matcher = null;
+    if (!directory.isDirectory())
+    {
+      File parent = directory.getParentFile();
+      directory = parent == null ? new File(".") : parent;
+      matcher = FileSystems.getDefault().getPathMatcher("glob:" + new File(input).getName());
+    }
+
+    ArrayList<String> suffixes = new ArrayList<String>();
+    for (String suffix : ImageIO.getReaderFileSuffixes())
+      suffixes.add(suffix.toLowerCase(Locale.ROOT));
+
+    ArrayList<File> found = new ArrayList<File>();
+    File[] listed = directory.listFiles();
+    if (listed == null)
+      return found;
+    Arrays.sort(listed);
+    for (File file : listed)
+    {
+      String name = file.getName();
+      int posDot = name.lastIndexOf('.');
+      if (!file.isFile() || posDot < 0)
+        continue;
+      if (matcher != null ? matcher.matches(Paths.get(name))
+                          : suffixes.contains(name.substring(posDot + 1).toLowerCase(Locale.ROOT)))
+        found.add(file);
+    }
+    return found;
+  }
+
+  /**
+   * Method to make a seed strategy from its command line name
+   * @param name random, first, kmeans++ or median
+   * @return the seed strategy
+   */
+  public static SeedStrategy parseSeeding(String name)
+  {
+    if (name.equals("random"))
+      return new RandomSeeds(0);
+    if (name.equals("first"))
+      return new FirstColorsSeeds();
+    if (name.equals("kmeans++"))
+      return new KMeansPlusPlusSeeds(0);
+    if (name.equals("median"))
+      return new MedianCutSeeds();
+    throw new IllegalArgumentException("unknown seeding " + name +
+                                       " (use random, first, kmeans++ or median)");
+  }
+
+  /**
+   * The work done on one picture and how long each stage took
+   */
+  private class Job
+  {
+    File file;
+    Picture picture;
+    ArrayList<Color> colors;
+    Picture result;
+    int width, height;
+    long decodeTime, clusterTime, mapTime, encodeTime;
+
+    Job(File file) { this.file = file; }
+
+    void decode()
+    {
+      long start = System.nanoTime();
+      picture = new Picture();
+      try
+      {
+        picture.loadOrFail(file.getPath());
+      }
+      catch (IOException ex)
+      {
+        throw new IllegalStateException(ex.getMessage(), ex);
+      }
+      if (picture.getBufferedImage() == null)
+        throw new IllegalStateException(file + " is not in a format that can be read");
+      width = picture.getWidth();
+      height = picture.getHeight();
+      decodeTime = System.nanoTime() - start;
+    }
+
+    void cluster()
+    {
+      long start = System.nanoTime();
+      colors = picture.computeColors(number, seeding);
+      clusterTime = System.nanoTime() - start;
+    }
+
+    void map()
+    {
+      long start = System.nanoTime();
+      result = picture.mapToColorList(colors);
+      picture = null;
+      mapTime = System.nanoTime() - start;
+    }
+
+    void encode()
+    {
+      long start = System.nanoTime();
+      String name = file.getName();
+      int posDot = name.lastIndexOf('.');
+      String base = posDot >= 0 ? name.substring(0, posDot) : name;
+      String extension = format != null ? format : (posDot >= 0 ? name.substring(posDot + 1) : "png");
+      try
+      {
+        result.writeOrFail(new File(outputDirectory, base + "_" + number + "." + extension).getPath());
+      }
+      catch (IOException ex)
+      {
+        throw new IllegalStateException(ex.getMessage(), ex);
+      }
+      result = null;
+      encodeTime = System.nanoTime() - start;
+    }
+
+    public String toString()
+    {
+      return csvField(file.toString()) + "," + width + "," + height + "," +
+        decodeTime / 1000000 + "," + clusterTime / 1000000 + "," + mapTime / 1000000 + "," +
+        encodeTime / 1000000;
+    }
+  }
+
+  /**
+   * Method to reduce the colors of a directory of pictures from the
+   * command line; see the class comment for the arguments
+   * @param args the command line arguments
+   */
+  public static void main(String[] args) throws InterruptedException
+  {
+    System.setProperty("java.awt.headless", "true");
+    if (args.length < 2)
+    {
+      System.err.println("usage: java BatchQuantizer input k [-seeding random|first|kmeans++|median]" +
+                         " [-format ext] [-out dir] [-workers n] [-io n]");
+      System.exit(2);
+    }
+
+    String input = args[0];
+    int number = Integer.parseInt(args[1]);
+    ArrayList<File> files = findFiles(input);
+    File directory = new File(input).isDirectory() ? new File(input)
+                                                   : new File(input).getAbsoluteFile().getParentFile();
+    File output = new File(directory, "quantized");
+    SeedStrategy seeding = null;
+    String format = null;
+    Integer workers = null;
+    Integer ioThreads = null;
+    for (int i = 2; i < args.length; i += 2)
+    {
+      if (i + 1 >= args.length)
+        throw new IllegalArgumentException(args[i] + " needs a value");
+      String value = args[i + 1];
+      if (args[i].equals("-seeding"))
+        seeding = parseSeeding(value);
+      else if (args[i].equals("-format"))
+        format = value;
+      else if (args[i].equals("-out"))
+        output = new File(value);
+      else if (args[i].equals("-workers"))
+        workers = Integer.parseInt(value);
+      else if (args[i].equals("-io"))
+        ioThreads = Integer.parseInt(value);
+      else
+        throw new IllegalArgumentException("unknown option " + args[i]);
+    }
+
+    BatchQuantizer batch = new BatchQuantizer(files, number, output);
+    if (seeding != null)
+      batch.setSeeding(seeding);
+    batch.setFormat(format);
+    if (workers != null)
+      batch.setWorkers(workers);
+    if (ioThreads != null)
+      batch.setIoThreads(ioThreads);
+    System.exit(batch.run() == 0 ? 0 : 1);
+  }
+
+}
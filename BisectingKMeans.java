@@ -0,0 +1,373 @@
+import java.util.PriorityQueue;
+
+/**
+ * A class that clusters colors with bisecting k-means.  All the colors
+ * start in one cluster, and the cluster with the largest sum of squared
+ * errors is split in two with a 2-means run over just its own colors,
+ * until there are the wanted number of clusters or no cluster has any
+ * error left.  A split only looks at the colors of the cluster it
+ * splits, so even for 256 or more colors the whole run looks at each
+ * color about log2(k) times a few iterations, where each KMeans
+ * iteration looks at every color k times.  Every split is made where
+ * there are colors, so no palette color is wasted on an empty part of
+ * the rgb cube the way random seeds can be.
+ *
+ * The colors are kept in one array that is reordered so each cluster's
+ * colors are next to each other, as in MedianCut.  The splits form a
+ * binary tree, which is kept as a PaletteTree that finds the closest
+ * palette color in a few steps when the picture is mapped.  The
+ * palette comes in the order of the tree's leaves.
+ *
+ * A 2-means split starts from two points on either side of the
+ * cluster's average along its color of largest variance, so a run does
+ * not use random numbers and always gives the same palette.  Like
+ * KMeans, the colors can carry weights such as histogram counts.
+ */
+public class BisectingKMeans
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the packed rgb colors, reordered so each cluster is a range */
+  private int[] colors;
+
+  /** the weight of each color, in the same order */
+  private int[] weights;
+
+  /** the most 2-means iterations for one split */
+  private int splitIterations = 20;
+
+  /** the side of the split each color of the cluster being split is on */
+  private boolean[] onRight;
+
+  /** the tree of the last run (null before a run) */
+  private PaletteTree tree;
+
+  /** the first and one past the last color of each cluster (a node of the tree) */
+  private int[] from, to;
+
+  /** the two clusters each cluster was split into (-1 if it was not) */
+  private int[] left, right;
+
+  /** the packed average color of each cluster */
+  private int[] centroid;
+
+  /** the total weight of each cluster */
+  private long[] weight;
+
+  /** the weighted sum of squared distances to each cluster's average */
+  private long[] sse;
+
+  /** the number of clusters made so far */
+  private int nodes;
+
+  /** the colors looked at by the last run */
+  private long visited;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the colors to cluster
+   * @param colors the packed rgb colors (each counts as one pixel)
+   */
+  public BisectingKMeans(int[] colors)
+  {
+    this(colors, null);
+  }
+
+  /**
+   * A constructor that takes colors and how many pixels each one stands for
+   * @param colors the packed rgb colors (alpha bits ignored, not changed)
+   * @param weights the weight of each color, at least 1 (null if each
+   * color is one pixel)
+   */
+  public BisectingKMeans(int[] colors, int[] weights)
+  {
+    if (weights != null && weights.length != colors.length)
+      throw new IllegalArgumentException("there are " + colors.length + " colors but " +
+                                         weights.length + " weights");
+    this.colors = new int[colors.length];
+    this.weights = new int[colors.length];
+    for (int i = 0; i < colors.length; i++)
+    {
+      this.colors[i] = colors[i] & KMeans.RGB_MASK;
+      this.weights[i] = weights == null ? 1 : weights[i];
+    }
+    onRight = new boolean[colors.length];
+  }
+
+  /**
+   * A constructor that takes a histogram of the colors to cluster
+   * @param histogram the distinct colors and their counts
+   */
+  public BisectingKMeans(ColorHistogram histogram)
+  {
+    this(histogram.getColors(), histogram.getCounts());
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the most 2-means iterations for one split
+   * @return the maximum number of iterations
+   */
+  public int getSplitIterations() { return splitIterations; }
+
+  /**
+   * Method to set the most 2-means iterations for one split.  Fewer give
+   * a faster but rougher split.
+   * @param splitIterations the maximum number of iterations (at least 1)
+   */
+  public void setSplitIterations(int splitIterations)
+  {
+    if (splitIterations < 1)
+      throw new IllegalArgumentException("splitIterations must be at least 1, not " +
+                                         splitIterations);
+    this.splitIterations = splitIterations;
+  }
+
+  /**
+   * Method to get the tree of splits of the last run
+   * @return the tree, whose palette is that of the last run (null before
+   * a run or if there were no colors)
+   */
+  public PaletteTree getTree() { return tree; }
+
+  /**
+   * Method to run bisecting k-means
+   * @param number the number of palette colors wanted
+   * @return the palette in the order of the tree's leaves.  The
+   * iterations are the colors looked at in passes over all the colors,
+   * so they compare with the iterations of KMeans.
+   */
+  public KMeansResult run(int number)
+  {
+    if (number < 1)
+      throw new IllegalArgumentException("number must be at least 1, not " + number);
+    tree = null;
+    if (colors.length == 0)
+      return new KMeansResult(new int[0], 0, KMeansResult.StopReason.CONVERGED, 0, null);
+
+    int most = 2 * number - 1;
+    from = new int[most];
+    to = new int[most];
+    left = new int[most];
+    right = new int[most];
+    centroid = new int[most];
+    weight = new long[most];
+    sse = new long[most];
+    visited = 0;
+    nodes = 0;
+    addNode(0, colors.length);
+
+    // the leaves that could still be split, the largest error first
+    PriorityQueue<Integer> queue = new PriorityQueue<Integer>(most, (a, b) -> {
+      int bySse = Long.compare(sse[b], sse[a]);
+      return bySse != 0 ? bySse : Integer.compare(a, b);
+    });
+    queue.add(0);
+    int leaves = 1;
+    while (leaves < number && !queue.isEmpty())
+    {
+      int node = queue.poll();
+      if (sse[node] == 0)
+        break;
+      if (split(node))
+      {
+        queue.add(left[node]);
+        queue.add(right[node]);
+        leaves++;
+      }
+    }
+
+    // number the leaves from left to right
+    int[] palette = new int[leaves];
+    int[] treeLeft = new int[nodes];
+    int[] treeRight = new int[nodes];
+    long total = numberLeaves(0, palette, treeLeft, treeRight, new int[1]);
+    tree = new PaletteTree(palette, treeLeft, treeRight);
+    int passes = (int) ((visited + colors.length - 1) / colors.length);
+    return new KMeansResult(palette, passes, KMeansResult.StopReason.CONVERGED, total, null);
+  }
+
+  /**
+   * Method to add a cluster for a range of the colors, working out its
+   * weight, centroid and error
+   * @param start the first color of the cluster
+   * @param end one past the last color of the cluster
+   * @return the new node
+   */
+  private int addNode(int start, int end)
+  {
+    int node = nodes++;
+    from[node] = start;
+    to[node] = end;
+    left[node] = -1;
+    long total = 0, red = 0, green = 0, blue = 0;
+    for (int i = start; i < end; i++)
+    {
+      int rgb = colors[i];
+      long w = weights[i];
+      total += w;
+      red += w * ((rgb >> 16) & 0xff);
+      green += w * ((rgb >> 8) & 0xff);
+      blue += w * (rgb & 0xff);
+    }
+    weight[node] = total;
+    int c = (int) (red / total) << 16 | (int) (green / total) << 8 | (int) (blue / total);
+    centroid[node] = c;
+    long error = 0;
+    for (int i = start; i < end; i++)
+      error += weights[i] * (long) KMeans.colorDistance(colors[i], c);
+    sse[node] = error;
+    visited += 2L * (end - start);
+    return node;
+  }
+
+  /**
+   * Method to split a cluster in two with 2-means over its own colors
+   * @param node the cluster
+   * @return true if it was split (false if all its colors stayed on one side)
+   */
+  private boolean split(int node)
+  {
+    int start = from[node];
+    int end = to[node];
+
+    // start on either side of the average along the color of largest variance
+    double[] center = new double[6];
+    int c = centroid[node];
+    double[] mean = {(c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff};
+    double[] variance = new double[3];
+    for (int i = start; i < end; i++)
+    {
+      int rgb = colors[i];
+      for (int axis = 0; axis < 3; axis++)
+      {
+        double d = ((rgb >> (16 - 8 * axis)) & 0xff) - mean[axis];
+        variance[axis] += weights[i] * d * d;
+      }
+    }
+    visited += end - start;
+    int widest = 0;
+    for (int axis = 1; axis < 3; axis++)
+      if (variance[axis] > variance[widest])
+        widest = axis;
+    double spread = Math.max(0.5, Math.sqrt(variance[widest] / weight[node]));
+    for (int axis = 0; axis < 3; axis++)
+    {
+      center[axis] = mean[axis];
+      center[3 + axis] = mean[axis];
+    }
+    center[widest] -= spread;
+    center[3 + widest] += spread;
+
+    int rightCount = 0;
+    for (int iteration = 0; iteration < splitIterations; iteration++)
+    {
+      double[] sums = new double[8];
+      boolean changed = false;
+      rightCount = 0;
+      for (int i = start; i < end; i++)
+      {
+        int rgb = colors[i];
+        int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+        double dl = square(r - center[0]) + square(g - center[1]) + square(b - center[2]);
+        double dr = square(r - center[3]) + square(g - center[4]) + square(b - center[5]);
+        boolean side = dr < dl;
+        if (side != onRight[i] || iteration == 0)
+          changed = true;
+        onRight[i] = side;
+        int base = side ? 4 : 0;
+        double w = weights[i];
+        sums[base] += w * r;
+        sums[base + 1] += w * g;
+        sums[base + 2] += w * b;
+        sums[base + 3] += w;
+        if (side)
+          rightCount++;
+      }
+      visited += end - start;
+      if (!changed || rightCount == 0 || rightCount == end - start)
+        break;
+      for (int axis = 0; axis < 3; axis++)
+      {
+        center[axis] = sums[axis] / sums[3];
+        center[3 + axis] = sums[4 + axis] / sums[7];
+      }
+    }
+    if (rightCount == 0 || rightCount == end - start)
+      return false;
+
+    // move the left colors to the front of the range
+    int i = start;
+    int j = end - 1;
+    while (true)
+    {
+      while (i <= j && !onRight[i])
+        i++;
+      while (i <= j && onRight[j])
+        j--;
+      if (i >= j)
+        break;
+      int swap = colors[i];
+      colors[i] = colors[j];
+      colors[j] = swap;
+      swap = weights[i];
+      weights[i] = weights[j];
+      weights[j] = swap;
+      onRight[i] = false;
+      onRight[j] = true;
+    }
+    int middle = end - rightCount;
+    left[node] = addNode(start, middle);
+    right[node] = addNode(middle, end);
+    return true;
+  }
+
+  /**
+   * Method to square a number
+   * @param value the number
+   * @return the number times itself
+   */
+  private static double square(double value)
+  {
+    return value * value;
+  }
+
+  /**
+   * Method to number the leaves under a node from left to right, putting
+   * their centroids in the palette
+   * @param node the node
+   * @param palette where to put the leaf centroids
+   * @param treeLeft the left child of each node for the tree (-1 for a leaf)
+   * @param treeRight the right child of each node, or the palette index of a leaf
+   * @param next the next palette index, updated
+   * @return the sum of the errors of the leaves
+   */
+  private long numberLeaves(int node, int[] palette, int[] treeLeft, int[] treeRight, int[] next)
+  {
+    if (left[node] < 0)
+    {
+      treeLeft[node] = -1;
+      treeRight[node] = next[0];
+      palette[next[0]++] = centroid[node];
+      return sse[node];
+    }
+    treeLeft[node] = left[node];
+    treeRight[node] = right[node];
+    return numberLeaves(left[node], palette, treeLeft, treeRight, next) +
+      numberLeaves(right[node], palette, treeLeft, treeRight, next);
+  }
+
+  /**
+   * Method to return a string with information about this object
+   * @return a string with information about this object
+   */
+  public String toString()
+  {
+    return "BisectingKMeans with " + colors.length + " colors and up to " + splitIterations +
+      " iterations a split";
+  }
+
+}
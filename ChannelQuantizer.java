@@ -0,0 +1,282 @@
+import java.util.Arrays;
+
+/**
+ * A class that reduces the colors of a picture one channel at a time, the
+ * way Picture.reduceTo8 does: the values of each of red, green and blue
+ * are split into levels by thresholds, and each value is replaced by the
+ * average of the values of its level.  With 2^bits levels a channel the
+ * picture ends up with at most 2^(3 * bits) colors.
+ *
+ * One pass over the pixels counts each value of each channel in 3 x 256
+ * counters.  The thresholds and level averages are then worked out from
+ * those counts alone: either fixed thresholds, as reduceTo8 uses, or
+ * thresholds that adapt to the picture by moving each one halfway
+ * between the averages of the levels on either side of it until none of
+ * them move (the best thresholds for the squared error of one channel).
+ * A second pass writes every pixel through a table for each channel.
+ * Both passes are split across threads by row bands, with one set of
+ * counters a band added up in band order, and neither creates objects
+ * per pixel, so the picture does not depend on the thread count.
+ */
+public class ChannelQuantizer
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the most times the adaptive thresholds are moved */
+  public static final int MAX_ITERATIONS = 64;
+
+  /** the number of values a channel can have */
+  private static final int VALUES = 256;
+
+  /** the number of levels for each channel */
+  private int levelCount;
+
+  /** the thresholds used for every channel (null to adapt them to the picture) */
+  private int[] fixedThresholds;
+
+  /** the number of threads used */
+  private int threads = 1;
+
+  /** the thresholds of each channel in the last run (a value up to a threshold is below it) */
+  private int[][] thresholds;
+
+  /** the value each level of each channel became in the last run */
+  private int[][] levels;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the number of bits kept for each channel,
+   * with thresholds that adapt to the picture
+   * @param bits the number of bits, from 1 to 8 (1 gives 2 levels a
+   * channel, 8 colors in all)
+   */
+  public ChannelQuantizer(int bits)
+  {
+    if (bits < 1 || bits > 8)
+      throw new IllegalArgumentException("bits must be from 1 to 8, not " + bits);
+    levelCount = 1 << bits;
+  }
+
+  /**
+   * A constructor that takes fixed thresholds, used for every channel
+   * @param thresholds the thresholds in increasing order, from 0 to 254
+   * (a value up to a threshold goes in the level below it)
+   */
+  public ChannelQuantizer(int[] thresholds)
+  {
+    for (int j = 0; j < thresholds.length; j++)
+    {
+      int low = j == 0 ? 0 : thresholds[j - 1] + 1;
+      if (thresholds[j] < low || thresholds[j] > VALUES - 2)
+        throw new IllegalArgumentException("threshold " + j + " must be from " + low +
+                                           " to " + (VALUES - 2) + ", not " + thresholds[j]);
+    }
+    levelCount = thresholds.length + 1;
+    fixedThresholds = Arrays.copyOf(thresholds, thresholds.length);
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of levels for each channel
+   * @return the number of levels
+   */
+  public int getLevelCount() { return levelCount; }
+
+  /**
+   * Method to get the number of threads used
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads used.  The picture does not
+   * depend on it.
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to get the thresholds of a channel in the last run
+   * @param channel 0 for red, 1 for green, 2 for blue
+   * @return the thresholds in increasing order (null before a run)
+   */
+  public int[] getThresholds(int channel)
+  {
+    return thresholds == null ? null : thresholds[channel];
+  }
+
+  /**
+   * Method to get the value each level of a channel became in the last run
+   * @param channel 0 for red, 1 for green, 2 for blue
+   * @return the value of each level from the lowest up (null before a run)
+   */
+  public int[] getLevels(int channel)
+  {
+    return levels == null ? null : levels[channel];
+  }
+
+  /**
+   * Method to reduce the colors of packed pixels in place.  The alpha
+   * bits are kept.
+   * @param pixels the packed pixels, row by row
+   * @param width the number of pixels in each row
+   */
+  public void quantize(final int[] pixels, final int width)
+  {
+    final int rows = width == 0 ? 0 : pixels.length / width;
+    RowBands bands = new RowBands(threads);
+    try
+    {
+      // count the values of each channel, one set of counters a band
+      final int[][] bandCounts = new int[bands.countBands(rows)][];
+      bands.forEach(rows, new RowBands.Task() {
+        public void run(int band, int fromRow, int toRow)
+        {
+          int[] counts = new int[3 * VALUES];
+          for (int i = fromRow * width; i < toRow * width; i++)
+          {
+            int value = pixels[i];
+            counts[(value >> 16) & 0xff]++;
+            counts[VALUES + ((value >> 8) & 0xff)]++;
+            counts[2 * VALUES + (value & 0xff)]++;
+          }
+          bandCounts[band] = counts;
+        }
+      });
+      long[] counts = new long[3 * VALUES];
+      for (int[] band : bandCounts)
+        for (int v = 0; v < counts.length; v++)
+          counts[v] += band[v];
+
+      // the new value of every value of each channel, already shifted in place
+      thresholds = new int[3][];
+      levels = new int[3][];
+      final int[][] tables = new int[3][VALUES];
+      for (int c = 0; c < 3; c++)
+      {
+        long[] channel = Arrays.copyOfRange(counts, c * VALUES, (c + 1) * VALUES);
+        thresholds[c] = fixedThresholds != null ? fixedThresholds.clone() : adapt(channel);
+        levels[c] = average(channel, thresholds[c]);
+        int level = 0;
+        for (int v = 0; v < VALUES; v++)
+        {
+          if (level < thresholds[c].length && v > thresholds[c][level])
+            level++;
+          tables[c][v] = levels[c][level] << (16 - 8 * c);
+        }
+      }
+
+      // write every pixel through the tables
+      bands.forEach(rows, new RowBands.Task() {
+        public void run(int band, int fromRow, int toRow)
+        {
+          int[] red = tables[0];
+          int[] green = tables[1];
+          int[] blue = tables[2];
+          for (int i = fromRow * width; i < toRow * width; i++)
+          {
+            int value = pixels[i];
+            pixels[i] = (value & SimplePicture.ALPHA_MASK) | red[(value >> 16) & 0xff] |
+              green[(value >> 8) & 0xff] | blue[value & 0xff];
+          }
+        }
+      });
+    }
+    finally
+    {
+      bands.close();
+    }
+  }
+
+  /**
+   * Method to find thresholds for a channel that fit its values, starting
+   * from evenly spaced ones and moving each one halfway between the
+   * averages of the levels on either side until they stop moving
+   * @param counts the number of pixels with each value of the channel
+   * @return the thresholds in increasing order
+   */
+  private int[] adapt(long[] counts)
+  {
+    int[] found = new int[levelCount - 1];
+    for (int j = 0; j < found.length; j++)
+      found[j] = (j + 1) * VALUES / levelCount - 1;
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++)
+    {
+      double[] means = means(counts, found);
+      boolean moved = false;
+      for (int j = 0; j < found.length; j++)
+      {
+        int threshold = (int) Math.floor((means[j] + means[j + 1]) / 2);
+        if (threshold != found[j])
+        {
+          found[j] = threshold;
+          moved = true;
+        }
+      }
+      if (!moved)
+        break;
+    }
+    return found;
+  }
+
+  /**
+   * Method to get the average value of each level of a channel
+   * @param counts the number of pixels with each value of the channel
+   * @param cuts the thresholds between the levels
+   * @return the average of each level, or the middle of its values if no
+   * pixel has them
+   */
+  private static double[] means(long[] counts, int[] cuts)
+  {
+    double[] means = new double[cuts.length + 1];
+    int from = 0;
+    for (int j = 0; j <= cuts.length; j++)
+    {
+      int to = j < cuts.length ? cuts[j] + 1 : VALUES;
+      long count = 0;
+      long sum = 0;
+      for (int v = from; v < to; v++)
+      {
+        count += counts[v];
+        sum += counts[v] * v;
+      }
+      means[j] = count > 0 ? (double) sum / count : (from + to - 1) / 2.0;
+      from = to;
+    }
+    return means;
+  }
+
+  /**
+   * Method to get the value each level of a channel becomes
+   * @param counts the number of pixels with each value of the channel
+   * @param cuts the thresholds between the levels
+   * @return the rounded average of each level
+   */
+  private static int[] average(long[] counts, int[] cuts)
+  {
+    double[] means = means(counts, cuts);
+    int[] rounded = new int[means.length];
+    for (int j = 0; j < means.length; j++)
+      rounded[j] = (int) Math.round(means[j]);
+    return rounded;
+  }
+
+  /**
+   * Method to return a string with information about this quantizer
+   * @return a string with information about this quantizer
+   */
+  public String toString()
+  {
+    return "ChannelQuantizer with " + levelCount + " levels a channel" +
+      (fixedThresholds == null ? "" : " at " + Arrays.toString(fixedThresholds));
+  }
+
+}
@@ -0,0 +1,184 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+/**
+ * A palette index that keeps the red, green and blue of the palette
+ * colors in three separate arrays, so the distances from a color to many
+ * palette colors can be computed without unpacking each palette color.
+ * It gives the same answers as KMeans.findClosestColor: the closest color
+ * by squared rgb distance, and the first one on a tie.
+ *
+ * Where the jdk.incubator.vector module is there (java is run with
+ * --add-modules jdk.incubator.vector), create returns a
+ * VectorClosestColorKernel, which computes the distances for several
+ * pixels, or several palette colors, in one SIMD instruction.  That class
+ * is in vector/, compiled on its own with the module, and only loaded by
+ * name, so without the module (or without its class) this scalar kernel
+ * is used and nothing else changes.
+ *
+ * A kernel does not change after it is built, so several threads can
+ * search it at once.
+ */
+public class ClosestColorKernel implements PaletteIndex
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the constructor of the vector kernel (null if it can not be used) */
+  private static final Constructor<?> VECTOR_KERNEL = findVectorKernel();
+
+  /** the packed rgb palette colors */
+  protected int[] palette;
+
+  /** the red value of each palette color */
+  protected int[] reds;
+
+  /** the green value of each palette color */
+  protected int[] greens;
+
+  /** the blue value of each palette color */
+  protected int[] blues;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette to search
+   * @param palette the packed rgb palette colors
+   * @param size the number of palette colors in use
+   */
+  public ClosestColorKernel(int[] palette, int size)
+  {
+    this.palette = Arrays.copyOf(palette, size);
+    reds = new int[size];
+    greens = new int[size];
+    blues = new int[size];
+    for (int k = 0; k < size; k++)
+    {
+      reds[k] = (palette[k] >> 16) & 0xff;
+      greens[k] = (palette[k] >> 8) & 0xff;
+      blues[k] = palette[k] & 0xff;
+    }
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to make the fastest kernel there is for a palette
+   * @param palette the packed rgb palette colors
+   * @param size the number of palette colors in use
+   * @return a vector kernel if the vector module is there, else a scalar one
+   */
+  public static ClosestColorKernel create(int[] palette, int size)
+  {
+    return create(palette, size, true);
+  }
+
+  /**
+   * Method to make a kernel for a palette
+   * @param palette the packed rgb palette colors
+   * @param size the number of palette colors in use
+   * @param vector true to use the vector kernel if the vector module is there
+   * @return the kernel
+   */
+  public static ClosestColorKernel create(int[] palette, int size, boolean vector)
+  {
+    if (vector && VECTOR_KERNEL != null)
+    {
+      try
+      {
+        return (ClosestColorKernel) VECTOR_KERNEL.newInstance(palette, size);
+      }
+      catch (ReflectiveOperationException ex)
+      {
+        // fall back to the scalar kernel
+      }
+    }
+    return new ClosestColorKernel(palette, size);
+  }
+
+  /**
+   * Method to tell if create makes vector kernels
+   * @return true if the vector module is there
+   */
+  public static boolean isVectorAvailable()
+  {
+    return VECTOR_KERNEL != null;
+  }
+
+  /**
+   * Method to find the constructor of the vector kernel
+   * @return the constructor, or null if the vector module is not there
+   */
+  private static Constructor<?> findVectorKernel()
+  {
+    if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+      return null;
+    try
+    {
+      return Class.forName("VectorClosestColorKernel").getConstructor(int[].class, int.class);
+    }
+    catch (ReflectiveOperationException | LinkageError ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Method to get the palette this kernel searches
+   * @return the packed rgb palette colors
+   */
+  public int[] getPalette() { return palette; }
+
+  /**
+   * Method to find the palette color closest to a color
+   * @param rgb the packed color (alpha bits ignored)
+   * @return the index of the closest palette color (the first one on a tie)
+   */
+  public int findClosestColor(int rgb)
+  {
+    int red = (rgb >> 16) & 0xff;
+    int green = (rgb >> 8) & 0xff;
+    int blue = rgb & 0xff;
+    int chosen = 0;
+    int distance = Integer.MAX_VALUE;
+    for (int k = 0; k < palette.length; k++)
+    {
+      int redDistance = red - reds[k];
+      int greenDistance = green - greens[k];
+      int blueDistance = blue - blues[k];
+      int testDistance = redDistance * redDistance +
+        greenDistance * greenDistance +
+        blueDistance * blueDistance;
+      if (testDistance < distance)
+      {
+        distance = testDistance;
+        chosen = k;
+      }
+    }
+    return chosen;
+  }
+
+  /**
+   * Method to find the closest palette color of each of a range of colors
+   * @param colors the packed colors (alpha bits ignored)
+   * @param from the index of the first color
+   * @param to one past the index of the last color
+   * @param chosen where to put the index of each closest palette color
+   * @param offset where to put the first one in chosen
+   */
+  public void findClosestColors(int[] colors, int from, int to, int[] chosen, int offset)
+  {
+    for (int i = from; i < to; i++)
+      chosen[offset + i - from] = findClosestColor(colors[i]);
+  }
+
+  /**
+   * Method to return a string with information about this kernel
+   * @return a string with information about this kernel
+   */
+  public String toString()
+  {
+    return "ClosestColorKernel of " + palette.length + " colors";
+  }
+
+}
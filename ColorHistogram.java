@@ -0,0 +1,270 @@
+import java.util.Arrays;
+
+/**
+ * A class that counts how many pixels have each color.  A big photo
+ * often has only a few hundred thousand different colors, so k-means
+ * run over the counted colors (each weighted by its count) does far less
+ * work per iteration than k-means run over every pixel.
+ *
+ * There are three ways to count:
+ * HASH keeps an IntIntMap of the colors seen, which is small when there
+ * are few colors.  DIRECT keeps a count for every one of the 2^24 colors
+ * (64 MB), which is fastest when there are very many colors.  Both are
+ * exact, so k-means over them gives the same palette as over the pixels.
+ * QUANTIZED drops the low bits of each color and keeps the average color
+ * of each cell, which is smaller still but only close to exact.
+ *
+ * Pixels can be added in several calls, so a picture can be counted one
+ * strip at a time.
+ */
+public class ColorHistogram
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /**
+   * The ways of counting colors
+   */
+  public enum Mode
+  {
+    /** an exact count kept in a hash map */
+    HASH,
+    /** an exact count kept in an array with a place for every color */
+    DIRECT,
+    /** a count of cells of nearby colors */
+    QUANTIZED
+  }
+
+  /** the number of bits per color used by QUANTIZED if none is given */
+  public static final int DEFAULT_BITS = 5;
+
+  /** the way colors are counted */
+  private Mode mode;
+
+  /** the number of bits kept for each of red, green and blue */
+  private int bits;
+
+  /** the counts of each color for HASH */
+  private IntIntMap map;
+
+  /** the count of each color or cell for DIRECT and QUANTIZED */
+  private int[] cellCounts;
+
+  /** the red, green and blue sums of each cell for QUANTIZED */
+  private long[] cellSums;
+
+  /** the total number of pixels added */
+  private long total;
+
+  /** the distinct colors, made when first asked for */
+  private int[] colors;
+
+  /** the count of each distinct color, made when first asked for */
+  private int[] counts;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the way to count colors.  QUANTIZED keeps
+   * DEFAULT_BITS bits for each color.
+   * @param mode the way to count colors
+   */
+  public ColorHistogram(Mode mode)
+  {
+    this(mode, mode == Mode.QUANTIZED ? DEFAULT_BITS : 8);
+  }
+
+  /**
+   * A constructor that counts cells of nearby colors
+   * @param bits the number of bits kept for each of red, green and blue (1 to 7)
+   */
+  public ColorHistogram(int bits)
+  {
+    this(Mode.QUANTIZED, bits);
+  }
+
+  /**
+   * A constructor that takes the way to count and the bits kept
+   * @param mode the way to count colors
+   * @param bits the bits kept for each color
+   */
+  private ColorHistogram(Mode mode, int bits)
+  {
+    if (mode == Mode.QUANTIZED && (bits < 1 || bits > 7))
+      throw new IllegalArgumentException("bits must be from 1 to 7, not " + bits);
+    this.mode = mode;
+    this.bits = bits;
+    if (mode == Mode.HASH)
+      map = new IntIntMap();
+    else if (mode == Mode.DIRECT)
+      cellCounts = new int[1 << 24];
+    else
+    {
+      cellCounts = new int[1 << (3 * bits)];
+      cellSums = new long[3 * cellCounts.length];
+    }
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to count the colors of all the pixels of a picture
+   * @param pixels the packed pixel colors (alpha bits ignored)
+   * @param mode the way to count colors
+   * @return the histogram
+   */
+  public static ColorHistogram build(int[] pixels, Mode mode)
+  {
+    ColorHistogram histogram = new ColorHistogram(mode);
+    histogram.add(pixels, 0, pixels.length);
+    return histogram;
+  }
+
+  /**
+   * Method to get the way colors are counted
+   * @return the mode
+   */
+  public Mode getMode() { return mode; }
+
+  /**
+   * Method to get the number of bits kept for each color
+   * @return the bits kept (8 for the exact modes)
+   */
+  public int getBits() { return bits; }
+
+  /**
+   * Method to count some more pixels
+   * @param pixels the packed pixel colors (alpha bits ignored)
+   * @param from the index of the first pixel to count
+   * @param to one past the index of the last pixel to count
+   */
+  public void add(int[] pixels, int from, int to)
+  {
+    colors = null;
+    counts = null;
+    total += to - from;
+    if (mode == Mode.HASH)
+    {
+      for (int i = from; i < to; i++)
+        map.add(pixels[i] & KMeans.RGB_MASK, 1);
+    }
+    else if (mode == Mode.DIRECT)
+    {
+      for (int i = from; i < to; i++)
+        cellCounts[pixels[i] & KMeans.RGB_MASK]++;
+    }
+    else
+    {
+      int drop = 8 - bits;
+      for (int i = from; i < to; i++)
+      {
+        int rgb = pixels[i];
+        int red = (rgb >> 16) & 0xff;
+        int green = (rgb >> 8) & 0xff;
+        int blue = rgb & 0xff;
+        int cell = (red >> drop) << (2 * bits) | (green >> drop) << bits | (blue >> drop);
+        cellCounts[cell]++;
+        cellSums[3 * cell] += red;
+        cellSums[3 * cell + 1] += green;
+        cellSums[3 * cell + 2] += blue;
+      }
+    }
+  }
+
+  /**
+   * Method to get the total number of pixels counted
+   * @return the number of pixels
+   */
+  public long getTotal() { return total; }
+
+  /**
+   * Method to get the number of distinct colors (or cells used)
+   * @return the number of distinct colors
+   */
+  public int getSize()
+  {
+    compact();
+    return colors.length;
+  }
+
+  /**
+   * Method to get the distinct colors.  For QUANTIZED each is the
+   * average color of the pixels in its cell.
+   * @return the packed colors (do not change them)
+   */
+  public int[] getColors()
+  {
+    compact();
+    return colors;
+  }
+
+  /**
+   * Method to get the number of pixels with each distinct color
+   * @return the counts in the same order as getColors (do not change them)
+   */
+  public int[] getCounts()
+  {
+    compact();
+    return counts;
+  }
+
+  /**
+   * Method to make the distinct color and count arrays if they are not made
+   */
+  private void compact()
+  {
+    if (colors != null)
+      return;
+
+    if (mode == Mode.HASH)
+    {
+      // sort by color so the order does not depend on the hashing
+      long[] entries = new long[map.size()];
+      int size = 0;
+      for (int slot = 0; slot < map.capacity(); slot++)
+        if (map.getKeyAt(slot) != IntIntMap.EMPTY)
+          entries[size++] = (long) map.getKeyAt(slot) << 32 | map.getValueAt(slot);
+      Arrays.sort(entries);
+      colors = new int[size];
+      counts = new int[size];
+      for (int i = 0; i < size; i++)
+      {
+        colors[i] = (int) (entries[i] >>> 32);
+        counts[i] = (int) entries[i];
+      }
+      return;
+    }
+
+    int size = 0;
+    for (int count : cellCounts)
+      if (count > 0)
+        size++;
+    colors = new int[size];
+    counts = new int[size];
+    int next = 0;
+    for (int cell = 0; cell < cellCounts.length; cell++)
+    {
+      int count = cellCounts[cell];
+      if (count == 0)
+        continue;
+      if (mode == Mode.DIRECT)
+        colors[next] = cell;
+      else
+        colors[next] = (int) (cellSums[3 * cell] / count) << 16 |
+                       (int) (cellSums[3 * cell + 1] / count) << 8 |
+                       (int) (cellSums[3 * cell + 2] / count);
+      counts[next++] = count;
+    }
+  }
+
+  /**
+   * Method to return a string with information about this histogram
+   * @return a string with information about this histogram
+   */
+  public String toString()
+  {
+    return "ColorHistogram (" + mode + (mode == Mode.QUANTIZED ? " " + bits + " bits" : "") +
+      ") " + getSize() + " colors from " + total + " pixels";
+  }
+
+}
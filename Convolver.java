@@ -0,0 +1,430 @@
+/**
+ * A class that convolves the packed pixels of a picture with a square
+ * kernel of any odd size.  Each new red, green and blue value is the
+ * weighted sum of the values around the pixel, cut to an int and kept
+ * from 0 to 255.  Pixels closer to the edge than half the kernel are
+ * left as they were, as Picture.convolve has always done.
+ *
+ * Kernels of 3x3 or less are always summed directly, in the same order
+ * as the original Picture.convolve, so they give exactly the same
+ * pictures.  Bigger kernels use a faster way when the kernel allows it:
+ * a box kernel (all weights the same) is summed with a summed-area table
+ * so each pixel costs the same whatever the size, and a separable kernel
+ * (a column of weights times a row of weights) is done as a pass along
+ * the rows and then one down the columns.  These add the same products
+ * in a different order, so a value can come out one less when the
+ * exact sum is a whole number.
+ *
+ * The rows can be split across several threads by row bands.  Each
+ * pixel is worked out from the source alone, so the picture does not
+ * depend on the thread count.
+ */
+public class Convolver
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /**
+   * The ways a convolution can be done
+   */
+  public enum Method
+  {
+    /** pick the fastest exact-enough way for the kernel */
+    AUTO,
+    /** sum every weighted value around each pixel */
+    DIRECT,
+    /** a pass along the rows then one down the columns */
+    SEPARABLE,
+    /** sums from a summed-area table (box kernels only) */
+    SUMMED_AREA
+  }
+
+  /** the biggest kernel size AUTO always sums directly */
+  public static final int DIRECT_MAX_SIZE = 3;
+
+  /** the number of rows worked on at once by the separable and summed-area ways */
+  private static final int CHUNK_ROWS = 64;
+
+  /** the kernel, size by size */
+  private double[][] kernel;
+
+  /** the number of rows and columns in the kernel */
+  private int size;
+
+  /** half the size, the distance from the center to an edge of the kernel */
+  private int radius;
+
+  /** the weights along a row and down a column (null if not separable) */
+  private double[] rowWeights;
+  private double[] columnWeights;
+
+  /** true if every weight is the same */
+  private boolean box;
+
+  /** the way the convolution is done */
+  private Method method = Method.AUTO;
+
+  /** the number of threads used */
+  private int threads = 1;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the kernel
+   * @param kernel the weights, a square with an odd number of rows (it is copied)
+   */
+  public Convolver(double[][] kernel)
+  {
+    size = kernel.length;
+    if (size % 2 == 0)
+      throw new IllegalArgumentException("the kernel size must be odd, not " + size);
+    radius = size / 2;
+    this.kernel = new double[size][];
+    for (int i = 0; i < size; i++)
+    {
+      if (kernel[i].length != size)
+        throw new IllegalArgumentException("row " + i + " of the kernel has " + kernel[i].length +
+                                           " weights instead of " + size);
+      this.kernel[i] = kernel[i].clone();
+    }
+    findShape();
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of rows and columns in the kernel
+   * @return the kernel size
+   */
+  public int getSize() { return size; }
+
+  /**
+   * Method to tell if the kernel is a column of weights times a row of weights
+   * @return true if the kernel is separable
+   */
+  public boolean isSeparable() { return rowWeights != null; }
+
+  /**
+   * Method to tell if all the weights of the kernel are the same
+   * @return true if the kernel is a box
+   */
+  public boolean isBox() { return box; }
+
+  /**
+   * Method to get the way the convolution is done
+   * @return the method
+   */
+  public Method getMethod() { return method; }
+
+  /**
+   * Method to set the way the convolution is done
+   * @param method the method (AUTO picks one from the kernel)
+   */
+  public void setMethod(Method method)
+  {
+    if (method == Method.SEPARABLE && !isSeparable())
+      throw new IllegalArgumentException("the kernel is not separable");
+    if (method == Method.SUMMED_AREA && !box)
+      throw new IllegalArgumentException("a summed-area table needs a box kernel");
+    this.method = method;
+  }
+
+  /**
+   * Method to get the way the convolution will really be done
+   * @return DIRECT, SEPARABLE or SUMMED_AREA
+   */
+  public Method getMethodUsed()
+  {
+    if (method != Method.AUTO)
+      return method;
+    if (size <= DIRECT_MAX_SIZE)
+      return Method.DIRECT;
+    if (box)
+      return Method.SUMMED_AREA;
+    if (isSeparable())
+      return Method.SEPARABLE;
+    return Method.DIRECT;
+  }
+
+  /**
+   * Method to get the number of threads used
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads used
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to convolve packed pixels
+   * @param pixels the packed pixels, row by row (not changed)
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @return new packed pixels, with the alpha of the old ones
+   */
+  public int[] convolve(int[] pixels, int width, int height)
+  {
+    int[] result = pixels.clone();
+    convolve(pixels, result, width, height);
+    return result;
+  }
+
+  /**
+   * Method to convolve packed pixels into another array.  Only the
+   * pixels at least half the kernel away from every edge are written.
+   * @param source the packed pixels, row by row
+   * @param target where to put the new pixels (not the source array)
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   */
+  public void convolve(final int[] source, final int[] target, final int width, final int height)
+  {
+    if (width <= 2 * radius || height <= 2 * radius)
+      return;
+    final Method used = getMethodUsed();
+    RowBands bands = new RowBands(threads);
+    try
+    {
+      bands.forEach(height, new RowBands.Task() {
+        public void run(int band, int fromRow, int toRow)
+        {
+          int from = Math.max(fromRow, radius);
+          int to = Math.min(toRow, height - radius);
+          for (int chunk = from; chunk < to; chunk += CHUNK_ROWS)
+          {
+            int chunkEnd = Math.min(to, chunk + CHUNK_ROWS);
+            if (used == Method.SUMMED_AREA)
+              sumBox(source, target, width, chunk, chunkEnd);
+            else if (used == Method.SEPARABLE)
+              sumSeparable(source, target, width, chunk, chunkEnd);
+            else
+              sumDirect(source, target, width, chunk, chunkEnd);
+          }
+        }
+      });
+    }
+    finally
+    {
+      bands.close();
+    }
+  }
+
+  /**
+   * Method to work out if the kernel is a box or separable
+   */
+  private void findShape()
+  {
+    box = kernel[0][0] != 0;
+    int pivotRow = 0;
+    int pivotColumn = 0;
+    for (int i = 0; i < size; i++)
+      for (int j = 0; j < size; j++)
+      {
+        if (kernel[i][j] != kernel[0][0])
+          box = false;
+        if (Math.abs(kernel[i][j]) > Math.abs(kernel[pivotRow][pivotColumn]))
+        {
+          pivotRow = i;
+          pivotColumn = j;
+        }
+      }
+    double pivot = kernel[pivotRow][pivotColumn];
+    if (pivot == 0)
+      return;
+
+    // the kernel is separable if it is its pivot column times its pivot row
+    double[] row = kernel[pivotRow].clone();
+    double[] column = new double[size];
+    for (int i = 0; i < size; i++)
+      column[i] = kernel[i][pivotColumn] / pivot;
+    double tolerance = Math.abs(pivot) * 1e-9;
+    for (int i = 0; i < size; i++)
+      for (int j = 0; j < size; j++)
+        if (Math.abs(kernel[i][j] - column[i] * row[j]) > tolerance)
+          return;
+    rowWeights = row;
+    columnWeights = column;
+  }
+
+  /**
+   * Method to convolve some rows by summing every weighted value, in the
+   * same order as the original Picture.convolve
+   * @param source the packed pixels
+   * @param target where to put the new pixels
+   * @param width the number of pixels in each row
+   * @param fromRow the first row to work out
+   * @param toRow one past the last row to work out
+   */
+  private void sumDirect(int[] source, int[] target, int width, int fromRow, int toRow)
+  {
+    for (int y = fromRow; y < toRow; y++)
+      for (int x = radius; x < width - radius; x++)
+      {
+        double red = 0;
+        double green = 0;
+        double blue = 0;
+        for (int i = 0; i < size; i++)
+        {
+          int index = (y - radius + i) * width + x - radius;
+          double[] weights = kernel[i];
+          for (int j = 0; j < size; j++)
+          {
+            int rgb = source[index + j];
+            double weight = weights[j];
+            red += ((rgb >> 16) & 0xff) * weight;
+            green += ((rgb >> 8) & 0xff) * weight;
+            blue += (rgb & 0xff) * weight;
+          }
+        }
+        int at = y * width + x;
+        target[at] = pack(source[at], red, green, blue);
+      }
+  }
+
+  /**
+   * Method to convolve some rows with a pass along the rows into float
+   * planes and then a pass down the columns
+   * @param source the packed pixels
+   * @param target where to put the new pixels
+   * @param width the number of pixels in each row
+   * @param fromRow the first row to work out
+   * @param toRow one past the last row to work out
+   */
+  private void sumSeparable(int[] source, int[] target, int width, int fromRow, int toRow)
+  {
+    // the row sums for the rows the kernel reaches, starting at fromRow - radius
+    int rows = toRow - fromRow + 2 * radius;
+    float[] reds = new float[rows * width];
+    float[] greens = new float[reds.length];
+    float[] blues = new float[reds.length];
+    for (int r = 0; r < rows; r++)
+    {
+      int start = (fromRow - radius + r) * width - radius;
+      for (int x = radius; x < width - radius; x++)
+      {
+        double red = 0;
+        double green = 0;
+        double blue = 0;
+        for (int j = 0; j < size; j++)
+        {
+          int rgb = source[start + x + j];
+          double weight = rowWeights[j];
+          red += ((rgb >> 16) & 0xff) * weight;
+          green += ((rgb >> 8) & 0xff) * weight;
+          blue += (rgb & 0xff) * weight;
+        }
+        int at = r * width + x;
+        reds[at] = (float) red;
+        greens[at] = (float) green;
+        blues[at] = (float) blue;
+      }
+    }
+
+    for (int y = fromRow; y < toRow; y++)
+      for (int x = radius; x < width - radius; x++)
+      {
+        double red = 0;
+        double green = 0;
+        double blue = 0;
+        int index = (y - fromRow) * width + x;
+        for (int i = 0; i < size; i++, index += width)
+        {
+          double weight = columnWeights[i];
+          red += reds[index] * weight;
+          green += greens[index] * weight;
+          blue += blues[index] * weight;
+        }
+        int at = y * width + x;
+        target[at] = pack(source[at], red, green, blue);
+      }
+  }
+
+  /**
+   * Method to convolve some rows with a box kernel using a summed-area
+   * table of the rows the kernel reaches.  The table is kept in ints
+   * that may wrap around, which still gives the right window sums since
+   * those are never more than 255 times the kernel area.
+   * @param source the packed pixels
+   * @param target where to put the new pixels
+   * @param width the number of pixels in each row
+   * @param fromRow the first row to work out
+   * @param toRow one past the last row to work out
+   */
+  private void sumBox(int[] source, int[] target, int width, int fromRow, int toRow)
+  {
+    int rows = toRow - fromRow + 2 * radius;
+    int stride = width + 1;
+    int[] reds = new int[(rows + 1) * stride];
+    int[] greens = new int[reds.length];
+    int[] blues = new int[reds.length];
+    for (int r = 0; r < rows; r++)
+    {
+      int index = (fromRow - radius + r) * width;
+      int above = r * stride;
+      int at = above + stride;
+      int red = 0;
+      int green = 0;
+      int blue = 0;
+      for (int x = 0; x < width; x++)
+      {
+        int rgb = source[index + x];
+        red += (rgb >> 16) & 0xff;
+        green += (rgb >> 8) & 0xff;
+        blue += rgb & 0xff;
+        reds[at + x + 1] = reds[above + x + 1] + red;
+        greens[at + x + 1] = greens[above + x + 1] + green;
+        blues[at + x + 1] = blues[above + x + 1] + blue;
+      }
+    }
+
+    double weight = kernel[0][0];
+    for (int y = fromRow; y < toRow; y++)
+    {
+      int top = (y - fromRow) * stride;
+      int bottom = top + size * stride;
+      for (int x = radius; x < width - radius; x++)
+      {
+        int left = x - radius;
+        int right = left + size;
+        int red = reds[bottom + right] - reds[top + right] - reds[bottom + left] + reds[top + left];
+        int green = greens[bottom + right] - greens[top + right] - greens[bottom + left] + greens[top + left];
+        int blue = blues[bottom + right] - blues[top + right] - blues[bottom + left] + blues[top + left];
+        int at = y * width + x;
+        target[at] = pack(source[at], red * weight, green * weight, blue * weight);
+      }
+    }
+  }
+
+  /**
+   * Method to pack new color values, cut to ints and kept from 0 to 255
+   * @param old the old packed pixel, whose alpha is kept
+   * @param red the new red value
+   * @param green the new green value
+   * @param blue the new blue value
+   * @return the new packed pixel
+   */
+  private static int pack(int old, double red, double green, double blue)
+  {
+    return (old & SimplePicture.ALPHA_MASK) | Pixel.correctValue((int) red) << 16 |
+      Pixel.correctValue((int) green) << 8 | Pixel.correctValue((int) blue);
+  }
+
+  /**
+   * Method to return a string with information about this convolver
+   * @return a string with information about this convolver
+   */
+  public String toString()
+  {
+    return "Convolver for a " + size + "x" + size + " kernel (" + getMethodUsed() + ", " +
+      threads + " threads)";
+  }
+
+}
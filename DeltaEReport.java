@@ -0,0 +1,167 @@
+import java.util.Locale;
+
+/**
+ * A class that measures how far the colors of a picture are from the
+ * colors of the picture it was made from, such as a picture made by
+ * Picture.reduceColors, using the CIE 1976 color difference (Delta E, the
+ * distance in CIE L*a*b*).  A Delta E of about 2.3 is the smallest
+ * difference most people can see, so the report tells if a palette with
+ * fewer colors looks as good as one with more, which the squared rgb
+ * error does not.
+ */
+public class DeltaEReport
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the smallest difference most people can see */
+  public static final double JUST_NOTICEABLE = 2.3;
+
+  /** the width of the steps the differences are counted in for the percentile */
+  private static final double STEP = 0.01;
+
+  /** the number of pixels compared */
+  private long count;
+
+  /** the sum of the differences */
+  private double total;
+
+  /** the sum of the squared differences */
+  private double totalSquared;
+
+  /** the biggest difference */
+  private double max;
+
+  /** the number of pixels that differ by more than JUST_NOTICEABLE */
+  private long noticeable;
+
+  /** the number of pixels in each step of the differences */
+  private long[] steps = new long[(int) (400 / STEP) + 1];
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that compares two sets of pixels
+   * @param source the packed pixels of the source picture
+   * @param result the packed pixels of the picture made from it
+   */
+  public DeltaEReport(int[] source, int[] result)
+  {
+    if (source.length != result.length)
+      throw new IllegalArgumentException("there are " + source.length + " source pixels but " +
+                                         result.length + " result pixels");
+    float[] lab1 = new float[3];
+    float[] lab2 = new float[3];
+    int lastSource = 0, lastResult = 0;
+    double delta = 0;
+    for (int i = 0; i < source.length; i++)
+    {
+      int rgb1 = source[i] & KMeans.RGB_MASK;
+      int rgb2 = result[i] & KMeans.RGB_MASK;
+
+      // neighbouring pixels often have the same colors
+      if (i == 0 || rgb1 != lastSource || rgb2 != lastResult)
+      {
+        LabSpace.CIELAB.toLab(rgb1, lab1);
+        LabSpace.CIELAB.toLab(rgb2, lab2);
+        double dl = lab1[0] - lab2[0];
+        double da = lab1[1] - lab2[1];
+        double db = lab1[2] - lab2[2];
+        delta = Math.sqrt(dl * dl + da * da + db * db);
+        lastSource = rgb1;
+        lastResult = rgb2;
+      }
+      add(delta);
+    }
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to count one difference
+   * @param delta the difference
+   */
+  private void add(double delta)
+  {
+    count++;
+    total += delta;
+    totalSquared += delta * delta;
+    max = Math.max(max, delta);
+    if (delta > JUST_NOTICEABLE)
+      noticeable++;
+    steps[Math.min(steps.length - 1, (int) (delta / STEP))]++;
+  }
+
+  /**
+   * Method to get the number of pixels compared
+   * @return the number of pixels
+   */
+  public long getCount() { return count; }
+
+  /**
+   * Method to get the average difference
+   * @return the mean Delta E
+   */
+  public double getMean()
+  {
+    return count == 0 ? 0 : total / count;
+  }
+
+  /**
+   * Method to get the root mean square difference, which weighs big
+   * differences more than the mean does
+   * @return the rms Delta E
+   */
+  public double getRms()
+  {
+    return count == 0 ? 0 : Math.sqrt(totalSquared / count);
+  }
+
+  /**
+   * Method to get the biggest difference
+   * @return the largest Delta E
+   */
+  public double getMax() { return max; }
+
+  /**
+   * Method to get the difference that a fraction of the pixels are within
+   * @param fraction the fraction of the pixels, from 0 to 1 (0.95 for the 95th percentile)
+   * @return the Delta E, to within 0.01
+   */
+  public double getPercentile(double fraction)
+  {
+    if (fraction < 0 || fraction > 1)
+      throw new IllegalArgumentException("the fraction must be from 0 to 1, not " + fraction);
+    long wanted = (long) Math.ceil(fraction * count);
+    long seen = 0;
+    for (int i = 0; i < steps.length; i++)
+    {
+      seen += steps[i];
+      if (seen >= wanted && seen > 0)
+        return Math.min(max, (i + 1) * STEP);
+    }
+    return max;
+  }
+
+  /**
+   * Method to get the fraction of the pixels that differ by more than most people can see
+   * @return the fraction of the pixels over JUST_NOTICEABLE
+   */
+  public double getNoticeableFraction()
+  {
+    return count == 0 ? 0 : (double) noticeable / count;
+  }
+
+  /**
+   * Method to return a string with information about this report
+   * @return a string with information about this report
+   */
+  public String toString()
+  {
+    return String.format(Locale.ROOT, "DeltaEReport with mean %.2f, rms %.2f, " +
+                         "95th percentile %.2f, max %.2f, %.1f%% noticeable over %d pixels",
+                         getMean(), getRms(), getPercentile(0.95), getMax(),
+                         100 * getNoticeableFraction(), count);
+  }
+
+}
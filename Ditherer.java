@@ -0,0 +1,387 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A class that maps the colors of a picture to a palette with dithering,
+ * so a small palette shows gradients as a mix of its colors instead of
+ * flat bands.
+ *
+ * ORDERED dithering adds a different offset to each pixel from a Bayer
+ * matrix before finding the closest palette color.  Each pixel only
+ * depends on its own color and place, so the row bands can run in any
+ * order on any number of threads.  The offsets cover about half the
+ * distance between neighbouring palette colors, which measured best on
+ * the sample pictures.
+ *
+ * FLOYD_STEINBERG passes the error of each pixel on to the pixels to the
+ * right and below it (7/16 right, 3/16 down left, 5/16 down and 1/16 down
+ * right).  A pixel needs the row above to be done two pixels further
+ * along, so the rows run as a wavefront: each thread takes every
+ * threads-th row and follows the row above it by a few columns.  The
+ * errors are added as whole sixteenths, so the picture does not depend on
+ * the thread count.  Serpentine rows (every other row right to left) have
+ * fewer diagonal artifacts, but a row can then only start when the one
+ * above it is finished, so they run on one thread.
+ *
+ * NONE maps each pixel to the closest palette color, as
+ * Picture.mapToColorList always has.
+ */
+public class Ditherer
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /**
+   * The ways of dithering
+   */
+  public enum Method
+  {
+    /** the closest palette color, no dithering */
+    NONE,
+    /** offsets from a Bayer matrix */
+    ORDERED,
+    /** error diffusion */
+    FLOYD_STEINBERG
+  }
+
+  /** the number of columns a Floyd-Steinberg row does before telling the row below */
+  private static final int WAVEFRONT_COLUMNS = 64;
+
+  /** the palette and the way to search it */
+  private PaletteIndex index;
+
+  /** the way of dithering */
+  private Method method = Method.FLOYD_STEINBERG;
+
+  /** the size of the Bayer matrix (2, 4 or 8) */
+  private int bayerSize = 8;
+
+  /** the range of the offsets added by ordered dithering (-1 to work it out from the palette) */
+  private double spread = -1;
+
+  /** true to run every other Floyd-Steinberg row right to left */
+  private boolean serpentine;
+
+  /** the number of threads used */
+  private int threads = 1;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette and the way to search it
+   * @param index the palette index
+   */
+  public Ditherer(PaletteIndex index)
+  {
+    this.index = index;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the way of dithering
+   * @return the method
+   */
+  public Method getMethod() { return method; }
+
+  /**
+   * Method to set the way of dithering
+   * @param method NONE, ORDERED or FLOYD_STEINBERG
+   */
+  public void setMethod(Method method) { this.method = method; }
+
+  /**
+   * Method to get the size of the Bayer matrix
+   * @return 2, 4 or 8
+   */
+  public int getBayerSize() { return bayerSize; }
+
+  /**
+   * Method to set the size of the Bayer matrix used by ordered dithering
+   * @param bayerSize 2, 4 or 8 (bigger gives more levels)
+   */
+  public void setBayerSize(int bayerSize)
+  {
+    if (bayerSize != 2 && bayerSize != 4 && bayerSize != 8)
+      throw new IllegalArgumentException("the Bayer size must be 2, 4 or 8, not " + bayerSize);
+    this.bayerSize = bayerSize;
+  }
+
+  /**
+   * Method to get the range of the offsets added by ordered dithering
+   * @return the range in rgb units (half the average distance from each
+   * palette color to the closest other one, if none was set)
+   */
+  public double getSpread()
+  {
+    if (spread >= 0)
+      return spread;
+    int[] palette = index.getPalette();
+    if (palette.length < 2)
+      return 0;
+    double total = 0;
+    for (int i = 0; i < palette.length; i++)
+    {
+      int closest = Integer.MAX_VALUE;
+      for (int j = 0; j < palette.length; j++)
+        if (j != i)
+          closest = Math.min(closest, KMeans.colorDistance(palette[i], palette[j]));
+      total += Math.sqrt(closest);
+    }
+    return total / palette.length / 2;
+  }
+
+  /**
+   * Method to set the range of the offsets added by ordered dithering
+   * @param spread the range in rgb units (-1 to work it out from the palette)
+   */
+  public void setSpread(double spread) { this.spread = spread; }
+
+  /**
+   * Method to tell if every other Floyd-Steinberg row runs right to left
+   * @return true for serpentine rows
+   */
+  public boolean isSerpentine() { return serpentine; }
+
+  /**
+   * Method to set if every other Floyd-Steinberg row runs right to left.
+   * Serpentine rows always run on one thread.
+   * @param serpentine true for serpentine rows
+   */
+  public void setSerpentine(boolean serpentine) { this.serpentine = serpentine; }
+
+  /**
+   * Method to get the number of threads used
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads used
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to map packed pixels to the palette
+   * @param pixels the packed pixels, row by row (not changed)
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @return the new packed pixels, with the alpha of the old ones
+   */
+  public int[] map(int[] pixels, int width, int height)
+  {
+    int[] result = new int[pixels.length];
+    if (method == Method.FLOYD_STEINBERG)
+      diffuse(pixels, result, width, height);
+    else
+      mapEach(pixels, result, width, height);
+    return result;
+  }
+
+  /**
+   * Method to make a Bayer matrix
+   * @param size 2, 4 or 8
+   * @return the matrix, with each of 0 to size * size - 1 once
+   */
+  public static int[][] bayerMatrix(int size)
+  {
+    int[][] matrix = {{0}};
+    for (int n = 1; n < size; n *= 2)
+    {
+      int[][] bigger = new int[2 * n][2 * n];
+      for (int y = 0; y < n; y++)
+        for (int x = 0; x < n; x++)
+        {
+          int value = 4 * matrix[y][x];
+          bigger[y][x] = value;
+          bigger[y][x + n] = value + 2;
+          bigger[y + n][x] = value + 3;
+          bigger[y + n][x + n] = value + 1;
+        }
+      matrix = bigger;
+    }
+    return matrix;
+  }
+
+  /**
+   * Method to map each pixel on its own, with an ordered offset or none
+   * @param pixels the packed pixels
+   * @param result where to put the new pixels
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   */
+  private void mapEach(final int[] pixels, final int[] result, final int width, int height)
+  {
+    final int[] palette = index.getPalette();
+    final int[][] offsets = new int[bayerSize][bayerSize];
+    if (method == Method.ORDERED)
+    {
+      // the thresholds are spread evenly from -spread / 2 to spread / 2
+      int[][] matrix = bayerMatrix(bayerSize);
+      double spread = getSpread();
+      int cells = bayerSize * bayerSize;
+      for (int y = 0; y < bayerSize; y++)
+        for (int x = 0; x < bayerSize; x++)
+          offsets[y][x] = (int) Math.round(((matrix[y][x] + 0.5) / cells - 0.5) * spread);
+    }
+    RowBands bands = new RowBands(threads);
+    try
+    {
+      bands.forEach(height, new RowBands.Task() {
+        public void run(int band, int fromRow, int toRow)
+        {
+          for (int y = fromRow; y < toRow; y++)
+          {
+            int[] rowOffsets = offsets[y % offsets.length];
+            for (int x = 0, i = y * width; x < width; x++, i++)
+            {
+              int rgb = pixels[i];
+              int offset = rowOffsets[x % rowOffsets.length];
+              if (offset != 0)
+                rgb = pack(((rgb >> 16) & 0xff) + offset, ((rgb >> 8) & 0xff) + offset,
+                           (rgb & 0xff) + offset);
+              result[i] = (pixels[i] & SimplePicture.ALPHA_MASK) | palette[index.findClosestColor(rgb)];
+            }
+          }
+        }
+      });
+    }
+    finally
+    {
+      bands.close();
+    }
+  }
+
+  /**
+   * Method to map the pixels with Floyd-Steinberg error diffusion.  The
+   * errors for the rows being worked on are kept in a ring of rows, each
+   * with a column of room on both sides.
+   * @param pixels the packed pixels
+   * @param result where to put the new pixels
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   */
+  private void diffuse(final int[] pixels, final int[] result, final int width, final int height)
+  {
+    final int workers = serpentine ? 1 : Math.max(1, Math.min(threads, height));
+    final int ringRows = workers + 2;
+    final int stride = width + 2;
+    final int[][] errors = new int[3][ringRows * stride];
+
+    // the number of columns each row has done
+    final AtomicIntegerArray done = new AtomicIntegerArray(height);
+    RowBands bands = new RowBands(workers);
+    try
+    {
+      bands.forEach(workers, new RowBands.Task() {
+        public void run(int band, int fromRow, int toRow)
+        {
+          for (int worker = fromRow; worker < toRow; worker++)
+            for (int y = worker; y < height; y += workers)
+              diffuseRow(pixels, result, width, y, errors, ringRows, done);
+        }
+      });
+    }
+    finally
+    {
+      bands.close();
+    }
+  }
+
+  /**
+   * Method to map one row with error diffusion, waiting for the row above
+   * to be far enough along
+   * @param pixels the packed pixels
+   * @param result where to put the new pixels
+   * @param width the number of pixels in each row
+   * @param y the row
+   * @param errors the red, green and blue errors in sixteenths for the ring of rows
+   * @param ringRows the number of rows in the ring
+   * @param done the number of columns each row has done
+   */
+  private void diffuseRow(int[] pixels, int[] result, int width, int y, int[][] errors,
+                          int ringRows, AtomicIntegerArray done)
+  {
+    int[] palette = index.getPalette();
+    int stride = width + 2;
+    int here = (y % ringRows) * stride + 1;
+    int below = ((y + 1) % ringRows) * stride + 1;
+    boolean backwards = serpentine && y % 2 == 1;
+    int step = backwards ? -1 : 1;
+    int[] wanted = new int[3];
+    for (int n = 0; n < width; n++)
+    {
+      if (n % WAVEFRONT_COLUMNS == 0)
+      {
+        if (n > 0)
+          done.set(y, n);
+        if (y > 0)
+        {
+          // the row above passes errors down to the next column, and
+          // down left from the one after that
+          int needed = Math.min(width, n + WAVEFRONT_COLUMNS + 2);
+          if (backwards)
+            needed = width;
+          while (done.get(y - 1) < needed)
+            Thread.yield();
+        }
+      }
+      int x = backwards ? width - 1 - n : n;
+      int i = y * width + x;
+      int rgb = pixels[i];
+      for (int c = 0; c < 3; c++)
+      {
+        int error = errors[c][here + x];
+        errors[c][here + x] = 0;
+        int value = (rgb >> (16 - 8 * c)) & 0xff;
+        wanted[c] = Pixel.correctValue(value + ((error + 8) >> 4));
+      }
+      int chosen = palette[index.findClosestColor(wanted[0] << 16 | wanted[1] << 8 | wanted[2])];
+      result[i] = (rgb & SimplePicture.ALPHA_MASK) | chosen;
+      for (int c = 0; c < 3; c++)
+      {
+        int error = wanted[c] - ((chosen >> (16 - 8 * c)) & 0xff);
+        int[] plane = errors[c];
+        plane[here + x + step] += 7 * error;
+        plane[below + x - step] += 3 * error;
+        plane[below + x] += 5 * error;
+        plane[below + x + step] += error;
+      }
+    }
+    // the columns of room at the ends only collect errors that are dropped
+    for (int c = 0; c < 3; c++)
+    {
+      errors[c][here - 1] = 0;
+      errors[c][here + width] = 0;
+    }
+    done.set(y, width);
+  }
+
+  /**
+   * Method to pack color values, keeping each from 0 to 255
+   * @param red the red value
+   * @param green the green value
+   * @param blue the blue value
+   * @return the packed color
+   */
+  private static int pack(int red, int green, int blue)
+  {
+    return Pixel.correctValue(red) << 16 | Pixel.correctValue(green) << 8 | Pixel.correctValue(blue);
+  }
+
+  /**
+   * Method to return a string with information about this ditherer
+   * @return a string with information about this ditherer
+   */
+  public String toString()
+  {
+    return "Ditherer (" + method + ", " + index.getPalette().length + " colors, " +
+      threads + " threads)";
+  }
+
+}
@@ -0,0 +1,44 @@
+import java.util.Arrays;
+
+/**
+ * A seed strategy that uses the first distinct colors found going through
+ * the pixels row by row, the way Picture.firstPixelColors does.
+ */
+public class FirstColorsSeeds implements SeedStrategy
+{
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to pick the first distinct colors
+   * @param colors the packed colors being clustered
+   * @param weights the weights of the colors (not used)
+   * @param number the number of colors wanted
+   * @return the first distinct colors (fewer if there are not that many)
+   */
+  public int[] seed(int[] colors, int[] weights, int number)
+  {
+    int[] palette = new int[number];
+    int size = 0;
+    for (int i = 0; i < colors.length && size < number; i++)
+    {
+      int rgb = colors[i] & KMeans.RGB_MASK;
+      boolean found = false;
+      for (int j = 0; j < size && !found; j++)
+        found = palette[j] == rgb;
+      if (!found)
+        palette[size++] = rgb;
+    }
+    return Arrays.copyOf(palette, size);
+  }
+
+  /**
+   * Method to return a string with information about this strategy
+   * @return a string with information about this strategy
+   */
+  public String toString()
+  {
+    return "first colors";
+  }
+
+}
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A seed strategy that starts from a palette found before, such as the
+ * palette of the previous frame of a video or of a near copy of the
+ * picture.  k-means then only has to move the colors a little, so it
+ * takes far fewer iterations than from fresh seeds.  If the palette has
+ * fewer colors than wanted the rest are picked by another strategy.
+ */
+public class FixedSeeds implements SeedStrategy
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the packed palette colors to start from */
+  private int[] palette;
+
+  /** the strategy that picks more colors if the palette is short */
+  private SeedStrategy more;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette to start from, with k-means++
+   * picking more colors if it is short
+   * @param palette the packed palette colors (they are copied)
+   */
+  public FixedSeeds(int[] palette)
+  {
+    this(palette, new KMeansPlusPlusSeeds(0));
+  }
+
+  /**
+   * A constructor that takes the palette to start from and the strategy
+   * that picks more colors if it is short
+   * @param palette the packed palette colors (they are copied)
+   * @param more the strategy that picks the other colors
+   */
+  public FixedSeeds(int[] palette, SeedStrategy more)
+  {
+    this.palette = palette.clone();
+    this.more = more;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to pick the starting colors: the distinct palette colors, then
+   * colors from the other strategy that are not already there
+   * @param colors the packed colors being clustered
+   * @param weights the number of pixels each color stands for (may be null)
+   * @param number the number of colors wanted
+   * @return the starting colors (fewer if there are not that many)
+   */
+  public int[] seed(int[] colors, int[] weights, int number)
+  {
+    int[] seeds = new int[number];
+    int size = add(seeds, 0, palette);
+    if (size < number)
+      size = add(seeds, size, more.seed(colors, weights, number));
+    return Arrays.copyOf(seeds, size);
+  }
+
+  /**
+   * Method to add the colors that are not there yet, until there are enough
+   * @param seeds the colors picked so far
+   * @param size the number of colors picked so far
+   * @param candidates the colors to add
+   * @return the new number of colors picked
+   */
+  private static int add(int[] seeds, int size, int[] candidates)
+  {
+    for (int i = 0; i < candidates.length && size < seeds.length; i++)
+    {
+      int rgb = candidates[i] & KMeans.RGB_MASK;
+      boolean found = false;
+      for (int j = 0; j < size && !found; j++)
+        found = seeds[j] == rgb;
+      if (!found)
+        seeds[size++] = rgb;
+    }
+    return size;
+  }
+
+  /**
+   * Method to return a string with information about this strategy.  It
+   * has a hash of the palette, since PaletteCache keys palettes by it and
+   * two strategies that print the same must pick the same seeds.
+   * @return a string with information about this strategy
+   */
+  public String toString()
+  {
+    return String.format(Locale.ROOT, "fixed(%d colors %016x, then %s)", palette.length,
+                         PaletteCache.contentHash(palette, palette.length, 1), more);
+  }
+
+}
@@ -0,0 +1,248 @@
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+/**
+ * A class that makes images that store a palette index for each pixel
+ * instead of its red, green and blue, so a picture with few colors takes
+ * a byte or less per pixel in memory and can be written as an 8-bit PNG
+ * or a GIF.  Palettes of up to 2, 4 and 16 colors pack 8, 4 and 2 pixels
+ * into each byte.  Each row starts on a new byte, so rows can be filled
+ * by several threads at once.
+ */
+public class IndexedImage
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the most colors an indexed image can have */
+  public static final int MAX_COLORS = 256;
+
+  /** the formats that can hold an indexed image */
+  private static final String[] FORMATS = {"png", "gif"};
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that is private since all the methods are static
+   */
+  private IndexedImage()
+  {
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of bits used for each pixel
+   * @param colors the number of palette colors (1 to MAX_COLORS)
+   * @return 1, 2, 4 or 8
+   */
+  public static int bitsFor(int colors)
+  {
+    if (colors < 1 || colors > MAX_COLORS)
+      throw new IllegalArgumentException("an indexed image needs from 1 to " + MAX_COLORS +
+                                         " colors, not " + colors);
+    int bits = 1;
+    while (1 << bits < colors)
+      bits *= 2;
+    return bits;
+  }
+
+  /**
+   * Method to tell if a format can hold an indexed image
+   * @param extension the format name or file extension such as png
+   * @return true for png and gif
+   */
+  public static boolean canWrite(String extension)
+  {
+    String lower = extension.toLowerCase(Locale.ROOT);
+    for (String format : FORMATS)
+      if (format.equals(lower))
+        return true;
+    return false;
+  }
+
+  /**
+   * Method to make the color model for a palette
+   * @param palette the packed rgb palette colors
+   * @return an opaque color model with the palette colors in order
+   */
+  public static IndexColorModel makeColorModel(int[] palette)
+  {
+    int bits = bitsFor(palette.length);
+    byte[] reds = new byte[palette.length];
+    byte[] greens = new byte[palette.length];
+    byte[] blues = new byte[palette.length];
+    for (int i = 0; i < palette.length; i++)
+    {
+      reds[i] = (byte) (palette[i] >> 16);
+      greens[i] = (byte) (palette[i] >> 8);
+      blues[i] = (byte) palette[i];
+    }
+    return new IndexColorModel(bits, palette.length, reds, greens, blues);
+  }
+
+  /**
+   * Method to make a raster of palette indexes with all pixels at index 0
+   * @param bits the number of bits for each pixel (1, 2, 4 or 8)
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @param origin where the raster starts in the image
+   * @return a raster with one byte per pixel (8 bits) or packed pixels
+   */
+  public static WritableRaster createRaster(int bits, int width, int height, Point origin)
+  {
+    if (bits == 8)
+      return Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, 1, origin);
+    return Raster.createPackedRaster(DataBuffer.TYPE_BYTE, width, height, 1, bits, origin);
+  }
+
+  /**
+   * Method to get the number of bytes in each row of a raster
+   * @param bits the number of bits for each pixel
+   * @param width the number of pixels in each row
+   * @return the number of bytes
+   */
+  public static int bytesPerRow(int bits, int width)
+  {
+    return (width * bits + 7) / 8;
+  }
+
+  /**
+   * Method to put the palette indexes of a row into a raster's bytes.
+   * The bytes of the row must still be 0.
+   * @param indexes the palette index of each pixel in the row
+   * @param width the number of pixels in the row
+   * @param bits the number of bits for each pixel
+   * @param data the bytes of the raster
+   * @param offset where the row starts in the bytes
+   */
+  public static void putRow(int[] indexes, int width, int bits, byte[] data, int offset)
+  {
+    if (bits == 8)
+    {
+      for (int x = 0; x < width; x++)
+        data[offset + x] = (byte) indexes[x];
+      return;
+    }
+    // the first pixel goes in the high bits of a byte
+    for (int x = 0; x < width; x++)
+    {
+      int bit = x * bits;
+      data[offset + (bit >> 3)] |= indexes[x] << (8 - bits - (bit & 7));
+    }
+  }
+
+  /**
+   * Method to make an indexed image with every pixel replaced by its
+   * closest palette color
+   * @param pixels the packed pixels, row by row
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @param index the palette (up to MAX_COLORS colors) and the way to search it
+   * @param threads the number of threads used
+   * @return the indexed image
+   */
+  public static BufferedImage map(final int[] pixels, final int width, int height,
+                                  final PaletteIndex index, int threads)
+  {
+    final IndexColorModel colorModel = makeColorModel(index.getPalette());
+    final int bits = colorModel.getPixelSize();
+    WritableRaster raster = createRaster(bits, width, height, new Point(0, 0));
+    final byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+    final int stride = bytesPerRow(bits, width);
+    RowBands bands = new RowBands(threads);
+    try
+    {
+      bands.forEach(height, new RowBands.Task() {
+        public void run(int band, int fromRow, int toRow)
+        {
+          int[] indexes = new int[width];
+          for (int y = fromRow; y < toRow; y++)
+          {
+            for (int x = 0, i = y * width; x < width; x++, i++)
+              indexes[x] = index.findClosestColor(pixels[i]);
+            putRow(indexes, width, bits, data, y * stride);
+          }
+        }
+      });
+    }
+    finally
+    {
+      bands.close();
+    }
+    return new BufferedImage(colorModel, raster, false, null);
+  }
+
+  /**
+   * Method to make an indexed image of pixels that use only a few colors,
+   * such as a picture made by Picture.reduceColors.  The palette has the
+   * colors in the order they are first seen.
+   * @param pixels the packed pixels, row by row (alpha bits ignored)
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @return the indexed image, or null if there are more than MAX_COLORS colors
+   */
+  public static BufferedImage fromPixels(int[] pixels, int width, int height)
+  {
+    IntIntMap indexOf = new IntIntMap(MAX_COLORS);
+    int[] palette = new int[MAX_COLORS];
+    for (int i = 0; i < pixels.length; i++)
+    {
+      int rgb = pixels[i] & KMeans.RGB_MASK;
+      if (indexOf.get(rgb) == 0)
+      {
+        if (indexOf.size() == MAX_COLORS)
+          return null;
+        palette[indexOf.size()] = rgb;
+
+        // the indexes are kept one up so 0 means not there yet
+        indexOf.add(rgb, indexOf.size() + 1);
+      }
+    }
+    int[] colors = new int[indexOf.size()];
+    System.arraycopy(palette, 0, colors, 0, colors.length);
+
+    IndexColorModel colorModel = makeColorModel(colors);
+    int bits = colorModel.getPixelSize();
+    WritableRaster raster = createRaster(bits, width, height, new Point(0, 0));
+    byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+    int stride = bytesPerRow(bits, width);
+    int[] indexes = new int[width];
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0, i = y * width; x < width; x++, i++)
+        indexes[x] = indexOf.get(pixels[i] & KMeans.RGB_MASK) - 1;
+      putRow(indexes, width, bits, data, y * stride);
+    }
+    return new BufferedImage(colorModel, raster, false, null);
+  }
+
+  /**
+   * Method to write an indexed image as a PNG or GIF file
+   * @param image the indexed image
+   * @param fileName the name of the file, whose extension gives the format
+   * @throws IOException if the format can not hold an indexed image or the
+   * file can not be written
+   */
+  public static void write(RenderedImage image, String fileName) throws IOException
+  {
+    int posDot = fileName.lastIndexOf('.');
+    String extension = posDot >= 0 ? fileName.substring(posDot + 1) : "";
+    if (!canWrite(extension))
+      throw new IOException(fileName + " is not a png or gif file, which are the formats " +
+                            "that can hold an indexed image");
+    if (!ImageIO.write(image, extension, new File(fileName)))
+      throw new IOException("there is no writer for " + extension + " files");
+  }
+
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+
+/**
+ * A class that maps int keys to int values without creating an object
+ * for each entry.  It uses open addressing with linear probing in two
+ * parallel arrays that double in size when they get 3/4 full.  Keys must
+ * not be -1, which marks an empty slot; packed rgb colors never are.
+ */
+public class IntIntMap
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the key stored in a slot that is not in use */
+  public static final int EMPTY = -1;
+
+  /** the key in each slot */
+  private int[] keys;
+
+  /** the value in each slot */
+  private int[] values;
+
+  /** the number of keys in the map */
+  private int size;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that makes an empty map
+   */
+  public IntIntMap()
+  {
+    this(16);
+  }
+
+  /**
+   * A constructor that makes an empty map sized for a number of keys
+   * @param expected the number of keys expected
+   */
+  public IntIntMap(int expected)
+  {
+    int capacity = 16;
+    while (capacity * 3 / 4 < expected)
+      capacity *= 2;
+    keys = new int[capacity];
+    values = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of keys in the map
+   * @return the number of keys
+   */
+  public int size() { return size; }
+
+  /**
+   * Method to get the value for a key
+   * @param key the key
+   * @return the value, or 0 if the key is not in the map
+   */
+  public int get(int key)
+  {
+    int slot = find(key);
+    return keys[slot] == EMPTY ? 0 : values[slot];
+  }
+
+  /**
+   * Method to add an amount to the value for a key, putting the key in
+   * with a value of 0 first if it is not there
+   * @param key the key
+   * @param amount the amount to add
+   * @return the new value
+   */
+  public int add(int key, int amount)
+  {
+    int slot = find(key);
+    if (keys[slot] == EMPTY)
+    {
+      if ((size + 1) * 4 > keys.length * 3)
+      {
+        grow();
+        slot = find(key);
+      }
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] += amount;
+    return values[slot];
+  }
+
+  /**
+   * Method to take a key out of the map.  The keys after it that were
+   * pushed along by it are moved back, so no slot is wasted on a marker.
+   * @param key the key
+   * @return the value the key had, or 0 if it was not in the map
+   */
+  public int remove(int key)
+  {
+    int hole = find(key);
+    if (keys[hole] == EMPTY)
+      return 0;
+    int value = values[hole];
+    int mask = keys.length - 1;
+    for (int slot = (hole + 1) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask)
+    {
+      // a key can fill the hole if the hole is between its own slot and where it is now
+      int home = hash(keys[slot]) & mask;
+      if (((slot - home) & mask) >= ((slot - hole) & mask))
+      {
+        keys[hole] = keys[slot];
+        values[hole] = values[slot];
+        hole = slot;
+      }
+    }
+    keys[hole] = EMPTY;
+    values[hole] = 0;
+    size--;
+    return value;
+  }
+
+  /**
+   * Method to remove every key
+   */
+  public void clear()
+  {
+    Arrays.fill(keys, EMPTY);
+    Arrays.fill(values, 0);
+    size = 0;
+  }
+
+  /**
+   * Method to get the number of slots, for going through the entries
+   * with getKeyAt and getValueAt
+   * @return the number of slots
+   */
+  public int capacity() { return keys.length; }
+
+  /**
+   * Method to get the key in a slot
+   * @param slot the slot index from 0 to capacity() - 1
+   * @return the key or EMPTY if the slot is not in use
+   */
+  public int getKeyAt(int slot) { return keys[slot]; }
+
+  /**
+   * Method to get the value in a slot
+   * @param slot the slot index from 0 to capacity() - 1
+   * @return the value (0 if the slot is not in use)
+   */
+  public int getValueAt(int slot) { return values[slot]; }
+
+  /**
+   * Method to find the slot that holds a key or the empty slot it would go in
+   * @param key the key
+   * @return the slot index
+   */
+  private int find(int key)
+  {
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (keys[slot] != EMPTY && keys[slot] != key)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  /**
+   * Method to spread the bits of a key so nearby colors do not cluster
+   * @param key the key
+   * @return the hash of the key
+   */
+  private static int hash(int key)
+  {
+    int h = key * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Method to double the number of slots
+   */
+  private void grow()
+  {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new int[oldKeys.length * 2];
+    values = new int[oldValues.length * 2];
+    Arrays.fill(keys, EMPTY);
+    for (int i = 0; i < oldKeys.length; i++)
+    {
+      if (oldKeys[i] != EMPTY)
+      {
+        int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * Method to return a string with information about this map
+   * @return a string with information about this map
+   */
+  public String toString()
+  {
+    return "IntIntMap with " + size + " keys in " + keys.length + " slots";
+  }
+
+}
@@ -0,0 +1,872 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class that clusters the colors of a picture using k-means.  The
+ * colors are held as packed RGB ints (red in bits 16-23, green in bits 8-15
+ * and blue in bits 0-7) that are pulled out of the picture once, so an
+ * iteration does not create any objects per pixel.  Each cluster keeps
+ * running sums of its red, green and blue values in long accumulators
+ * so that large pictures can not overflow them.
+ *
+ * The algorithm is the same one used by Picture.computeColors: every
+ * color is assigned to the closest palette color (the first one wins a
+ * tie), each palette color is replaced by the integer average of its
+ * cluster, clusters that got no colors are dropped, and the loop stops
+ * when the palette does not change any more.  Empty clusters can instead
+ * be replaced in the same iteration (see setEmptyClusters) so the palette
+ * keeps its size.
+ *
+ * Integer centroids can keep swapping by one unit for a long time on big
+ * pictures, so the loop also stops after DEFAULT_MAX_ITERATIONS
+ * iterations unless it is given another limit.  It can be told to stop
+ * sooner: after fewer iterations, when no palette color moves more than
+ * a distance, or when the sum of squared errors improves by less than a
+ * fraction.  These rules bound how long a run can take.
+ *
+ * The assignment step can be split across several threads by row bands.
+ * Each band keeps its own sums and counts which are then added together
+ * in band order, so the palette does not depend on the thread count.
+ *
+ * The colors can also carry weights, such as the counts of a
+ * ColorHistogram.  A color with weight w counts as w pixels of that
+ * color, so k-means over an exact histogram gives the same palette as
+ * k-means over the pixels from the same seeds, while each iteration only
+ * looks at each distinct color once.
+ *
+ * The closest palette color can be found with a linear search (done a
+ * block of colors at a time by a ClosestColorKernel, which uses SIMD
+ * instructions where the vector module is there) or, for large
+ * palettes, with a k-d tree that is rebuilt each iteration.  It can
+ * also keep triangle inequality bounds between iterations (Hamerly's or
+ * Elkan's method, see KMeansBounds) so colors that can not have changed
+ * cluster are not compared with the other palette colors.  All of them
+ * give the same palette; the result counts the distance computations.
+ *
+ * Listeners can be added to watch each iteration (its time, error,
+ * centroid shift, empty clusters and the pixels that changed cluster).
+ * Without listeners none of that is measured, so it costs nothing.
+ */
+public class KMeans
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** mask for the red, green and blue bits of a packed color */
+  public static final int RGB_MASK = 0xffffff;
+
+  /** the most iterations a run makes if no other limit is set */
+  public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+  /** the id of the last run started by any KMeans object */
+  private static final AtomicLong RUNS = new AtomicLong();
+
+  /** the number of colors whose closest palette colors are found at once */
+  private static final int BLOCK = 256;
+
+  /**
+   * The ways of finding the closest palette color in the assignment step
+   */
+  public enum Assignment
+  {
+    /** compare each color with every palette color (see ClosestColorKernel) */
+    LINEAR,
+    /** search a KdTreePaletteIndex of the palette */
+    KD_TREE,
+    /** keep one lower bound per color (Hamerly), good for small palettes */
+    HAMERLY,
+    /** keep a lower bound per color and palette color (Elkan), for histograms */
+    ELKAN
+  }
+
+  /**
+   * The ways of handling a cluster that gets no colors
+   */
+  public enum EmptyClusters
+  {
+    /** drop it, so the palette has fewer colors than asked for */
+    DROP,
+    /** replace it with the color furthest from every palette color */
+    FARTHEST_POINT,
+    /** split the cluster with the largest error in two */
+    SPLIT_LARGEST_SSE
+  }
+
+  /** the packed colors being clustered */
+  private int[] colors;
+
+  /** the weight of each color (null if every color counts once) */
+  private int[] weights;
+
+  /** the number of colors in each row (bands are made of whole rows) */
+  private int width;
+
+  /** the number of threads used for the assignment step */
+  private int threads = 1;
+
+  /** the way the starting palette is picked */
+  private SeedStrategy seeding = new KMeansPlusPlusSeeds(0);
+
+  /** the most assignment passes to make */
+  private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+  /** stop when no palette color moves more than this (0 to turn off) */
+  private double maxCentroidShift = 0;
+
+  /** stop when the error improves by less than this fraction (0 to turn off) */
+  private double minSseImprovement = 0;
+
+  /** the way the closest palette color is found */
+  private Assignment assignment = Assignment.LINEAR;
+
+  /** what to do with clusters that get no colors */
+  private EmptyClusters emptyClusters = EmptyClusters.DROP;
+
+  /** the listeners told about each iteration */
+  private ArrayList<KMeansListener> listeners = new ArrayList<KMeansListener>();
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the packed colors to cluster.  The alpha
+   * bits of the colors are ignored.
+   * @param colors the packed rgb colors to cluster
+   */
+  public KMeans(int[] colors)
+  {
+    this(colors, 1);
+  }
+
+  /**
+   * A constructor that takes the packed pixel colors of a picture, row by row
+   * @param colors the packed rgb colors to cluster
+   * @param width the number of colors in each row
+   */
+  public KMeans(int[] colors, int width)
+  {
+    this.colors = colors;
+    this.width = Math.max(1, width);
+  }
+
+  /**
+   * A constructor that takes colors and how many pixels each one stands for
+   * @param colors the packed rgb colors to cluster
+   * @param weights the weight of each color (at least 1)
+   */
+  public KMeans(int[] colors, int[] weights)
+  {
+    if (weights.length != colors.length)
+      throw new IllegalArgumentException("there are " + colors.length + " colors but " +
+                                         weights.length + " weights");
+    this.colors = colors;
+    this.weights = weights;
+    this.width = 1;
+  }
+
+  /**
+   * A constructor that takes a histogram of the colors to cluster
+   * @param histogram the distinct colors and their counts
+   */
+  public KMeans(ColorHistogram histogram)
+  {
+    this(histogram.getColors(), histogram.getCounts());
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of threads used for the assignment step
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads used for the assignment step
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to get the way the starting palette is picked
+   * @return the seed strategy
+   */
+  public SeedStrategy getSeeding() { return seeding; }
+
+  /**
+   * Method to set the way the starting palette is picked
+   * @param seeding the seed strategy to use
+   */
+  public void setSeeding(SeedStrategy seeding)
+  {
+    this.seeding = seeding;
+  }
+
+  /**
+   * Method to get the most iterations the loop will run
+   * @return the maximum number of iterations
+   */
+  public int getMaxIterations() { return maxIterations; }
+
+  /**
+   * Method to set the most iterations (assignment passes) the loop will run
+   * @param maxIterations the maximum number of iterations (at least 1,
+   * Integer.MAX_VALUE to run until the palette stops changing)
+   */
+  public void setMaxIterations(int maxIterations)
+  {
+    if (maxIterations < 1)
+      throw new IllegalArgumentException("maxIterations must be at least 1, not " + maxIterations);
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Method to get the centroid shift the loop stops at
+   * @return the largest distance in rgb units that counts as not moving
+   */
+  public double getMaxCentroidShift() { return maxCentroidShift; }
+
+  /**
+   * Method to stop the loop when no palette color moves further than a
+   * distance in one iteration
+   * @param maxCentroidShift the distance in rgb units (0 to only stop
+   * when nothing moves)
+   */
+  public void setMaxCentroidShift(double maxCentroidShift)
+  {
+    if (maxCentroidShift < 0)
+      throw new IllegalArgumentException("maxCentroidShift can not be negative: " + maxCentroidShift);
+    this.maxCentroidShift = maxCentroidShift;
+  }
+
+  /**
+   * Method to get the error improvement the loop stops at
+   * @return the fraction the error has to improve by to keep going
+   */
+  public double getMinSseImprovement() { return minSseImprovement; }
+
+  /**
+   * Method to stop the loop when the sum of squared errors improves by
+   * less than a fraction of the last iteration's error
+   * @param minSseImprovement the fraction, for example 0.001 (0 to turn off)
+   */
+  public void setMinSseImprovement(double minSseImprovement)
+  {
+    if (minSseImprovement < 0 || minSseImprovement >= 1)
+      throw new IllegalArgumentException("minSseImprovement must be from 0 up to 1, not " + minSseImprovement);
+    this.minSseImprovement = minSseImprovement;
+  }
+
+  /**
+   * Method to get the way the closest palette color is found
+   * @return the assignment method
+   */
+  public Assignment getAssignment() { return assignment; }
+
+  /**
+   * Method to set the way the closest palette color is found
+   * @param assignment the assignment method
+   */
+  public void setAssignment(Assignment assignment)
+  {
+    this.assignment = assignment;
+  }
+
+  /**
+   * Method to get what is done with clusters that get no colors
+   * @return the empty cluster strategy
+   */
+  public EmptyClusters getEmptyClusters() { return emptyClusters; }
+
+  /**
+   * Method to set what is done with clusters that get no colors.  DROP
+   * (the default) gives the same palette as before; the others replace
+   * empty clusters in the same iteration so the palette keeps the
+   * number of colors it started with, as long as there are that many
+   * different colors.
+   * @param emptyClusters the empty cluster strategy
+   */
+  public void setEmptyClusters(EmptyClusters emptyClusters)
+  {
+    this.emptyClusters = emptyClusters;
+  }
+
+  /**
+   * Method to add a listener that is told about each iteration
+   * @param listener the listener to add
+   */
+  public void addListener(KMeansListener listener)
+  {
+    listeners.add(listener);
+  }
+
+  /**
+   * Method to remove a listener
+   * @param listener the listener to remove
+   */
+  public void removeListener(KMeansListener listener)
+  {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Method to run k-means starting from the given palette
+   * @param seeds the packed colors to start from (they are not changed)
+   * @return the final palette as packed rgb colors
+   */
+  public int[] computeColors(int[] seeds)
+  {
+    return run(seeds).getPalette();
+  }
+
+  /**
+   * Method to run k-means starting from a palette picked by the seed strategy
+   * @param number the number of palette colors wanted
+   * @return the final palette and how many iterations it took
+   */
+  public KMeansResult run(int number)
+  {
+    KMeansResult result = iterate(seeding.seed(colors, weights, number));
+    KMeansResult seeded = new KMeansResult(result.getPalette(), result.getIterations(),
+                                           result.getStopReason(), result.getSse(), seeding);
+    seeded.setDistanceEvaluations(result.getDistanceEvaluations(), result.getSearches(),
+                                  result.getBruteForceEvaluations());
+    seeded.setRun(result.getRun());
+    for (KMeansListener listener : listeners)
+      listener.runDone(seeded);
+    return seeded;
+  }
+
+  /**
+   * Method to run k-means starting from the given palette
+   * @param seeds the packed colors to start from (they are not changed)
+   * @return the final palette and how many iterations it took
+   */
+  public KMeansResult run(int[] seeds)
+  {
+    KMeansResult result = iterate(seeds);
+    for (KMeansListener listener : listeners)
+      listener.runDone(result);
+    return result;
+  }
+
+  /**
+   * Method to run the k-means loop starting from the given palette
+   * @param seeds the packed colors to start from (they are not changed)
+   * @return the final palette and how many iterations it took
+   */
+  private KMeansResult iterate(int[] seeds)
+  {
+    int[] palette = new int[seeds.length];
+    for (int i = 0; i < seeds.length; i++)
+      palette[i] = seeds[i] & RGB_MASK;
+    int size = palette.length;
+    long run = RUNS.incrementAndGet();
+
+    RowBands bands = new RowBands(threads);
+    try
+    {
+      int rows = (colors.length + width - 1) / width;
+      Accumulator[] partials = new Accumulator[bands.countBands(rows)];
+      for (int i = 0; i < partials.length; i++)
+        partials[i] = new Accumulator(size);
+      Accumulator total = partials[0];
+      int[] newPalette = new int[size];
+      KMeansBounds bounds = null;
+      if (assignment == Assignment.HAMERLY || assignment == Assignment.ELKAN)
+        bounds = new KMeansBounds(colors.length, size, assignment == Assignment.ELKAN);
+      int wanted = size;
+      boolean refill = emptyClusters != EmptyClusters.DROP;
+      int iterations = 0;
+      long lastSse = -1;
+      long evaluations = 0;
+      long bruteForce = 0;
+
+      // the cluster of each color last iteration, only kept for listeners
+      boolean watched = !listeners.isEmpty();
+      int[] labels = null;
+      if (watched && bounds == null)
+      {
+        labels = new int[colors.length];
+        Arrays.fill(labels, -1);
+      }
+
+      while (true)
+      {
+        long start = watched ? System.nanoTime() : 0;
+        KdTreePaletteIndex tree = null;
+        PaletteIndex index = null;
+        if (assignment == Assignment.KD_TREE && size > 0)
+          index = tree = new KdTreePaletteIndex(Arrays.copyOf(palette, size));
+        else if (assignment == Assignment.LINEAR && size > 0)
+          index = ClosestColorKernel.create(palette, size);
+        if (bounds != null)
+          bounds.prepare(palette, size);
+        assignClusters(bands, rows, palette, size, index, bounds, labels, partials);
+        iterations++;
+        bruteForce += (long) colors.length * size;
+        for (int i = 1; i < partials.length; i++)
+          total.add(partials[i], size);
+        if (tree != null)
+          evaluations += tree.getDistanceEvaluations();
+        else if (bounds != null)
+          evaluations += total.evaluations;
+        else
+          evaluations += (long) colors.length * size;
+        long sse = total.sse;
+        long assigned = watched ? System.nanoTime() : 0;
+
+        int newSize = computeCentroids(total.sums, total.counts, size, newPalette);
+        int kept = newSize;
+        if (refill && newSize < wanted)
+        {
+          newSize = KMeansRefill.refill(emptyClusters, colors, weights, width, bands,
+                                        newPalette, newSize, wanted);
+          // stop trying once there are no more different colors to add
+          refill = newSize > kept;
+        }
+
+        // the palette is final when no cluster moved or emptied
+        KMeansResult.StopReason reason = null;
+        if (newSize > kept)
+        {
+          // new palette colors have not had colors assigned yet
+          if (iterations >= maxIterations)
+            reason = KMeansResult.StopReason.MAX_ITERATIONS;
+        }
+        else if (newSize == size &&
+            Arrays.equals(palette, 0, size, newPalette, 0, size))
+          reason = KMeansResult.StopReason.CONVERGED;
+        else if (maxCentroidShift > 0 &&
+                 maxShift(palette, size, total.counts, newPalette) <= maxCentroidShift)
+          reason = KMeansResult.StopReason.CENTROID_SHIFT;
+        else if (minSseImprovement > 0 && lastSse > 0 &&
+                 (lastSse - sse) < minSseImprovement * lastSse)
+          reason = KMeansResult.StopReason.SSE_IMPROVEMENT;
+        else if (iterations >= maxIterations)
+          reason = KMeansResult.StopReason.MAX_ITERATIONS;
+
+        if (reason == null && bounds != null)
+          bounds.update(palette, size, total.counts, newPalette, newSize, colors.length);
+        if (watched)
+        {
+          if (labels != null && kept < size)
+            dropEmptyLabels(labels, total.counts, size);
+          long updated = System.nanoTime();
+          KMeansIteration stats =
+            new KMeansIteration(run, iterations, size, assigned - start, updated - assigned,
+                                sse, maxShift(palette, size, total.counts, newPalette),
+                                size - kept, total.changed);
+          for (KMeansListener listener : listeners)
+            listener.iterationDone(stats);
+        }
+
+        if (reason != null)
+        {
+          if (bounds != null)
+            evaluations += bounds.getCenterEvaluations();
+          KMeansResult result = new KMeansResult(Arrays.copyOf(newPalette, newSize),
+                                                 iterations, reason, sse, null);
+          result.setDistanceEvaluations(evaluations, (long) iterations * colors.length,
+                                        bruteForce);
+          result.setRun(run);
+          return result;
+        }
+
+        int[] swap = palette;
+        palette = newPalette;
+        newPalette = swap;
+        size = newSize;
+        lastSse = sse;
+      }
+    }
+    finally
+    {
+      bands.close();
+    }
+  }
+
+  /**
+   * Method to run the assignment step on every band of rows
+   * @param bands the bands to run on
+   * @param rows the number of rows of colors
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @param index the index to search the palette with (null for a linear search)
+   * @param bounds the distance bounds to skip colors with (null if not used)
+   * @param labels the cluster of each color last iteration, to count the
+   * colors that change cluster (null to not count them)
+   * @param partials one accumulator for each band
+   */
+  private void assignClusters(RowBands bands, int rows, final int[] palette,
+                              final int size, final PaletteIndex index,
+                              final KMeansBounds bounds, final int[] labels,
+                              final Accumulator[] partials)
+  {
+    bands.forEach(rows, new RowBands.Task() {
+      public void run(int band, int fromRow, int toRow)
+      {
+        Accumulator partial = partials[band];
+        partial.clear(size);
+        int from = fromRow * width;
+        int to = Math.min(colors.length, toRow * width);
+        if (bounds != null)
+          bounds.assign(from, to, colors, weights, palette, size, partial);
+        else if (labels != null)
+          assignLabeled(from, to, palette, size, index, labels, partial);
+        else
+          partial.sse = assignClusters(from, to, palette, size, index,
+                                       partial.sums, partial.counts);
+      }
+    });
+  }
+
+  /**
+   * Method to add every color to the sums and count of the closest
+   * palette color
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @param sums the red, green and blue sums for each palette color
+   * @param counts the number of colors in each cluster
+   * @return the sum of the squared distances to the closest palette colors
+   */
+  public long assignClusters(int[] palette, int size, long[] sums, long[] counts)
+  {
+    return assignClusters(0, colors.length, palette, size, sums, counts);
+  }
+
+  /**
+   * Method to add a range of the colors to the sums and count of the
+   * closest palette color
+   * @param from the index of the first color
+   * @param to one past the index of the last color
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @param sums the red, green and blue sums for each palette color
+   * @param counts the number of colors in each cluster
+   * @return the sum of the squared distances to the closest palette colors
+   */
+  public long assignClusters(int from, int to, int[] palette, int size,
+                             long[] sums, long[] counts)
+  {
+    return assignClusters(from, to, palette, size, ClosestColorKernel.create(palette, size),
+                          sums, counts);
+  }
+
+  /**
+   * Method to add a range of the colors to the sums and count of the
+   * closest palette color found with an index
+   * @param from the index of the first color
+   * @param to one past the index of the last color
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @param index the index of the palette colors in use (null for a linear search)
+   * @param sums the red, green and blue sums for each palette color
+   * @param counts the number of colors in each cluster
+   * @return the sum of the squared distances to the closest palette colors
+   */
+  private long assignClusters(int from, int to, int[] palette, int size,
+                              PaletteIndex index, long[] sums, long[] counts)
+  {
+    if (weights != null)
+      return assignWeighted(from, to, palette, size, index, sums, counts);
+
+    long sse = 0;
+    int[] closest = new int[BLOCK];
+    for (int start = from; start < to; start += BLOCK)
+    {
+      int end = Math.min(to, start + BLOCK);
+      findClosestColors(start, end, palette, size, index, closest);
+      for (int i = start; i < end; i++)
+      {
+        int rgb = colors[i];
+        int chosen = closest[i - start];
+        sums[3 * chosen] += (rgb >> 16) & 0xff;
+        sums[3 * chosen + 1] += (rgb >> 8) & 0xff;
+        sums[3 * chosen + 2] += rgb & 0xff;
+        counts[chosen]++;
+        sse += colorDistance(rgb, palette[chosen]);
+      }
+    }
+    return sse;
+  }
+
+  /**
+   * Method to do the assignment step for a range of weighted colors
+   * @param from the index of the first color
+   * @param to one past the index of the last color
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @param index the index of the palette colors in use (null for a linear search)
+   * @param sums the red, green and blue sums for each palette color
+   * @param counts the total weight in each cluster
+   * @return the weighted sum of the squared distances
+   */
+  private long assignWeighted(int from, int to, int[] palette, int size,
+                              PaletteIndex index, long[] sums, long[] counts)
+  {
+    long sse = 0;
+    int[] closest = new int[BLOCK];
+    for (int start = from; start < to; start += BLOCK)
+    {
+      int end = Math.min(to, start + BLOCK);
+      findClosestColors(start, end, palette, size, index, closest);
+      for (int i = start; i < end; i++)
+      {
+        int rgb = colors[i];
+        long weight = weights[i];
+        int chosen = closest[i - start];
+        sums[3 * chosen] += weight * ((rgb >> 16) & 0xff);
+        sums[3 * chosen + 1] += weight * ((rgb >> 8) & 0xff);
+        sums[3 * chosen + 2] += weight * (rgb & 0xff);
+        counts[chosen] += weight;
+        sse += weight * colorDistance(rgb, palette[chosen]);
+      }
+    }
+    return sse;
+  }
+
+  /**
+   * Method to do the assignment step for a range of colors while keeping
+   * the cluster of each color and counting the ones that changed.  It is
+   * only used when there are listeners, so the usual loops do not pay
+   * for it.
+   * @param from the index of the first color
+   * @param to one past the index of the last color
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @param index the index of the palette colors in use (null for a linear search)
+   * @param labels the cluster of each color last iteration (-1 for none)
+   * @param partial the accumulator to add to
+   */
+  private void assignLabeled(int from, int to, int[] palette, int size, PaletteIndex index,
+                             int[] labels, Accumulator partial)
+  {
+    long sse = 0;
+    long changed = 0;
+    int[] closest = new int[BLOCK];
+    for (int start = from; start < to; start += BLOCK)
+    {
+      int end = Math.min(to, start + BLOCK);
+      findClosestColors(start, end, palette, size, index, closest);
+      for (int i = start; i < end; i++)
+      {
+        int rgb = colors[i];
+        long weight = weights == null ? 1 : weights[i];
+        int chosen = closest[i - start];
+        if (labels[i] != chosen)
+        {
+          labels[i] = chosen;
+          changed += weight;
+        }
+        partial.sums[3 * chosen] += weight * ((rgb >> 16) & 0xff);
+        partial.sums[3 * chosen + 1] += weight * ((rgb >> 8) & 0xff);
+        partial.sums[3 * chosen + 2] += weight * (rgb & 0xff);
+        partial.counts[chosen] += weight;
+        sse += weight * colorDistance(rgb, palette[chosen]);
+      }
+    }
+    partial.sse = sse;
+    partial.changed = changed;
+  }
+
+  /**
+   * Method to find the closest palette color of each of a block of colors.
+   * A ClosestColorKernel does the whole block at once, which lets a
+   * vector kernel fill its lanes with colors.
+   * @param from the index of the first color
+   * @param to one past the index of the last color
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @param index the index of the palette colors in use (null for a linear search)
+   * @param closest where to put the index of each closest palette color
+   */
+  private void findClosestColors(int from, int to, int[] palette, int size,
+                                 PaletteIndex index, int[] closest)
+  {
+    if (index instanceof ClosestColorKernel)
+      ((ClosestColorKernel) index).findClosestColors(colors, from, to, closest, 0);
+    else if (index != null)
+      for (int i = from; i < to; i++)
+        closest[i - from] = index.findClosestColor(colors[i]);
+    else
+      for (int i = from; i < to; i++)
+        closest[i - from] = findClosestColor(colors[i], palette, size);
+  }
+
+  /**
+   * Method to renumber the cluster of each color after empty clusters
+   * were dropped and the ones after them moved down
+   * @param labels the cluster of each color
+   * @param counts the number of colors in each cluster
+   * @param size the number of clusters before they were dropped
+   */
+  private static void dropEmptyLabels(int[] labels, long[] counts, int size)
+  {
+    int[] moved = new int[size];
+    int next = 0;
+    for (int j = 0; j < size; j++)
+      moved[j] = counts[j] > 0 ? next++ : -1;
+    for (int i = 0; i < labels.length; i++)
+      labels[i] = moved[labels[i]];
+  }
+
+  /**
+   * Method to find how far the palette colors moved in an iteration
+   * @param palette the palette colors before the update
+   * @param size the number of palette colors before the update
+   * @param counts the number of colors in each cluster
+   * @param centroids the palette colors after the update (empty clusters dropped)
+   * @return the largest distance in rgb units that a kept palette color moved
+   */
+  public static double maxShift(int[] palette, int size, long[] counts, int[] centroids)
+  {
+    int largest = 0;
+    int j = 0;
+    for (int i = 0; i < size; i++)
+    {
+      if (counts[i] > 0)
+        largest = Math.max(largest, colorDistance(palette[i], centroids[j++]));
+    }
+    return Math.sqrt(largest);
+  }
+
+  /**
+   * Method to compute the centroid of every non empty cluster.  Empty
+   * clusters are dropped so the centroids are packed to the front.
+   * @param sums the red, green and blue sums for each cluster
+   * @param counts the number of colors in each cluster
+   * @param size the number of clusters
+   * @param centroids the array to put the packed centroid colors in
+   * @return the number of centroids computed
+   */
+  public static int computeCentroids(long[] sums, long[] counts, int size, int[] centroids)
+  {
+    int newSize = 0;
+    for (int i = 0; i < size; i++)
+    {
+      long count = counts[i];
+      if (count > 0)
+      {
+        int red = (int) (sums[3 * i] / count);
+        int green = (int) (sums[3 * i + 1] / count);
+        int blue = (int) (sums[3 * i + 2] / count);
+        centroids[newSize++] = (red << 16) | (green << 8) | blue;
+      }
+    }
+    return newSize;
+  }
+
+  /**
+   * Method to find the palette color closest to a packed color
+   * @param rgb the packed color
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @return the index of the closest palette color (the first on a tie)
+   */
+  public static int findClosestColor(int rgb, int[] palette, int size)
+  {
+    int red = (rgb >> 16) & 0xff;
+    int green = (rgb >> 8) & 0xff;
+    int blue = rgb & 0xff;
+    int chosen = 0;
+    int distance = Integer.MAX_VALUE;
+    for (int k = 0; k < size; k++)
+    {
+      int c = palette[k];
+      int redDistance = red - ((c >> 16) & 0xff);
+      int greenDistance = green - ((c >> 8) & 0xff);
+      int blueDistance = blue - (c & 0xff);
+      int testDistance = redDistance * redDistance +
+        greenDistance * greenDistance +
+        blueDistance * blueDistance;
+      if (testDistance < distance)
+      {
+        distance = testDistance;
+        chosen = k;
+      }
+    }
+    return chosen;
+  }
+
+  /**
+   * Method to compute the squared distance between two packed colors
+   * @param rgb1 a packed color
+   * @param rgb2 a packed color
+   * @return the squared distance between the two colors
+   */
+  public static int colorDistance(int rgb1, int rgb2)
+  {
+    int redDistance = ((rgb1 >> 16) & 0xff) - ((rgb2 >> 16) & 0xff);
+    int greenDistance = ((rgb1 >> 8) & 0xff) - ((rgb2 >> 8) & 0xff);
+    int blueDistance = (rgb1 & 0xff) - (rgb2 & 0xff);
+    return redDistance * redDistance +
+      greenDistance * greenDistance +
+      blueDistance * blueDistance;
+  }
+
+  /**
+   * The sums and counts of each cluster built by one band
+   */
+  static class Accumulator
+  {
+    /** the red, green and blue sums for each cluster */
+    long[] sums;
+
+    /** the number of colors in each cluster */
+    long[] counts;
+
+    /** the sum of squared distances to the closest palette colors */
+    long sse;
+
+    /** the number of distances computed (only counted with bounds) */
+    long evaluations;
+
+    /** the number of pixels that changed cluster (only counted when watched) */
+    long changed;
+
+    Accumulator(int size)
+    {
+      sums = new long[3 * size];
+      counts = new long[size];
+    }
+
+    /** sets the first size clusters back to zero */
+    void clear(int size)
+    {
+      Arrays.fill(sums, 0, 3 * size, 0L);
+      Arrays.fill(counts, 0, size, 0L);
+      sse = 0;
+      evaluations = 0;
+      changed = 0;
+    }
+
+    /** adds the first size clusters of another accumulator to this one */
+    void add(Accumulator other, int size)
+    {
+      for (int i = 0; i < 3 * size; i++)
+        sums[i] += other.sums[i];
+      for (int i = 0; i < size; i++)
+        counts[i] += other.counts[i];
+      sse += other.sse;
+      evaluations += other.evaluations;
+      changed += other.changed;
+    }
+  }
+
+  /**
+   * Method to return a string with information about this clustering
+   * @return a string with information about this clustering
+   */
+  public String toString()
+  {
+    return "KMeans over " + colors.length + " colors using " + threads +
+      " threads seeded by " + seeding + " with " + assignment + " assignment";
+  }
+
+}
@@ -0,0 +1,302 @@
+/**
+ * A class that keeps distance bounds for each color between k-means
+ * iterations so the assignment step can skip most distance computations
+ * (the triangle inequality methods of Hamerly and Elkan).  After the first
+ * iteration most colors stay in the same cluster, and the bounds prove it
+ * without comparing them with every palette color.
+ *
+ * The distance to the assigned palette color is computed for every color
+ * each iteration since the error needs it anyway, so it is always exact.
+ * Hamerly's method keeps one lower bound per color, on the distance to
+ * the closest other palette color, which suits small palettes.  Elkan's
+ * method keeps a lower bound for every color and palette color pair and
+ * the distances between palette colors, which skips more for large
+ * palettes but takes (colors x palette size) floats, so it is meant for
+ * histogram input.  A color is only kept in its cluster when the bounds
+ * show every other palette color is strictly further away, and a full
+ * comparison breaks ties by palette order, so the clustering is exactly
+ * the same as with a linear search.
+ */
+class KMeansBounds
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** margin added to the bounds to cover floating point rounding */
+  private static final double EPSILON = 1e-9;
+
+  /** true for Elkan's method, false for Hamerly's */
+  private boolean elkan;
+
+  /** the number of palette colors each color has bounds for (Elkan) */
+  private int stride;
+
+  /** the palette index each color is assigned to */
+  private int[] assigned;
+
+  /** the lower bound on the distance to the closest other palette color (Hamerly) */
+  private double[] lower;
+
+  /** the lower bound on the distance to each palette color (Elkan) */
+  private float[] lowers;
+
+  /** true once every color has been assigned */
+  private boolean started;
+
+  /** half the distance from each palette color to its closest other one */
+  private double[] halfClosest;
+
+  /** the distances between palette colors (Elkan) */
+  private double[] between;
+
+  /** the number of palette to palette distances computed */
+  private long centerEvaluations;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that makes the bounds for a number of colors
+   * @param points the number of colors being clustered
+   * @param size the number of palette colors to start with
+   * @param elkan true for Elkan's method, false for Hamerly's
+   */
+  KMeansBounds(int points, int size, boolean elkan)
+  {
+    this.elkan = elkan;
+    this.stride = size;
+    assigned = new int[points];
+    if (elkan)
+    {
+      if ((long) points * size > Integer.MAX_VALUE - 8)
+        throw new IllegalArgumentException("Elkan bounds for " + points + " colors and " + size +
+                                           " palette colors are too big, use a ColorHistogram or HAMERLY");
+      lowers = new float[points * size];
+      between = new double[size * size];
+    }
+    else
+      lower = new double[points];
+    halfClosest = new double[size];
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of palette to palette distances computed
+   * @return the number of distances
+   */
+  long getCenterEvaluations() { return centerEvaluations; }
+
+  /**
+   * Method to work out the distances between palette colors before an
+   * assignment step
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   */
+  void prepare(int[] palette, int size)
+  {
+    for (int j = 0; j < size; j++)
+      halfClosest[j] = Double.POSITIVE_INFINITY;
+    for (int j = 0; j < size; j++)
+    {
+      for (int other = j + 1; other < size; other++)
+      {
+        double distance = Math.sqrt(KMeans.colorDistance(palette[j], palette[other]));
+        if (elkan)
+        {
+          between[j * stride + other] = distance;
+          between[other * stride + j] = distance;
+        }
+        halfClosest[j] = Math.min(halfClosest[j], distance / 2);
+        halfClosest[other] = Math.min(halfClosest[other], distance / 2);
+      }
+    }
+    centerEvaluations += (long) size * (size - 1) / 2;
+  }
+
+  /**
+   * Method to assign a range of colors to their closest palette colors
+   * and add them to the sums and counts of an accumulator
+   * @param from the index of the first color
+   * @param to one past the index of the last color
+   * @param colors the packed colors
+   * @param weights the weight of each color (null if each counts once)
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @param partial the accumulator to add to
+   */
+  void assign(int from, int to, int[] colors, int[] weights, int[] palette,
+              int size, KMeans.Accumulator partial)
+  {
+    long sse = 0;
+    long evaluations = 0;
+    long changed = 0;
+    for (int i = from; i < to; i++)
+    {
+      int rgb = colors[i];
+      int chosen;
+      int distance;
+      if (!started)
+      {
+        chosen = fullSearch(i, rgb, palette, size);
+        distance = KMeans.colorDistance(rgb, palette[chosen]);
+        evaluations += size;
+      }
+      else
+      {
+        chosen = assigned[i];
+        distance = KMeans.colorDistance(rgb, palette[chosen]);
+        evaluations++;
+        double upper = Math.sqrt(distance);
+        if (elkan)
+        {
+          if (upper + EPSILON >= halfClosest[chosen])
+          {
+            int first = chosen;
+            int base = i * stride;
+            for (int j = 0; j < size; j++)
+            {
+              if (j == first || upper + EPSILON < lowers[base + j] ||
+                  upper + EPSILON < between[chosen * stride + j] / 2)
+                continue;
+              int test = KMeans.colorDistance(rgb, palette[j]);
+              evaluations++;
+              double testDistance = Math.sqrt(test);
+              lowers[base + j] = Math.nextDown((float) testDistance);
+              if (test < distance || (test == distance && j < chosen))
+              {
+                lowers[base + chosen] = Math.nextDown((float) upper);
+                chosen = j;
+                distance = test;
+                upper = testDistance;
+              }
+            }
+          }
+        }
+        else if (upper + EPSILON >= Math.max(halfClosest[chosen], lower[i]))
+        {
+          chosen = fullSearch(i, rgb, palette, size);
+          distance = KMeans.colorDistance(rgb, palette[chosen]);
+          evaluations += size;
+        }
+      }
+      long weight = weights == null ? 1 : weights[i];
+      if (!started || assigned[i] != chosen)
+        changed += weight;
+      assigned[i] = chosen;
+
+      partial.sums[3 * chosen] += weight * ((rgb >> 16) & 0xff);
+      partial.sums[3 * chosen + 1] += weight * ((rgb >> 8) & 0xff);
+      partial.sums[3 * chosen + 2] += weight * (rgb & 0xff);
+      partial.counts[chosen] += weight;
+      sse += weight * distance;
+    }
+    partial.sse = sse;
+    partial.evaluations = evaluations;
+    partial.changed = changed;
+  }
+
+  /**
+   * Method to compare a color with every palette color and set its bounds
+   * @param i the index of the color
+   * @param rgb the packed color
+   * @param palette the packed palette colors
+   * @param size the number of palette colors in use
+   * @return the index of the closest palette color (the first on a tie)
+   */
+  private int fullSearch(int i, int rgb, int[] palette, int size)
+  {
+    int chosen = 0;
+    int best = Integer.MAX_VALUE;
+    int second = Integer.MAX_VALUE;
+    for (int j = 0; j < size; j++)
+    {
+      int test = KMeans.colorDistance(rgb, palette[j]);
+      if (elkan)
+        lowers[i * stride + j] = Math.nextDown((float) Math.sqrt(test));
+      if (test < best)
+      {
+        second = best;
+        best = test;
+        chosen = j;
+      }
+      else if (test < second)
+        second = test;
+    }
+    if (!elkan)
+      lower[i] = second == Integer.MAX_VALUE ? Double.POSITIVE_INFINITY : Math.sqrt(second);
+    return chosen;
+  }
+
+  /**
+   * Method to move the bounds after the palette colors have moved.
+   * Palette colors whose clusters were empty have been dropped, so the
+   * ones after them move down, and new palette colors may have been
+   * added after those.
+   * @param palette the palette colors before the update
+   * @param size the number of palette colors before the update
+   * @param counts the number of colors in each cluster
+   * @param centroids the palette colors after the update, with any new
+   * ones after the kept ones
+   * @param newSize the number of palette colors after the update
+   * @param points the number of colors
+   */
+  void update(int[] palette, int size, long[] counts, int[] centroids, int newSize, int points)
+  {
+    started = true;
+
+    // where each palette color moved to and how far
+    int[] moved = new int[size];
+    double[] shift = new double[size];
+    int next = 0;
+    double largest = 0;
+    double secondLargest = 0;
+    int largestIndex = -1;
+    for (int j = 0; j < size; j++)
+    {
+      if (counts[j] == 0)
+      {
+        moved[j] = -1;
+        continue;
+      }
+      moved[j] = next;
+      shift[next] = Math.sqrt(KMeans.colorDistance(palette[j], centroids[next])) + EPSILON;
+      if (shift[next] > largest)
+      {
+        secondLargest = largest;
+        largest = shift[next];
+        largestIndex = next;
+      }
+      else if (shift[next] > secondLargest)
+        secondLargest = shift[next];
+      next++;
+    }
+    boolean dropped = next < size;
+    boolean added = newSize > next;
+
+    for (int i = 0; i < points; i++)
+    {
+      int chosen = moved[assigned[i]];
+      assigned[i] = chosen;
+      if (elkan)
+      {
+        int base = i * stride;
+        if (dropped)
+        {
+          for (int j = 0; j < size; j++)
+            if (moved[j] >= 0)
+              lowers[base + moved[j]] = lowers[base + j];
+        }
+        for (int j = 0; j < next; j++)
+          lowers[base + j] = Math.nextDown((float) (lowers[base + j] - shift[j]));
+        // nothing is known about the distance to a new palette color
+        for (int j = next; j < newSize; j++)
+          lowers[base + j] = 0;
+      }
+      else if (added)
+        lower[i] = 0;
+      else
+        lower[i] -= chosen == largestIndex ? secondLargest : largest;
+    }
+  }
+
+}
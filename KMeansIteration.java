@@ -0,0 +1,139 @@
+/**
+ * A class that holds what happened in one iteration of a k-means run,
+ * as passed to a KMeansListener.
+ */
+public class KMeansIteration
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the id of the run the iteration is part of */
+  private long run;
+
+  /** the number of the iteration, starting at 1 */
+  private int iteration;
+
+  /** the number of palette colors the iteration started with */
+  private int size;
+
+  /** the time taken to assign the colors to clusters */
+  private long assignmentNanos;
+
+  /** the time taken to move the palette colors to their clusters */
+  private long updateNanos;
+
+  /** the sum of squared distances from each color to its palette color */
+  private long sse;
+
+  /** the furthest a palette color moved */
+  private double centroidShift;
+
+  /** the number of clusters that got no colors (dropped or refilled) */
+  private int emptyClusters;
+
+  /** the number of pixels that changed cluster */
+  private long changed;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes everything about the iteration
+   * @param run the id of the run the iteration is part of
+   * @param iteration the number of the iteration, starting at 1
+   * @param size the number of palette colors the iteration started with
+   * @param assignmentNanos the time taken by the assignment step
+   * @param updateNanos the time taken by the update step
+   * @param sse the sum of squared distances in the assignment step
+   * @param centroidShift the furthest a palette color moved
+   * @param emptyClusters the number of clusters that got no colors
+   * @param changed the number of pixels that changed cluster
+   */
+  public KMeansIteration(long run, int iteration, int size, long assignmentNanos,
+                         long updateNanos, long sse, double centroidShift, int emptyClusters,
+                         long changed)
+  {
+    this.run = run;
+    this.iteration = iteration;
+    this.size = size;
+    this.assignmentNanos = assignmentNanos;
+    this.updateNanos = updateNanos;
+    this.sse = sse;
+    this.centroidShift = centroidShift;
+    this.emptyClusters = emptyClusters;
+    this.changed = changed;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the id of the run the iteration is part of, which is
+   * different for every run in the program, so iterations of runs on
+   * several threads can be told apart
+   * @return the run id (the same as getRun of the run's KMeansResult)
+   */
+  public long getRun() { return run; }
+
+  /**
+   * Method to get the number of the iteration
+   * @return the iteration number, starting at 1
+   */
+  public int getIteration() { return iteration; }
+
+  /**
+   * Method to get the number of palette colors the iteration started with
+   * @return the palette size
+   */
+  public int getSize() { return size; }
+
+  /**
+   * Method to get the time taken to assign the colors to clusters
+   * @return the time in nanoseconds
+   */
+  public long getAssignmentNanos() { return assignmentNanos; }
+
+  /**
+   * Method to get the time taken to move the palette colors to the
+   * averages of their clusters
+   * @return the time in nanoseconds
+   */
+  public long getUpdateNanos() { return updateNanos; }
+
+  /**
+   * Method to get the sum of the squared distances from each color to
+   * the palette color it was assigned to
+   * @return the sum of squared distances
+   */
+  public long getSse() { return sse; }
+
+  /**
+   * Method to get the furthest any palette color moved in the update
+   * @return the distance in rgb units
+   */
+  public double getCentroidShift() { return centroidShift; }
+
+  /**
+   * Method to get the number of clusters that got no colors
+   * @return the number of empty clusters
+   */
+  public int getEmptyClusters() { return emptyClusters; }
+
+  /**
+   * Method to get the number of pixels assigned to a different palette
+   * color than in the iteration before (all of them in the first one).
+   * Weighted colors count as their weight.
+   * @return the number of pixels that changed cluster
+   */
+  public long getChanged() { return changed; }
+
+  /**
+   * Method to return a string with information about this iteration
+   * @return a string with information about this iteration
+   */
+  public String toString()
+  {
+    return "Iteration " + iteration + " of " + size + " colors: sse " + sse + ", shift " +
+      centroidShift + ", " + emptyClusters + " empty, " + changed + " changed, assign " +
+      assignmentNanos / 1000000 + " ms, update " + updateNanos / 1000000 + " ms";
+  }
+
+}
@@ -0,0 +1,22 @@
+/**
+ * Interface for watching a k-means run one iteration at a time, to find
+ * out why a run is slow: bad seeds show up as many iterations with a high
+ * error, an oscillating palette as colors that keep changing cluster
+ * while the error stays flat, and a slow assignment step as its time.
+ * KMeansLog writes the iterations to a file and KMeansMetrics shows them
+ * over JMX.  A KMeans with no listeners does not measure anything.
+ */
+public interface KMeansListener
+{
+  /**
+   * Method called after each iteration of the k-means loop
+   * @param iteration what happened in the iteration
+   */
+  void iterationDone(KMeansIteration iteration);
+
+  /**
+   * Method called when a k-means run has finished
+   * @param result the final palette and why the loop stopped
+   */
+  void runDone(KMeansResult result);
+}
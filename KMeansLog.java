@@ -0,0 +1,146 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * A listener that writes every k-means iteration to a log, one line each,
+ * as CSV (with a header line) or as JSON objects.  Runs are numbered so
+ * one log can hold many runs, and a line is also written when each run
+ * finishes; in CSV it is a row like the others with the stop reason
+ * filled in.  One log can be shared by KMeans objects on several threads:
+ * each run is told apart by the id in its iterations and result, and is
+ * numbered in the log when its first line is written.
+ */
+public class KMeansLog implements KMeansListener
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /**
+   * The formats a log can be written in
+   */
+  public enum Format
+  {
+    /** comma separated values with a header line */
+    CSV,
+    /** one JSON object per line */
+    JSON
+  }
+
+  /** the stream the log is written to */
+  private PrintStream out;
+
+  /** the format of the lines */
+  private Format format;
+
+  /** the log's number for each run that has started but not finished */
+  private HashMap<Long, Integer> numbers = new HashMap<Long, Integer>();
+
+  /** the number of runs numbered so far */
+  private int runs;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the stream to write to and the format
+   * @param out the stream to write to (System.out for the console)
+   * @param format the format of the lines
+   */
+  public KMeansLog(PrintStream out, Format format)
+  {
+    this.out = out;
+    this.format = format;
+    if (format == Format.CSV)
+      out.println("run,iteration,size,assignment ms,update ms,sse,centroid shift," +
+                  "empty clusters,changed,stop reason");
+  }
+
+  /**
+   * A constructor that writes to a file, replacing what was in it
+   * @param fileName the name of the file
+   * @param format the format of the lines
+   * @throws IOException if the file can not be written
+   */
+  public KMeansLog(String fileName, Format format) throws IOException
+  {
+    this(new PrintStream(new FileOutputStream(fileName), true, "UTF-8"), format);
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to write a line for an iteration
+   * @param iteration what happened in the iteration
+   */
+  public synchronized void iterationDone(KMeansIteration iteration)
+  {
+    int run = number(iteration.getRun());
+    if (format == Format.CSV)
+      out.println(String.format(Locale.ROOT, "%d,%d,%d,%.3f,%.3f,%d,%.3f,%d,%d,",
+        run, iteration.getIteration(), iteration.getSize(),
+        iteration.getAssignmentNanos() / 1e6, iteration.getUpdateNanos() / 1e6,
+        iteration.getSse(), iteration.getCentroidShift(), iteration.getEmptyClusters(),
+        iteration.getChanged()));
+    else
+      out.println(String.format(Locale.ROOT,
+        "{\"run\":%d,\"iteration\":%d,\"size\":%d,\"assignmentMs\":%.3f,\"updateMs\":%.3f," +
+        "\"sse\":%d,\"centroidShift\":%.3f,\"emptyClusters\":%d,\"changed\":%d}",
+        run, iteration.getIteration(), iteration.getSize(),
+        iteration.getAssignmentNanos() / 1e6, iteration.getUpdateNanos() / 1e6,
+        iteration.getSse(), iteration.getCentroidShift(), iteration.getEmptyClusters(),
+        iteration.getChanged()));
+  }
+
+  /**
+   * Method to write a line for the end of a run
+   * @param result the final palette and why the loop stopped
+   */
+  public synchronized void runDone(KMeansResult result)
+  {
+    int run = number(result.getRun());
+    numbers.remove(result.getRun());
+    if (format == Format.CSV)
+      out.println(run + "," + result.getIterations() + "," + result.getPalette().length +
+                  ",,," + result.getSse() + ",,,," + result.getStopReason());
+    else
+      out.println("{\"run\":" + run + ",\"done\":true,\"iterations\":" + result.getIterations() +
+                  ",\"stopReason\":\"" + result.getStopReason() + "\",\"colors\":" +
+                  result.getPalette().length + ",\"sse\":" + result.getSse() + "}");
+  }
+
+  /**
+   * Method to get the log's number for a run, numbering it if it is new
+   * @param id the id of the run
+   * @return the number of the run in this log, starting at 1
+   */
+  private int number(long id)
+  {
+    Integer number = numbers.get(id);
+    if (number == null)
+    {
+      number = ++runs;
+      numbers.put(id, number);
+    }
+    return number;
+  }
+
+  /**
+   * Method to close the stream the log is written to
+   */
+  public synchronized void close()
+  {
+    out.close();
+  }
+
+  /**
+   * Method to return a string with information about this log
+   * @return a string with information about this log
+   */
+  public String toString()
+  {
+    return "KMeansLog (" + format + ") of " + runs + " runs";
+  }
+
+}
@@ -0,0 +1,158 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A listener that keeps running totals of k-means iterations and shows
+ * them as a JMX MBean, so a long running program can be watched from
+ * JConsole.  One KMeansMetrics can be added to many KMeans objects,
+ * including ones running on different threads.
+ */
+public class KMeansMetrics implements KMeansListener, KMeansMetricsMBean
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the name the metrics are registered under if none is given */
+  public static final String DEFAULT_NAME = "KMeans:type=KMeansMetrics";
+
+  /** the totals */
+  private AtomicLong runs = new AtomicLong();
+  private AtomicLong iterations = new AtomicLong();
+  private AtomicLong assignmentNanos = new AtomicLong();
+  private AtomicLong updateNanos = new AtomicLong();
+
+  /** the last iteration and the last run finished */
+  private volatile KMeansIteration lastIteration;
+  private volatile KMeansResult lastResult;
+
+  /** the name the metrics are registered under (null if not registered) */
+  private ObjectName name;
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to show these metrics over JMX under DEFAULT_NAME
+   * @throws JMException if they can not be registered (for example if
+   * the name is already used)
+   */
+  public void register() throws JMException
+  {
+    register(DEFAULT_NAME);
+  }
+
+  /**
+   * Method to show these metrics over JMX
+   * @param objectName the name to register under, such as KMeans:type=KMeansMetrics,name=batch
+   * @throws JMException if they can not be registered
+   */
+  public synchronized void register(String objectName) throws JMException
+  {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName newName = new ObjectName(objectName);
+    server.registerMBean(this, newName);
+    name = newName;
+  }
+
+  /**
+   * Method to stop showing these metrics over JMX
+   * @throws JMException if they can not be unregistered
+   */
+  public synchronized void unregister() throws JMException
+  {
+    if (name != null)
+    {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      name = null;
+    }
+  }
+
+  /**
+   * Method to add an iteration to the totals
+   * @param iteration what happened in the iteration
+   */
+  public void iterationDone(KMeansIteration iteration)
+  {
+    iterations.incrementAndGet();
+    assignmentNanos.addAndGet(iteration.getAssignmentNanos());
+    updateNanos.addAndGet(iteration.getUpdateNanos());
+    lastIteration = iteration;
+  }
+
+  /**
+   * Method to count a finished run
+   * @param result the final palette and why the loop stopped
+   */
+  public void runDone(KMeansResult result)
+  {
+    runs.incrementAndGet();
+    lastResult = result;
+  }
+
+  public long getRuns() { return runs.get(); }
+
+  public long getIterations() { return iterations.get(); }
+
+  public double getAssignmentMillis() { return assignmentNanos.get() / 1e6; }
+
+  public double getUpdateMillis() { return updateNanos.get() / 1e6; }
+
+  public long getLastSse()
+  {
+    KMeansIteration last = lastIteration;
+    return last == null ? 0 : last.getSse();
+  }
+
+  public double getLastCentroidShift()
+  {
+    KMeansIteration last = lastIteration;
+    return last == null ? 0 : last.getCentroidShift();
+  }
+
+  public int getLastEmptyClusters()
+  {
+    KMeansIteration last = lastIteration;
+    return last == null ? 0 : last.getEmptyClusters();
+  }
+
+  public long getLastChanged()
+  {
+    KMeansIteration last = lastIteration;
+    return last == null ? 0 : last.getChanged();
+  }
+
+  public int getLastRunIterations()
+  {
+    KMeansResult last = lastResult;
+    return last == null ? 0 : last.getIterations();
+  }
+
+  public String getLastStopReason()
+  {
+    KMeansResult last = lastResult;
+    return last == null ? "" : String.valueOf(last.getStopReason());
+  }
+
+  public void reset()
+  {
+    runs.set(0);
+    iterations.set(0);
+    assignmentNanos.set(0);
+    updateNanos.set(0);
+    lastIteration = null;
+    lastResult = null;
+  }
+
+  /**
+   * Method to return a string with information about these metrics
+   * @return a string with information about these metrics
+   */
+  public String toString()
+  {
+    return "KMeansMetrics: " + getRuns() + " runs, " + getIterations() + " iterations, " +
+      getAssignmentMillis() + " ms assigning, " + getUpdateMillis() + " ms updating";
+  }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * The counters KMeansMetrics shows over JMX, for example in JConsole.
+ */
+public interface KMeansMetricsMBean
+{
+  /** @return the number of k-means runs finished */
+  long getRuns();
+
+  /** @return the number of iterations done by all runs */
+  long getIterations();
+
+  /** @return the total time spent assigning colors, in milliseconds */
+  double getAssignmentMillis();
+
+  /** @return the total time spent updating the palettes, in milliseconds */
+  double getUpdateMillis();
+
+  /** @return the error of the last iteration */
+  long getLastSse();
+
+  /** @return the centroid shift of the last iteration */
+  double getLastCentroidShift();
+
+  /** @return the empty clusters of the last iteration */
+  int getLastEmptyClusters();
+
+  /** @return the pixels that changed cluster in the last iteration */
+  long getLastChanged();
+
+  /** @return the number of iterations the last finished run took */
+  int getLastRunIterations();
+
+  /** @return why the last finished run stopped */
+  String getLastStopReason();
+
+  /** Method to set all the counters back to zero */
+  void reset();
+}
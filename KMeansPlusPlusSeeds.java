@@ -0,0 +1,158 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A seed strategy that uses k-means++.  The first color is a random
+ * pixel, and each next color is a pixel picked with a chance that grows
+ * with the squared distance to the closest color picked so far.  The
+ * colors are spread over the ones really in the picture, so k-means
+ * usually needs far fewer iterations than with random colors.
+ *
+ * Each pick goes over every candidate pixel once, so for big pictures a
+ * limit on the number of pixels looked at (taken evenly across the
+ * picture) keeps the seeding cheap.
+ */
+public class KMeansPlusPlusSeeds implements SeedStrategy
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the seed for the random number generator */
+  private long seed;
+
+  /** the most pixels to look at (0 for all of them) */
+  private int maxSamples;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the seed for the random number generator
+   * and looks at every pixel
+   * @param seed the seed to use (the same seed gives the same colors)
+   */
+  public KMeansPlusPlusSeeds(long seed)
+  {
+    this(seed, 0);
+  }
+
+  /**
+   * A constructor that takes the seed for the random number generator
+   * and the most pixels to look at
+   * @param seed the seed to use (the same seed gives the same colors)
+   * @param maxSamples the most pixels to look at (0 for all of them)
+   */
+  public KMeansPlusPlusSeeds(long seed, int maxSamples)
+  {
+    if (maxSamples < 0)
+      throw new IllegalArgumentException("maxSamples can not be negative: " + maxSamples);
+    this.seed = seed;
+    this.maxSamples = maxSamples;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to pick the colors using k-means++
+   * @param colors the packed colors being clustered
+   * @param weights the number of pixels each color stands for (may be null)
+   * @param number the number of colors wanted
+   * @return the picked colors (fewer if there are not that many distinct colors)
+   */
+  public int[] seed(int[] colors, int[] weights, int number)
+  {
+    int count = colors.length;
+    if (maxSamples > 0 && maxSamples < count)
+      count = maxSamples;
+    if (count == 0 || number == 0)
+      return new int[0];
+
+    // the colors to look at, taken evenly across the picture
+    int[] samples = new int[count];
+    long[] sampleWeights = new long[count];
+    for (int i = 0; i < count; i++)
+    {
+      int index = (int) ((long) i * colors.length / count);
+      samples[i] = colors[index] & KMeans.RGB_MASK;
+      sampleWeights[i] = weights == null ? 1 : weights[index];
+    }
+
+    // the first color is picked with a chance in proportion to its weight
+    Random random = new Random(seed);
+    int[] palette = new int[number];
+    long[] distances = new long[count];
+    Arrays.fill(distances, 1);
+    palette[0] = samples[pick(random, distances, sampleWeights, sum(sampleWeights))];
+    int size = 1;
+
+    // the weighted squared distance of each sample to its closest picked color
+    long total = 0;
+    for (int i = 0; i < count; i++)
+    {
+      distances[i] = KMeans.colorDistance(samples[i], palette[0]);
+      total += sampleWeights[i] * distances[i];
+    }
+
+    while (size < number && total > 0)
+    {
+      int rgb = samples[pick(random, distances, sampleWeights, total)];
+      palette[size++] = rgb;
+
+      total = 0;
+      for (int i = 0; i < count; i++)
+      {
+        int distance = KMeans.colorDistance(samples[i], rgb);
+        if (distance < distances[i])
+          distances[i] = distance;
+        total += sampleWeights[i] * distances[i];
+      }
+    }
+    return Arrays.copyOf(palette, size);
+  }
+
+  /**
+   * Method to pick a sample with a chance in proportion to its weight
+   * times its distance
+   * @param random the random number generator
+   * @param distances the squared distance of each sample
+   * @param weights the weight of each sample
+   * @param total the sum of the weights times the distances (more than 0)
+   * @return the index of the picked sample
+   */
+  private static int pick(Random random, long[] distances, long[] weights, long total)
+  {
+    long target = (long) (random.nextDouble() * total);
+    int chosen = 0;
+    long running = weights[0] * distances[0];
+    while (running <= target && chosen < distances.length - 1)
+    {
+      chosen++;
+      running += weights[chosen] * distances[chosen];
+    }
+    while (weights[chosen] * distances[chosen] == 0)
+      chosen--;
+    return chosen;
+  }
+
+  /**
+   * Method to add up the weights
+   * @param weights the weights
+   * @return the sum of the weights
+   */
+  private static long sum(long[] weights)
+  {
+    long total = 0;
+    for (long weight : weights)
+      total += weight;
+    return total;
+  }
+
+  /**
+   * Method to return a string with information about this strategy
+   * @return a string with information about this strategy
+   */
+  public String toString()
+  {
+    return "k-means++(" + seed + (maxSamples > 0 ? ", " + maxSamples + " samples" : "") + ")";
+  }
+
+}
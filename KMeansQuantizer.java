@@ -0,0 +1,105 @@
+/**
+ * A quantizer that picks the palette with k-means (see KMeans), the path
+ * Picture.computeColors has always taken.  It iterates, so it is slower
+ * than the single pass quantizers, but it gives the lowest error.  Its
+ * seeds can come from another quantizer through QuantizerSeeds, and a
+ * limit on the iterations bounds how long it can take.
+ */
+public class KMeansQuantizer implements Quantizer
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the way the starting palette is picked */
+  private SeedStrategy seeding;
+
+  /** the most iterations to run */
+  private int maxIterations = KMeans.DEFAULT_MAX_ITERATIONS;
+
+  /** the number of threads used for the assignment step */
+  private int threads = 1;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that starts k-means from k-means++ seeds
+   */
+  public KMeansQuantizer()
+  {
+    this(new KMeansPlusPlusSeeds(0));
+  }
+
+  /**
+   * A constructor that takes the way the starting palette is picked
+   * @param seeding the seed strategy (a QuantizerSeeds to start from
+   * another quantizer's palette)
+   */
+  public KMeansQuantizer(SeedStrategy seeding)
+  {
+    this.seeding = seeding;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the most iterations k-means will run
+   * @return the maximum number of iterations
+   */
+  public int getMaxIterations() { return maxIterations; }
+
+  /**
+   * Method to set the most iterations k-means will run
+   * @param maxIterations the maximum number of iterations (at least 1)
+   */
+  public void setMaxIterations(int maxIterations)
+  {
+    if (maxIterations < 1)
+      throw new IllegalArgumentException("maxIterations must be at least 1, not " + maxIterations);
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Method to get the number of threads used for the assignment step
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads used for the assignment step
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to pick a palette using k-means
+   * @param colors the packed rgb colors
+   * @param weights the number of pixels each color stands for (may be null)
+   * @param number the number of palette colors wanted
+   * @return the k-means palette
+   */
+  public int[] computeColors(int[] colors, int[] weights, int number)
+  {
+    KMeans kMeans = weights == null ? new KMeans(colors) : new KMeans(colors, weights);
+    kMeans.setSeeding(seeding);
+    kMeans.setMaxIterations(maxIterations);
+    kMeans.setThreads(threads);
+    return kMeans.run(number).getPalette();
+  }
+
+  /**
+   * Method to return a string with information about this quantizer.  It
+   * has everything that changes the palette, since through QuantizerSeeds
+   * it is also part of a PaletteCache key (the threads do not change it).
+   * @return a string with information about this quantizer
+   */
+  public String toString()
+  {
+    return "k-means of at most " + maxIterations + " iterations from " + seeding;
+  }
+
+}
@@ -0,0 +1,277 @@
+import java.util.Arrays;
+
+/**
+ * A class that puts new palette colors in place of the clusters that
+ * came out empty, so a k-means run keeps the number of colors it was
+ * asked for.  It makes one pass over the colors, which is cheaper than
+ * the extra iterations a shrunken palette would need to recover, and
+ * only runs in the iterations where the palette is short.
+ *
+ * FARTHEST_POINT adds the colors furthest from every palette color, one
+ * at a time, each one far from the ones added before it.
+ * SPLIT_LARGEST_SSE splits the clusters with the largest error in two
+ * along the color with the widest spread, a standard deviation either
+ * side of the average.  The new palette colors go after the kept ones.
+ */
+class KMeansRefill
+{
+
+  /** the number of candidate colors kept for each palette color wanted */
+  private static final int CANDIDATES_PER_COLOR = 8;
+
+  /**
+   * Method to add palette colors until there are as many as wanted
+   * @param strategy the way to pick the new colors (not DROP)
+   * @param colors the packed colors being clustered
+   * @param weights the weight of each color (null if each counts once)
+   * @param width the number of colors in each row
+   * @param bands the bands to split the pass into
+   * @param palette the palette, with room for wanted colors
+   * @param size the number of palette colors in use
+   * @param wanted the number of palette colors wanted
+   * @return the new number of palette colors (less than wanted if there
+   * are not enough different colors)
+   */
+  static int refill(KMeans.EmptyClusters strategy, int[] colors, int[] weights, int width,
+                    RowBands bands, int[] palette, int size, int wanted)
+  {
+    if (size == 0 || size >= wanted || colors.length == 0)
+      return size;
+    if (strategy == KMeans.EmptyClusters.FARTHEST_POINT)
+      return addFarthest(colors, width, bands, palette, size, wanted);
+    return splitLargest(colors, weights, width, bands, palette, size, wanted);
+  }
+
+  /**
+   * Method to add the colors furthest from the palette
+   * @param colors the packed colors being clustered
+   * @param width the number of colors in each row
+   * @param bands the bands to split the pass into
+   * @param palette the palette, with room for wanted colors
+   * @param size the number of palette colors in use
+   * @param wanted the number of palette colors wanted
+   * @return the new number of palette colors
+   */
+  private static int addFarthest(final int[] colors, final int width, RowBands bands,
+                                 final int[] palette, final int size, int wanted)
+  {
+    final int keep = CANDIDATES_PER_COLOR * (wanted - size);
+    int rows = (colors.length + width - 1) / width;
+    final int[][] bandColors = new int[bands.countBands(rows)][];
+    final int[][] bandDistances = new int[bandColors.length][];
+
+    // each band keeps the furthest distinct colors it saw
+    bands.forEach(rows, new RowBands.Task() {
+      public void run(int band, int fromRow, int toRow)
+      {
+        int[] found = new int[keep];
+        int[] distances = new int[keep];
+        Arrays.fill(distances, -1);
+        int smallest = 0;
+        int to = Math.min(colors.length, toRow * width);
+        for (int i = fromRow * width; i < to; i++)
+        {
+          int rgb = colors[i] & KMeans.RGB_MASK;
+          int distance = KMeans.colorDistance(rgb, palette[KMeans.findClosestColor(rgb, palette, size)]);
+          if (!isFurther(distance, rgb, distances[smallest], found[smallest]) ||
+              indexOf(found, distances, rgb) >= 0)
+            continue;
+          found[smallest] = rgb;
+          distances[smallest] = distance;
+          for (int j = 0; j < keep; j++)
+            if (isFurther(distances[smallest], found[smallest], distances[j], found[j]))
+              smallest = j;
+        }
+        bandColors[band] = found;
+        bandDistances[band] = distances;
+      }
+    });
+
+    // keep the furthest of all the bands, which are the same colors
+    // whatever the number of bands, then pick one at a time
+    long[] merged = new long[keep * bandColors.length];
+    int count = 0;
+    for (int band = 0; band < bandColors.length; band++)
+      for (int j = 0; j < keep; j++)
+        if (bandDistances[band][j] > 0)
+          merged[count++] = (long) bandDistances[band][j] << 32 | (KMeans.RGB_MASK - bandColors[band][j]);
+    Arrays.sort(merged, 0, count);
+    int[] candidates = new int[keep];
+    int[] distances = new int[keep];
+    int used = 0;
+    for (int j = count - 1; j >= 0 && used < keep; j--)
+    {
+      int rgb = KMeans.RGB_MASK - (int) merged[j];
+      if (used > 0 && candidates[used - 1] == rgb)
+        continue;
+      candidates[used] = rgb;
+      distances[used++] = (int) (merged[j] >>> 32);
+    }
+    count = used;
+
+    int newSize = size;
+    while (newSize < wanted)
+    {
+      int best = -1;
+      for (int j = 0; j < count; j++)
+        if (distances[j] > 0 && (best < 0 || distances[j] > distances[best] ||
+                                 (distances[j] == distances[best] && candidates[j] < candidates[best])))
+          best = j;
+      if (best < 0)
+        break;
+      int added = candidates[best];
+      palette[newSize++] = added;
+      for (int j = 0; j < count; j++)
+        distances[j] = Math.min(distances[j], KMeans.colorDistance(candidates[j], added));
+    }
+    return newSize;
+  }
+
+  /**
+   * Method to compare two candidates: the further one comes first, and
+   * the smaller color on a tie
+   * @param distance the distance of the first candidate
+   * @param rgb the first candidate
+   * @param otherDistance the distance of the second candidate (-1 for none)
+   * @param other the second candidate
+   * @return true if the first candidate comes before the second
+   */
+  private static boolean isFurther(int distance, int rgb, int otherDistance, int other)
+  {
+    return distance > otherDistance || (distance == otherDistance && rgb < other);
+  }
+
+  /**
+   * Method to find a color among the candidates in use
+   * @param found the candidate colors
+   * @param distances the candidate distances (-1 for a slot not in use)
+   * @param rgb the color
+   * @return the index of the color or -1 if it is not there
+   */
+  private static int indexOf(int[] found, int[] distances, int rgb)
+  {
+    return indexOf(found, distances, found.length, rgb);
+  }
+
+  /**
+   * Method to find a color among the first candidates
+   * @param found the candidate colors
+   * @param distances the candidate distances (-1 for a slot not in use)
+   * @param count the number of candidates to look at
+   * @param rgb the color
+   * @return the index of the color or -1 if it is not there
+   */
+  private static int indexOf(int[] found, int[] distances, int count, int rgb)
+  {
+    for (int j = 0; j < count; j++)
+      if (distances[j] >= 0 && found[j] == rgb)
+        return j;
+    return -1;
+  }
+
+  /**
+   * Method to split the clusters with the largest errors
+   * @param colors the packed colors being clustered
+   * @param weights the weight of each color (null if each counts once)
+   * @param width the number of colors in each row
+   * @param bands the bands to split the pass into
+   * @param palette the palette, with room for wanted colors
+   * @param size the number of palette colors in use
+   * @param wanted the number of palette colors wanted
+   * @return the new number of palette colors
+   */
+  private static int splitLargest(final int[] colors, final int[] weights, final int width,
+                                  RowBands bands, final int[] palette, final int size,
+                                  int wanted)
+  {
+    int rows = (colors.length + width - 1) / width;
+    // for each band and cluster: count, then red, green and blue sums and
+    // sums of squares, then the error
+    final long[][] bandStats = new long[bands.countBands(rows)][];
+    bands.forEach(rows, new RowBands.Task() {
+      public void run(int band, int fromRow, int toRow)
+      {
+        long[] stats = new long[8 * size];
+        int to = Math.min(colors.length, toRow * width);
+        for (int i = fromRow * width; i < to; i++)
+        {
+          int rgb = colors[i];
+          long weight = weights == null ? 1 : weights[i];
+          int chosen = KMeans.findClosestColor(rgb, palette, size);
+          int at = 8 * chosen;
+          stats[at] += weight;
+          for (int c = 0; c < 3; c++)
+          {
+            long value = (rgb >> (16 - 8 * c)) & 0xff;
+            stats[at + 1 + c] += weight * value;
+            stats[at + 4 + c] += weight * value * value;
+          }
+          stats[at + 7] += weight * KMeans.colorDistance(rgb, palette[chosen]);
+        }
+        bandStats[band] = stats;
+      }
+    });
+    long[] stats = bandStats[0];
+    for (int band = 1; band < bandStats.length; band++)
+      for (int j = 0; j < stats.length; j++)
+        stats[j] += bandStats[band][j];
+
+    // a cluster made by a split is not split again in the same pass
+    long[] error = new long[wanted];
+    for (int j = 0; j < size; j++)
+      error[j] = stats[8 * j + 7];
+    int newSize = size;
+    while (newSize < wanted)
+    {
+      int largest = 0;
+      for (int j = 1; j < size; j++)
+        if (error[j] > error[largest])
+          largest = j;
+      if (error[largest] <= 0)
+        break;
+      error[largest] = 0;
+
+      int at = 8 * largest;
+      double count = stats[at];
+      int axis = 0;
+      double widest = -1;
+      double[] mean = new double[3];
+      for (int c = 0; c < 3; c++)
+      {
+        mean[c] = stats[at + 1 + c] / count;
+        double variance = stats[at + 4 + c] / count - mean[c] * mean[c];
+        if (variance > widest)
+        {
+          widest = variance;
+          axis = c;
+        }
+      }
+      double spread = Math.sqrt(Math.max(0, widest));
+      int[] low = new int[3];
+      int[] high = new int[3];
+      for (int c = 0; c < 3; c++)
+      {
+        low[c] = clamp((int) Math.round(mean[c]));
+        high[c] = low[c];
+      }
+      low[axis] = clamp((int) Math.floor(mean[axis] - spread));
+      high[axis] = clamp((int) Math.ceil(mean[axis] + spread));
+      if (low[axis] == high[axis])
+        continue;
+      palette[largest] = low[0] << 16 | low[1] << 8 | low[2];
+      palette[newSize++] = high[0] << 16 | high[1] << 8 | high[2];
+    }
+    return newSize;
+  }
+
+  /**
+   * Method to keep a color value from 0 to 255
+   * @param value the value
+   * @return the value clamped to 0 to 255
+   */
+  private static int clamp(int value)
+  {
+    return Math.max(0, Math.min(255, value));
+  }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * A class that holds the outcome of a k-means run: the palette it found
+ * and how it got there.
+ */
+public class KMeansResult
+{
+
+  /**
+   * The reasons the k-means loop can stop
+   */
+  public enum StopReason
+  {
+    /** the palette did not change */
+    CONVERGED,
+    /** the maximum number of iterations was reached */
+    MAX_ITERATIONS,
+    /** no palette color moved more than the allowed centroid shift */
+    CENTROID_SHIFT,
+    /** the error improved by less than the allowed fraction */
+    SSE_IMPROVEMENT
+  }
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the packed rgb palette colors */
+  private int[] palette;
+
+  /** the number of assignment passes made over the colors */
+  private int iterations;
+
+  /** why the loop stopped */
+  private StopReason stopReason;
+
+  /** the sum of squared distances from each color to its palette color */
+  private long sse;
+
+  /** the seed strategy used (null if the seeds were given) */
+  private SeedStrategy seeding;
+
+  /** the id of the run that found the palette (0 if it was not a KMeans run) */
+  private long run;
+
+  /** the number of color to palette color distances computed */
+  private long distanceEvaluations;
+
+  /** the number of closest palette color searches done */
+  private long searches;
+
+  /** the number of distances a linear search would have computed */
+  private long bruteForceEvaluations;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette and how it was found
+   * @param palette the packed rgb palette colors
+   * @param iterations the number of assignment passes made
+   * @param stopReason why the loop stopped
+   * @param sse the sum of squared distances in the last assignment pass
+   * @param seeding the seed strategy used (null if the seeds were given)
+   */
+  public KMeansResult(int[] palette, int iterations, StopReason stopReason,
+                      long sse, SeedStrategy seeding)
+  {
+    this.palette = palette;
+    this.iterations = iterations;
+    this.stopReason = stopReason;
+    this.sse = sse;
+    this.seeding = seeding;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the palette
+   * @return the packed rgb palette colors
+   */
+  public int[] getPalette() { return palette; }
+
+  /**
+   * Method to get the number of iterations (assignment passes) k-means
+   * needed, including the last one that found nothing changed
+   * @return the number of iterations
+   */
+  public int getIterations() { return iterations; }
+
+  /**
+   * Method to get why the k-means loop stopped
+   * @return the stop reason
+   */
+  public StopReason getStopReason() { return stopReason; }
+
+  /**
+   * Method to get the sum of the squared distances from each color to
+   * the palette color it was assigned to in the last iteration
+   * @return the sum of squared distances
+   */
+  public long getSse() { return sse; }
+
+  /**
+   * Method to set the counts of distance computations
+   * @param distanceEvaluations the number of distances computed
+   * @param searches the number of closest palette color searches done
+   * @param bruteForceEvaluations the number a linear search would have computed
+   */
+  void setDistanceEvaluations(long distanceEvaluations, long searches,
+                              long bruteForceEvaluations)
+  {
+    this.distanceEvaluations = distanceEvaluations;
+    this.searches = searches;
+    this.bruteForceEvaluations = bruteForceEvaluations;
+  }
+
+  /**
+   * Method to set the id of the run that found the palette
+   * @param run the run id, as in its KMeansIteration objects
+   */
+  void setRun(long run)
+  {
+    this.run = run;
+  }
+
+  /**
+   * Method to get the id of the run that found the palette
+   * @return the run id, as in its KMeansIteration objects (0 if the
+   * palette was not found by a KMeans run)
+   */
+  public long getRun() { return run; }
+
+  /**
+   * Method to get the number of color to palette color distances computed
+   * @return the number of distances computed
+   */
+  public long getDistanceEvaluations() { return distanceEvaluations; }
+
+  /**
+   * Method to get the number of closest palette color searches done
+   * (one per color per iteration)
+   * @return the number of searches
+   */
+  public long getSearches() { return searches; }
+
+  /**
+   * Method to get the number of distances a linear search would have computed
+   * @return the number of distances for a linear search
+   */
+  public long getBruteForceEvaluations() { return bruteForceEvaluations; }
+
+  /**
+   * Method to get the average number of distances saved per search
+   * compared with a linear search
+   * @return the distances saved per search (0 if there were no searches)
+   */
+  public double getSavedPerSearch()
+  {
+    if (searches == 0)
+      return 0;
+    return (double) (bruteForceEvaluations - distanceEvaluations) / searches;
+  }
+
+  /**
+   * Method to get the seed strategy used
+   * @return the seed strategy (null if the seeds were given)
+   */
+  public SeedStrategy getSeeding() { return seeding; }
+
+  /**
+   * Method to return a string with information about this result
+   * @return a string with information about this result
+   */
+  public String toString()
+  {
+    return "KMeansResult " + palette.length + " colors after " + iterations +
+      " iterations (" + stopReason + ", sse " + sse + ") seeded by " +
+      (seeding == null ? "given colors" : seeding.toString());
+  }
+
+}
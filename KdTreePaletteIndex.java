@@ -0,0 +1,278 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A palette index that keeps the palette colors in a k-d tree over the
+ * red, green and blue axes.  Each node is the median palette color along
+ * its widest axis, with the colors below it on the left and above it on
+ * the right.  A search goes down the side the color is on first, and only
+ * looks at the other side if the splitting plane is no further away than
+ * the best distance found so far, so for large palettes most palette
+ * colors are never looked at.  Ties go to the lower palette index, the
+ * same as a linear search.
+ *
+ * Building the tree takes about k log k steps, so it is cheap enough to
+ * rebuild every k-means iteration.  The index counts the distances it
+ * computes so the savings over a linear search can be checked.  It can be
+ * searched from several threads at once.
+ */
+public class KdTreePaletteIndex implements PaletteIndex
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the largest palette this index can hold */
+  public static final int MAX_COLORS = (1 << 20) - 1;
+
+  /** the packed rgb palette colors */
+  private int[] palette;
+
+  /** the palette indexes in tree order (node i covers a range, its color is in the middle) */
+  private int[] order;
+
+  /** the red, green and blue of each node, in tree order */
+  private int[] red, green, blue;
+
+  /** the shift of the axis each node splits on (16 red, 8 green, 0 blue) */
+  private int[] axis;
+
+  /** the number of searches done */
+  private LongAdder searches = new LongAdder();
+
+  /** the number of distances computed by all the searches */
+  private LongAdder evaluations = new LongAdder();
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that builds the tree for a palette
+   * @param palette the packed rgb palette colors (at least one)
+   */
+  public KdTreePaletteIndex(int[] palette)
+  {
+    if (palette.length == 0 || palette.length > MAX_COLORS)
+      throw new IllegalArgumentException("the palette must have from 1 to " + MAX_COLORS +
+                                         " colors, not " + palette.length);
+    this.palette = palette;
+    int size = palette.length;
+    order = new int[size];
+    for (int i = 0; i < size; i++)
+      order[i] = i;
+    axis = new int[size];
+    build(0, size);
+
+    red = new int[size];
+    green = new int[size];
+    blue = new int[size];
+    for (int i = 0; i < size; i++)
+    {
+      int rgb = palette[order[i]];
+      red[i] = (rgb >> 16) & 0xff;
+      green[i] = (rgb >> 8) & 0xff;
+      blue[i] = rgb & 0xff;
+    }
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the palette this index searches
+   * @return the packed rgb palette colors
+   */
+  public int[] getPalette() { return palette; }
+
+  /**
+   * Method to find the palette color closest to a color
+   * @param rgb the packed color
+   * @return the index of the closest palette color
+   */
+  public int findClosestColor(int rgb)
+  {
+    long found = search(0, order.length, (rgb >> 16) & 0xff, (rgb >> 8) & 0xff,
+                        rgb & 0xff, Long.MAX_VALUE & ~COUNT_MASK);
+    searches.increment();
+    evaluations.add(found & COUNT_MASK);
+    return (int) ((found >>> INDEX_SHIFT) & INDEX_MASK);
+  }
+
+  /**
+   * Method to get the number of searches done so far
+   * @return the number of searches
+   */
+  public long getSearches() { return searches.sum(); }
+
+  /**
+   * Method to get the number of distances computed by all the searches
+   * @return the number of distances computed
+   */
+  public long getDistanceEvaluations() { return evaluations.sum(); }
+
+  /**
+   * Method to get the average number of distances per search that a
+   * linear search would have computed but this index did not
+   * @return the distances saved per search (0 if there were no searches)
+   */
+  public double getSavedPerSearch()
+  {
+    long count = getSearches();
+    if (count == 0)
+      return 0;
+    return palette.length - (double) getDistanceEvaluations() / count;
+  }
+
+  /*
+   * A search keeps its state in one long so it does not create objects:
+   * the best squared distance so far (bits 40 and up), the palette index
+   * with that distance (bits 20 to 39) and the number of distances
+   * computed (bits 0 to 19).  The top 44 bits compare as (distance, index)
+   * so a smaller value is a closer color or an equal one earlier in the palette.
+   */
+
+  /** the bits of the search state that count the distances computed */
+  private static final long COUNT_MASK = (1L << 20) - 1;
+
+  /** the shift of the palette index in the search state */
+  private static final int INDEX_SHIFT = 20;
+
+  /** the mask of the palette index after shifting */
+  private static final long INDEX_MASK = (1L << 20) - 1;
+
+  /** the shift of the distance in the search state */
+  private static final int DISTANCE_SHIFT = 40;
+
+  /**
+   * Method to search the nodes in a range of the tree
+   * @param from the first node of the range
+   * @param to one past the last node of the range
+   * @param r the red of the color searched for
+   * @param g the green of the color searched for
+   * @param b the blue of the color searched for
+   * @param state the search state so far
+   * @return the search state after looking at the range
+   */
+  private long search(int from, int to, int r, int g, int b, long state)
+  {
+    if (from >= to)
+      return state;
+    int mid = (from + to) >>> 1;
+    int dr = r - red[mid];
+    int dg = g - green[mid];
+    int db = b - blue[mid];
+    long distance = dr * dr + dg * dg + db * db;
+    long candidate = distance << DISTANCE_SHIFT | (long) order[mid] << INDEX_SHIFT;
+    if (candidate < (state & ~COUNT_MASK))
+      state = candidate | (state & COUNT_MASK);
+    state++;
+
+    int shift = axis[mid];
+    int diff = shift == 16 ? dr : (shift == 8 ? dg : db);
+    if (diff <= 0)
+    {
+      state = search(from, mid, r, g, b, state);
+      if ((long) diff * diff <= (state >>> DISTANCE_SHIFT))
+        state = search(mid + 1, to, r, g, b, state);
+    }
+    else
+    {
+      state = search(mid + 1, to, r, g, b, state);
+      if ((long) diff * diff <= (state >>> DISTANCE_SHIFT))
+        state = search(from, mid, r, g, b, state);
+    }
+    return state;
+  }
+
+  /**
+   * Method to build the tree for a range of nodes: the palette color with
+   * the median value of the widest axis goes in the middle, smaller or
+   * equal values before it and larger or equal ones after it
+   * @param from the first node of the range
+   * @param to one past the last node of the range
+   */
+  private void build(int from, int to)
+  {
+    if (to - from < 1)
+      return;
+    int mid = (from + to) >>> 1;
+    int shift = widestShift(from, to);
+    select(from, to - 1, mid, shift);
+    axis[mid] = shift;
+    build(from, mid);
+    build(mid + 1, to);
+  }
+
+  /**
+   * Method to find the axis with the widest range of values in a range of nodes
+   * @param from the first node of the range
+   * @param to one past the last node of the range
+   * @return the shift of the widest axis
+   */
+  private int widestShift(int from, int to)
+  {
+    int bestShift = 16;
+    int bestRange = -1;
+    for (int shift = 16; shift >= 0; shift -= 8)
+    {
+      int min = 255;
+      int max = 0;
+      for (int i = from; i < to; i++)
+      {
+        int value = (palette[order[i]] >> shift) & 0xff;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+      }
+      if (max - min > bestRange)
+      {
+        bestRange = max - min;
+        bestShift = shift;
+      }
+    }
+    return bestShift;
+  }
+
+  /**
+   * Method to reorder a range of nodes so the one at position k has the
+   * value it would have if the range were sorted along an axis (quickselect)
+   * @param low the first node of the range
+   * @param high the last node of the range
+   * @param k the position to fill
+   * @param shift the shift of the axis
+   */
+  private void select(int low, int high, int k, int shift)
+  {
+    while (high > low)
+    {
+      int pivot = (palette[order[(low + high) >>> 1]] >> shift) & 0xff;
+      int i = low;
+      int j = high;
+      while (i <= j)
+      {
+        while (((palette[order[i]] >> shift) & 0xff) < pivot)
+          i++;
+        while (((palette[order[j]] >> shift) & 0xff) > pivot)
+          j--;
+        if (i <= j)
+        {
+          int swap = order[i];
+          order[i++] = order[j];
+          order[j--] = swap;
+        }
+      }
+      if (k <= j)
+        high = j;
+      else if (k >= i)
+        low = i;
+      else
+        return;
+    }
+  }
+
+  /**
+   * Method to return a string with information about this index
+   * @return a string with information about this index
+   */
+  public String toString()
+  {
+    return "KdTreePaletteIndex of " + palette.length + " colors (" +
+      getSavedPerSearch() + " distances saved per search)";
+  }
+
+}
@@ -0,0 +1,347 @@
+import java.util.Arrays;
+
+/**
+ * A class that clusters colors using k-means in a perceptual color space
+ * (Oklab or CIE L*a*b*, see LabSpace) instead of in rgb.  The errors of a
+ * palette found this way are spread more evenly over what people see, so
+ * fewer colors give the same look.
+ *
+ * The colors are converted once into three planes of floats, so the
+ * iterations only add and multiply.  The palette is kept as floats too
+ * and only turned back into rgb at the end.  Like KMeans, each color can
+ * carry a weight such as the counts of a ColorHistogram, clusters that
+ * got no colors are dropped, and the loop stops when no color changes
+ * cluster.  The starting colors are picked in rgb by a seed strategy.
+ *
+ * The assignment step can be split across several threads.  Each band
+ * keeps its own sums which are then added together in band order, so
+ * the palette does not depend on the thread count.
+ */
+public class LabKMeans
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the color space the clustering is done in */
+  private LabSpace space;
+
+  /** the packed rgb colors to cluster */
+  private int[] colors;
+
+  /** the weight of each color (null if each is one pixel) */
+  private int[] weights;
+
+  /** the lightness and color planes of the colors */
+  private float[][] planes;
+
+  /** the number of threads used for the assignment step */
+  private int threads = 1;
+
+  /** the way the starting palette is picked */
+  private SeedStrategy seeding = new KMeansPlusPlusSeeds(0);
+
+  /** the most iterations to run */
+  private int maxIterations = KMeans.DEFAULT_MAX_ITERATIONS;
+
+  /** the number of iterations of the last run */
+  private int iterations;
+
+  /** the weighted sum of squared distances in the last iteration of the last run */
+  private double sse;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the colors to cluster and the space to cluster them in
+   * @param colors the packed rgb colors (each counts as one pixel)
+   * @param space the color space
+   */
+  public LabKMeans(int[] colors, LabSpace space)
+  {
+    this.colors = colors;
+    this.space = space;
+    this.planes = space.toPlanes(colors);
+  }
+
+  /**
+   * A constructor that takes colors, how many pixels each one stands for,
+   * and the space to cluster them in
+   * @param colors the packed rgb colors
+   * @param weights the weight of each color (at least 1)
+   * @param space the color space
+   */
+  public LabKMeans(int[] colors, int[] weights, LabSpace space)
+  {
+    this(colors, space);
+    if (weights.length != colors.length)
+      throw new IllegalArgumentException("there are " + colors.length + " colors but " +
+                                         weights.length + " weights");
+    this.weights = weights;
+  }
+
+  /**
+   * A constructor that takes a histogram of the colors to cluster and the
+   * space to cluster them in
+   * @param histogram the distinct colors and their counts
+   * @param space the color space
+   */
+  public LabKMeans(ColorHistogram histogram, LabSpace space)
+  {
+    this(histogram.getColors(), histogram.getCounts(), space);
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the color space the clustering is done in
+   * @return the color space
+   */
+  public LabSpace getSpace() { return space; }
+
+  /**
+   * Method to get the number of threads used for the assignment step
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads used for the assignment step
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to get the way the starting palette is picked
+   * @return the seed strategy
+   */
+  public SeedStrategy getSeeding() { return seeding; }
+
+  /**
+   * Method to set the way the starting palette is picked
+   * @param seeding the seed strategy to use
+   */
+  public void setSeeding(SeedStrategy seeding)
+  {
+    this.seeding = seeding;
+  }
+
+  /**
+   * Method to get the most iterations the loop will run
+   * @return the maximum number of iterations
+   */
+  public int getMaxIterations() { return maxIterations; }
+
+  /**
+   * Method to set the most iterations (assignment passes) the loop will run
+   * @param maxIterations the maximum number of iterations (at least 1)
+   */
+  public void setMaxIterations(int maxIterations)
+  {
+    if (maxIterations < 1)
+      throw new IllegalArgumentException("maxIterations must be at least 1, not " + maxIterations);
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Method to get the number of iterations the last run took
+   * @return the number of iterations
+   */
+  public int getIterations() { return iterations; }
+
+  /**
+   * Method to get the error of the last run
+   * @return the weighted sum of squared distances in the color space
+   */
+  public double getSse() { return sse; }
+
+  /**
+   * Method to run k-means starting from a palette picked by the seed strategy
+   * @param number the number of palette colors wanted
+   * @return the final palette as packed rgb colors
+   */
+  public int[] computeColors(int number)
+  {
+    return computeColors(seeding.seed(colors, weights, number));
+  }
+
+  /**
+   * Method to run k-means starting from the given palette
+   * @param seeds the packed rgb colors to start from (they are not changed)
+   * @return the final palette as packed rgb colors
+   */
+  public int[] computeColors(int[] seeds)
+  {
+    float[][] centroids = space.toPlanes(seeds);
+    int size = seeds.length;
+    int[] labels = new int[colors.length];
+    Arrays.fill(labels, -1);
+    iterations = 0;
+
+    RowBands bands = new RowBands(threads);
+    try
+    {
+      Accumulator[] partials = new Accumulator[bands.countBands(colors.length)];
+      for (int i = 0; i < partials.length; i++)
+        partials[i] = new Accumulator(size);
+      Accumulator total = partials[0];
+      while (true)
+      {
+        assignClusters(bands, centroids, size, labels, partials);
+        iterations++;
+        for (int i = 1; i < partials.length; i++)
+          total.add(partials[i], size);
+        sse = total.sse;
+
+        // the clusters that got colors move to their weighted average
+        int newSize = 0;
+        int[] newLabel = new int[size];
+        for (int k = 0; k < size; k++)
+        {
+          newLabel[k] = -1;
+          if (total.weights[k] > 0)
+          {
+            newLabel[k] = newSize;
+            for (int c = 0; c < 3; c++)
+              centroids[c][newSize] = (float) (total.sums[3 * k + c] / total.weights[k]);
+            newSize++;
+          }
+        }
+        if (newSize < size)
+          for (int i = 0; i < labels.length; i++)
+            labels[i] = newLabel[labels[i]];
+        size = newSize;
+        if (total.changed == 0 || iterations >= maxIterations)
+          break;
+      }
+    }
+    finally
+    {
+      bands.close();
+    }
+
+    int[] palette = new int[size];
+    for (int k = 0; k < size; k++)
+      palette[k] = space.toRgb(centroids[0][k], centroids[1][k], centroids[2][k]);
+    return palette;
+  }
+
+  /**
+   * Method to run the assignment step on every band of colors
+   * @param bands the bands to run on
+   * @param centroids the lightness and color planes of the palette
+   * @param size the number of palette colors in use
+   * @param labels the cluster of each color, updated
+   * @param partials one accumulator for each band
+   */
+  private void assignClusters(RowBands bands, final float[][] centroids, final int size,
+                              final int[] labels, final Accumulator[] partials)
+  {
+    bands.forEach(colors.length, new RowBands.Task() {
+      public void run(int band, int fromRow, int toRow)
+      {
+        Accumulator partial = partials[band];
+        partial.clear(size);
+        float[] lightness = planes[0], a = planes[1], b = planes[2];
+        float[] cl = centroids[0], ca = centroids[1], cb = centroids[2];
+        for (int i = fromRow; i < toRow; i++)
+        {
+          float l0 = lightness[i], a0 = a[i], b0 = b[i];
+          int best = 0;
+          float bestDistance = Float.MAX_VALUE;
+          for (int k = 0; k < size; k++)
+          {
+            float dl = l0 - cl[k], da = a0 - ca[k], db = b0 - cb[k];
+            float distance = dl * dl + da * da + db * db;
+            if (distance < bestDistance)
+            {
+              bestDistance = distance;
+              best = k;
+            }
+          }
+          if (labels[i] != best)
+          {
+            labels[i] = best;
+            partial.changed++;
+          }
+          double weight = weights == null ? 1 : weights[i];
+          partial.sums[3 * best] += weight * l0;
+          partial.sums[3 * best + 1] += weight * a0;
+          partial.sums[3 * best + 2] += weight * b0;
+          partial.weights[best] += weight;
+          partial.sse += weight * bestDistance;
+        }
+      }
+    });
+  }
+
+  /**
+   * Method to return a string with information about this object
+   * @return a string with information about this object
+   */
+  public String toString()
+  {
+    return "LabKMeans in " + space + " with " + colors.length + " colors and " +
+      threads + " threads";
+  }
+
+  /**
+   * The sums one band of colors adds to each cluster
+   */
+  private static class Accumulator
+  {
+    /** the lightness and color sums for each cluster */
+    double[] sums;
+
+    /** the weight of the colors in each cluster */
+    double[] weights;
+
+    /** the weighted sum of squared distances */
+    double sse;
+
+    /** the number of colors that changed cluster */
+    int changed;
+
+    /**
+     * A constructor that takes the number of clusters
+     * @param size the number of clusters
+     */
+    Accumulator(int size)
+    {
+      sums = new double[3 * size];
+      weights = new double[size];
+    }
+
+    /**
+     * Method to zero the sums of the clusters in use
+     * @param size the number of clusters in use
+     */
+    void clear(int size)
+    {
+      Arrays.fill(sums, 0, 3 * size, 0);
+      Arrays.fill(weights, 0, size, 0);
+      sse = 0;
+      changed = 0;
+    }
+
+    /**
+     * Method to add the sums of another band
+     * @param other the other band's sums
+     * @param size the number of clusters in use
+     */
+    void add(Accumulator other, int size)
+    {
+      for (int i = 0; i < 3 * size; i++)
+        sums[i] += other.sums[i];
+      for (int k = 0; k < size; k++)
+        weights[k] += other.weights[k];
+      sse += other.sse;
+      changed += other.changed;
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * A palette index that finds the closest palette color in a perceptual
+ * color space (see LabSpace) instead of in rgb, for mapping a picture to
+ * a palette found by LabKMeans.  Unlike the other indexes its answers can
+ * differ from a search by rgb distance.  The palette is converted once.
+ * To map a whole picture, findClosestColors converts each distinct color
+ * of it once into planes and searches from those, so no pixel pays for
+ * the cube roots; findClosestColor converts its one color into a buffer
+ * kept for each thread.  The index does not change after it is built, so
+ * several threads can search it at once.
+ */
+public class LabPaletteIndex implements PaletteIndex
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the packed rgb palette colors */
+  private int[] palette;
+
+  /** the color space the distances are measured in */
+  private LabSpace space;
+
+  /** the lightness and color planes of the palette */
+  private float[][] planes;
+
+  /** the buffer each thread converts a single color into */
+  private final ThreadLocal<float[]> lab = ThreadLocal.withInitial(() -> new float[3]);
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette to search and the space to measure distances in
+   * @param palette the packed rgb palette colors
+   * @param space the color space
+   */
+  public LabPaletteIndex(int[] palette, LabSpace space)
+  {
+    this.palette = palette;
+    this.space = space;
+    this.planes = space.toPlanes(palette);
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the palette this index searches
+   * @return the packed rgb palette colors
+   */
+  public int[] getPalette() { return palette; }
+
+  /**
+   * Method to get the color space the distances are measured in
+   * @return the color space
+   */
+  public LabSpace getSpace() { return space; }
+
+  /**
+   * Method to find the palette color closest to a color in the color space
+   * @param rgb the packed color (alpha bits ignored)
+   * @return the index of the closest palette color (the first one if
+   * several are equally close)
+   */
+  public int findClosestColor(int rgb)
+  {
+    float[] color = lab.get();
+    space.toLab(rgb, color);
+    return findClosest(color[0], color[1], color[2]);
+  }
+
+  /**
+   * Method to find the closest palette colors of many colors.  The colors
+   * are converted to the color space once, all together, and split
+   * across threads by bands.
+   * @param colors the packed colors, best without repeats (alpha bits ignored)
+   * @param threads the number of threads (1 runs on the calling thread)
+   * @return the index of the closest palette color of each color
+   */
+  public int[] findClosestColors(int[] colors, int threads)
+  {
+    final float[][] converted = space.toPlanes(colors);
+    final int[] chosen = new int[colors.length];
+    RowBands bands = new RowBands(threads);
+    try
+    {
+      bands.forEach(colors.length, new RowBands.Task() {
+        public void run(int band, int fromRow, int toRow)
+        {
+          float[] l = converted[0], a = converted[1], b = converted[2];
+          for (int i = fromRow; i < toRow; i++)
+            chosen[i] = findClosest(l[i], a[i], b[i]);
+        }
+      });
+    }
+    finally
+    {
+      bands.close();
+    }
+    return chosen;
+  }
+
+  /**
+   * Method to find the palette color closest to a converted color
+   * @param l the lightness
+   * @param a the green to red value
+   * @param b the blue to yellow value
+   * @return the index of the closest palette color (the first one if
+   * several are equally close)
+   */
+  private int findClosest(float l, float a, float b)
+  {
+    float[] cl = planes[0], ca = planes[1], cb = planes[2];
+    int best = 0;
+    float bestDistance = Float.MAX_VALUE;
+    for (int k = 0; k < palette.length; k++)
+    {
+      float dl = l - cl[k], da = a - ca[k], db = b - cb[k];
+      float distance = dl * dl + da * da + db * db;
+      if (distance < bestDistance)
+      {
+        bestDistance = distance;
+        best = k;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Method to return a string with information about this index
+   * @return a string with information about this index
+   */
+  public String toString()
+  {
+    return "LabPaletteIndex of " + palette.length + " colors in " + space;
+  }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * The perceptual color spaces colors can be clustered and matched in.
+ * In sRGB the same distance can be a big visible change in one place and
+ * an invisible one in another, so k-means over rgb needs more colors to
+ * hide its worst errors.  In these spaces distances follow what people
+ * see much more closely.
+ *
+ * The sRGB values are turned into linear light with a table of the 256
+ * values, so converting a color costs a few multiplications and three
+ * cube roots, and no Math.pow.  A palette color is turned back into
+ * sRGB by searching the same table for the closest byte, so a color
+ * converted there and back comes out the same.
+ */
+public enum LabSpace
+{
+  /** Oklab (Bjorn Ottosson, 2020), with lightness from 0 to 1 */
+  OKLAB,
+  /** CIE L*a*b* with a D65 white, with lightness from 0 to 100 */
+  CIELAB;
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the linear light of each sRGB byte value */
+  private static final float[] LINEAR = new float[256];
+
+  /** the D65 white in CIE XYZ */
+  private static final double WHITE_X = 0.95047, WHITE_Y = 1.0, WHITE_Z = 1.08883;
+
+  /** where the CIE L*a*b* function changes from a cube root to a line */
+  private static final double EPSILON = 216.0 / 24389.0, KAPPA = 24389.0 / 27.0;
+
+  static
+  {
+    for (int i = 0; i < 256; i++)
+    {
+      double c = i / 255.0;
+      LINEAR[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+    }
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the linear light of an sRGB byte value
+   * @param value the value from 0 to 255
+   * @return the linear light from 0 to 1
+   */
+  public static float toLinear(int value)
+  {
+    return LINEAR[value];
+  }
+
+  /**
+   * Method to get the sRGB byte value closest to a linear light value
+   * @param linear the linear light (clamped to 0 to 1)
+   * @return the value from 0 to 255
+   */
+  public static int fromLinear(double linear)
+  {
+    int low = 0;
+    int high = 255;
+    while (low < high)
+    {
+      int middle = (low + high) >>> 1;
+      if (LINEAR[middle] < linear)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    if (low > 0 && linear - LINEAR[low - 1] <= LINEAR[low] - linear)
+      return low - 1;
+    return low;
+  }
+
+  /**
+   * Method to convert a packed color
+   * @param rgb the packed color (alpha bits ignored)
+   * @param lab where to put the lightness and the two color values
+   */
+  public void toLab(int rgb, float[] lab)
+  {
+    double r = LINEAR[(rgb >> 16) & 0xff];
+    double g = LINEAR[(rgb >> 8) & 0xff];
+    double b = LINEAR[rgb & 0xff];
+    if (this == OKLAB)
+    {
+      double l = Math.cbrt(0.4122214708 * r + 0.5363325363 * g + 0.0514459929 * b);
+      double m = Math.cbrt(0.2119034982 * r + 0.6806995451 * g + 0.1073969566 * b);
+      double s = Math.cbrt(0.0883024619 * r + 0.2817188376 * g + 0.6299787005 * b);
+      lab[0] = (float) (0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s);
+      lab[1] = (float) (1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s);
+      lab[2] = (float) (0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s);
+    }
+    else
+    {
+      double fx = f((0.4124564 * r + 0.3575761 * g + 0.1804375 * b) / WHITE_X);
+      double fy = f((0.2126729 * r + 0.7151522 * g + 0.0721750 * b) / WHITE_Y);
+      double fz = f((0.0193339 * r + 0.1191920 * g + 0.9503041 * b) / WHITE_Z);
+      lab[0] = (float) (116 * fy - 16);
+      lab[1] = (float) (500 * (fx - fy));
+      lab[2] = (float) (200 * (fy - fz));
+    }
+  }
+
+  /**
+   * Method to convert packed colors into three planes of floats, once,
+   * so the loops over them do no conversions
+   * @param colors the packed colors (alpha bits ignored)
+   * @return the lightness plane and the two color planes
+   */
+  public float[][] toPlanes(int[] colors)
+  {
+    float[][] planes = new float[3][colors.length];
+    float[] lab = new float[3];
+    for (int i = 0; i < colors.length; i++)
+    {
+      toLab(colors[i], lab);
+      planes[0][i] = lab[0];
+      planes[1][i] = lab[1];
+      planes[2][i] = lab[2];
+    }
+    return planes;
+  }
+
+  /**
+   * Method to convert a color back to a packed sRGB color.  Colors
+   * outside of sRGB are clamped.
+   * @param lightness the lightness
+   * @param a the green to red value
+   * @param b the blue to yellow value
+   * @return the packed color
+   */
+  public int toRgb(double lightness, double a, double b)
+  {
+    double red, green, blue;
+    if (this == OKLAB)
+    {
+      double l = lightness + 0.3963377774 * a + 0.2158037573 * b;
+      double m = lightness - 0.1055613458 * a - 0.0638541728 * b;
+      double s = lightness - 0.0894841775 * a - 1.2914855480 * b;
+      l = l * l * l;
+      m = m * m * m;
+      s = s * s * s;
+      red = 4.0767416621 * l - 3.3077115913 * m + 0.2309699292 * s;
+      green = -1.2684380046 * l + 2.6097574011 * m - 0.3413193965 * s;
+      blue = -0.0041960863 * l - 0.7034186147 * m + 1.7076147010 * s;
+    }
+    else
+    {
+      double fy = (lightness + 16) / 116;
+      double x = WHITE_X * fInverse(fy + a / 500);
+      double y = WHITE_Y * fInverse(fy);
+      double z = WHITE_Z * fInverse(fy - b / 200);
+      red = 3.2404542 * x - 1.5371385 * y - 0.4985314 * z;
+      green = -0.9692660 * x + 1.8760108 * y + 0.0415560 * z;
+      blue = 0.0556434 * x - 0.2040259 * y + 1.0572252 * z;
+    }
+    return fromLinear(red) << 16 | fromLinear(green) << 8 | fromLinear(blue);
+  }
+
+  /**
+   * Method to get the squared distance between two colors in this space
+   * @param rgb1 the first packed color
+   * @param rgb2 the second packed color
+   * @return the squared distance
+   */
+  public double distance(int rgb1, int rgb2)
+  {
+    float[] lab1 = new float[3];
+    float[] lab2 = new float[3];
+    toLab(rgb1, lab1);
+    toLab(rgb2, lab2);
+    double dl = lab1[0] - lab2[0];
+    double da = lab1[1] - lab2[1];
+    double db = lab1[2] - lab2[2];
+    return dl * dl + da * da + db * db;
+  }
+
+  /**
+   * Method to apply the CIE L*a*b* function
+   * @param t the color value over the white value
+   * @return the cube root, or a line for small values
+   */
+  private static double f(double t)
+  {
+    return t > EPSILON ? Math.cbrt(t) : (KAPPA * t + 16) / 116;
+  }
+
+  /**
+   * Method to undo the CIE L*a*b* function
+   * @param f the function value
+   * @return the color value over the white value
+   */
+  private static double fInverse(double f)
+  {
+    double cube = f * f * f;
+    return cube > EPSILON ? cube : (116 * f - 16) / KAPPA;
+  }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * A palette index that looks at every palette color.  It costs nothing
+ * to build, so it is the best choice for small pictures or palettes.
+ */
+public class LinearPaletteIndex implements PaletteIndex
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the packed rgb palette colors */
+  private int[] palette;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette to search
+   * @param palette the packed rgb palette colors
+   */
+  public LinearPaletteIndex(int[] palette)
+  {
+    this.palette = palette;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the palette this index searches
+   * @return the packed rgb palette colors
+   */
+  public int[] getPalette() { return palette; }
+
+  /**
+   * Method to find the palette color closest to a color
+   * @param rgb the packed color
+   * @return the index of the closest palette color
+   */
+  public int findClosestColor(int rgb)
+  {
+    return KMeans.findClosestColor(rgb, palette, palette.length);
+  }
+
+  /**
+   * Method to return a string with information about this index
+   * @return a string with information about this index
+   */
+  public String toString()
+  {
+    return "LinearPaletteIndex of " + palette.length + " colors";
+  }
+
+}
@@ -0,0 +1,216 @@
+import java.util.Arrays;
+
+/**
+ * A class that picks a palette with median cut.  All the colors start in
+ * one box.  The box with the largest population times its widest color
+ * range is split at the median of that color, until there are the wanted
+ * number of boxes or no box can be split.  Each box gives the average of
+ * its colors.  It takes one pass over the box for each split and does not
+ * iterate, so it is fast, and its palette makes a good k-means start.
+ * The colors can carry weights (such as histogram counts), and then the
+ * populations, medians and averages are all weighted.
+ */
+public class MedianCut
+{
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to compute a palette using median cut.  The colors are copied
+   * so the passed array is not changed.
+   * @param colors the packed rgb colors (alpha bits ignored)
+   * @param number the number of palette colors wanted
+   * @return the packed palette colors (fewer if there are not that many
+   * distinct colors)
+   */
+  public static int[] computeColors(int[] colors, int number)
+  {
+    return computeColors(colors, null, number);
+  }
+
+  /**
+   * Method to compute a palette from weighted colors using median cut.
+   * The colors are copied so the passed arrays are not changed.
+   * @param colors the packed rgb colors (alpha bits ignored)
+   * @param weights the number of pixels each color stands for (null if
+   * each color is one pixel)
+   * @param number the number of palette colors wanted
+   * @return the packed palette colors (fewer if there are not that many
+   * distinct colors)
+   */
+  public static int[] computeColors(int[] colors, int[] weights, int number)
+  {
+    int[] work = new int[colors.length];
+    int[] workWeights = new int[colors.length];
+    for (int i = 0; i < work.length; i++)
+    {
+      work[i] = colors[i] & KMeans.RGB_MASK;
+      workWeights[i] = weights == null ? 1 : weights[i];
+    }
+    if (work.length == 0 || number < 1)
+      return new int[0];
+
+    // box i holds work[from[i]] up to but not including work[to[i]]
+    int[] from = new int[number];
+    int[] to = new int[number];
+    long[] population = new long[number];
+    to[0] = work.length;
+    for (int weight : workWeights)
+      population[0] += weight;
+    int boxes = 1;
+
+    while (boxes < number)
+    {
+      int chosen = -1;
+      int chosenShift = 0;
+      long best = 0;
+      for (int i = 0; i < boxes; i++)
+      {
+        int shift = widestShift(work, from[i], to[i]);
+        long score = population[i] * channelRange(work, from[i], to[i], shift);
+        if (score > best)
+        {
+          best = score;
+          chosen = i;
+          chosenShift = shift;
+        }
+      }
+      if (chosen < 0)
+        break;
+
+      int middle = split(work, workWeights, from[chosen], to[chosen], chosenShift);
+      from[boxes] = middle;
+      to[boxes] = to[chosen];
+      to[chosen] = middle;
+      population[boxes] = 0;
+      for (int i = middle; i < to[boxes]; i++)
+        population[boxes] += workWeights[i];
+      population[chosen] -= population[boxes];
+      boxes++;
+    }
+
+    int[] palette = new int[boxes];
+    for (int i = 0; i < boxes; i++)
+      palette[i] = average(work, workWeights, from[i], to[i]);
+    return palette;
+  }
+
+  /**
+   * Method to find the color with the widest range in a box
+   * @param work the colors
+   * @param from the first color in the box
+   * @param to one past the last color in the box
+   * @return the shift of the widest color (16 red, 8 green, 0 blue)
+   */
+  private static int widestShift(int[] work, int from, int to)
+  {
+    int bestShift = 16;
+    int bestRange = -1;
+    for (int shift = 16; shift >= 0; shift -= 8)
+    {
+      int range = channelRange(work, from, to, shift);
+      if (range > bestRange)
+      {
+        bestRange = range;
+        bestShift = shift;
+      }
+    }
+    return bestShift;
+  }
+
+  /**
+   * Method to find the range of one color in a box
+   * @param work the colors
+   * @param from the first color in the box
+   * @param to one past the last color in the box
+   * @param shift the shift of the color (16 red, 8 green, 0 blue)
+   * @return the largest minus the smallest value of the color
+   */
+  private static int channelRange(int[] work, int from, int to, int shift)
+  {
+    int min = 255;
+    int max = 0;
+    for (int i = from; i < to; i++)
+    {
+      int value = (work[i] >> shift) & 0xff;
+      if (value < min)
+        min = value;
+      if (value > max)
+        max = value;
+    }
+    return Math.max(0, max - min);
+  }
+
+  /**
+   * Method to split a box at the weighted median of one color.  The
+   * colors at or below the median are moved to the front of the box.
+   * Both halves always get at least one color.
+   * @param work the colors
+   * @param workWeights the weight of each color
+   * @param from the first color in the box
+   * @param to one past the last color in the box
+   * @param shift the shift of the color to split on
+   * @return the index of the first color in the upper half
+   */
+  private static int split(int[] work, int[] workWeights, int from, int to, int shift)
+  {
+    long[] histogram = new long[256];
+    long population = 0;
+    int max = 0;
+    for (int i = from; i < to; i++)
+    {
+      int value = (work[i] >> shift) & 0xff;
+      histogram[value] += workWeights[i];
+      population += workWeights[i];
+      max = Math.max(max, value);
+    }
+
+    // the median value, kept below the largest so the upper half is not empty
+    long half = population / 2;
+    int median = 0;
+    long count = histogram[0];
+    while (count <= half && median < max - 1)
+      count += histogram[++median];
+
+    int front = from;
+    for (int i = from; i < to; i++)
+    {
+      int rgb = work[i];
+      if (((rgb >> shift) & 0xff) <= median)
+      {
+        int weight = workWeights[i];
+        work[i] = work[front];
+        workWeights[i] = workWeights[front];
+        work[front] = rgb;
+        workWeights[front++] = weight;
+      }
+    }
+    return front;
+  }
+
+  /**
+   * Method to average the colors in a box
+   * @param work the colors
+   * @param workWeights the weight of each color
+   * @param from the first color in the box
+   * @param to one past the last color in the box
+   * @return the packed weighted average color
+   */
+  private static int average(int[] work, int[] workWeights, int from, int to)
+  {
+    long red = 0;
+    long green = 0;
+    long blue = 0;
+    long count = 0;
+    for (int i = from; i < to; i++)
+    {
+      long weight = workWeights[i];
+      red += weight * ((work[i] >> 16) & 0xff);
+      green += weight * ((work[i] >> 8) & 0xff);
+      blue += weight * (work[i] & 0xff);
+      count += weight;
+    }
+    return (int) (red / count) << 16 | (int) (green / count) << 8 | (int) (blue / count);
+  }
+
+}
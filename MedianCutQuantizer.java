@@ -0,0 +1,31 @@
+/**
+ * A quantizer that picks the palette with median cut (see MedianCut) in
+ * one pass over the colors for each split.
+ */
+public class MedianCutQuantizer implements Quantizer
+{
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to pick a palette using median cut
+   * @param colors the packed rgb colors
+   * @param weights the number of pixels each color stands for (may be null)
+   * @param number the number of palette colors wanted
+   * @return the median cut palette
+   */
+  public int[] computeColors(int[] colors, int[] weights, int number)
+  {
+    return MedianCut.computeColors(colors, weights, number);
+  }
+
+  /**
+   * Method to return a string with information about this quantizer
+   * @return a string with information about this quantizer
+   */
+  public String toString()
+  {
+    return "median cut";
+  }
+
+}
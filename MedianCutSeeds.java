@@ -0,0 +1,32 @@
+/**
+ * A seed strategy that starts k-means from the median cut palette of
+ * the colors.  It does not use random numbers so it always gives the
+ * same colors.
+ */
+public class MedianCutSeeds implements SeedStrategy
+{
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to pick the colors using median cut
+   * @param colors the packed colors being clustered
+   * @param weights the number of pixels each color stands for (may be null)
+   * @param number the number of colors wanted
+   * @return the median cut palette
+   */
+  public int[] seed(int[] colors, int[] weights, int number)
+  {
+    return MedianCut.computeColors(colors, weights, number);
+  }
+
+  /**
+   * Method to return a string with information about this strategy
+   * @return a string with information about this strategy
+   */
+  public String toString()
+  {
+    return "median cut";
+  }
+
+}
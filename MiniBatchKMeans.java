@@ -0,0 +1,399 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A class that clusters colors with mini-batch k-means.  Instead of
+ * assigning every color each iteration, each iteration takes a small
+ * random batch of colors, finds the closest palette color for each of
+ * them, and then moves each of those palette colors a step towards its
+ * batch colors.  Each palette color has its own learning rate, one over
+ * the number of colors it has been given so far, so it ends up at the
+ * average of every color it was given and settles down as it sees more.
+ *
+ * The work per iteration depends on the batch size and not on the size
+ * of the picture, so a 100 megapixel picture costs the same as a small
+ * one.  The batch size times the number of iterations is the
+ * quality/speed knob: more samples give a palette closer to the one full
+ * k-means finds.  An optional final pass assigns every color once and
+ * moves each palette color to the average of its cluster, the same as one
+ * KMeans iteration; it is also the only time every color is looked at, so
+ * it is when the error of the palette is measured.
+ *
+ * Colors with weights (such as a ColorHistogram) are sampled in
+ * proportion to their weights, so they give the same kind of palette as
+ * the pixels they stand for.  Palette colors that no sample ever went to
+ * are dropped, like the empty clusters of KMeans.
+ */
+public class MiniBatchKMeans
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the batch size used if none is set */
+  public static final int DEFAULT_BATCH_SIZE = 1024;
+
+  /** the number of batches used if none is set */
+  public static final int DEFAULT_ITERATIONS = 100;
+
+  /** the packed colors being clustered */
+  private int[] colors;
+
+  /** the weight of each color (null if every color counts once) */
+  private int[] weights;
+
+  /** the number of colors in each row */
+  private int width;
+
+  /** the running total of the weights, for sampling by weight */
+  private long[] cumulative;
+
+  /** the number of colors in each batch */
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  /** the number of batches to run */
+  private int iterations = DEFAULT_ITERATIONS;
+
+  /** true to finish with one assignment pass over every color */
+  private boolean finalPass = true;
+
+  /** the number of threads used by the final pass */
+  private int threads = 1;
+
+  /** the seed for picking the batches */
+  private long seed;
+
+  /** the way the starting palette is picked */
+  private SeedStrategy seeding = new KMeansPlusPlusSeeds(0, 100000);
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the packed pixel colors of a picture, row by row
+   * @param colors the packed rgb colors to cluster
+   * @param width the number of colors in each row
+   */
+  public MiniBatchKMeans(int[] colors, int width)
+  {
+    this.colors = colors;
+    this.width = Math.max(1, width);
+  }
+
+  /**
+   * A constructor that takes colors and how many pixels each one stands for
+   * @param colors the packed rgb colors to cluster
+   * @param weights the weight of each color (at least 1)
+   */
+  public MiniBatchKMeans(int[] colors, int[] weights)
+  {
+    if (weights.length != colors.length)
+      throw new IllegalArgumentException("there are " + colors.length + " colors but " +
+                                         weights.length + " weights");
+    this.colors = colors;
+    this.weights = weights;
+    this.width = 1;
+    cumulative = new long[weights.length];
+    long total = 0;
+    for (int i = 0; i < weights.length; i++)
+    {
+      total += weights[i];
+      cumulative[i] = total;
+    }
+  }
+
+  /**
+   * A constructor that takes a histogram of the colors to cluster
+   * @param histogram the distinct colors and their counts
+   */
+  public MiniBatchKMeans(ColorHistogram histogram)
+  {
+    this(histogram.getColors(), histogram.getCounts());
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of colors in each batch
+   * @return the batch size
+   */
+  public int getBatchSize() { return batchSize; }
+
+  /**
+   * Method to set the number of colors in each batch
+   * @param batchSize the batch size (at least 1)
+   */
+  public void setBatchSize(int batchSize)
+  {
+    if (batchSize < 1)
+      throw new IllegalArgumentException("batchSize must be at least 1, not " + batchSize);
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Method to get the number of batches run
+   * @return the number of batches
+   */
+  public int getIterations() { return iterations; }
+
+  /**
+   * Method to set the number of batches run
+   * @param iterations the number of batches (at least 1)
+   */
+  public void setIterations(int iterations)
+  {
+    if (iterations < 1)
+      throw new IllegalArgumentException("iterations must be at least 1, not " + iterations);
+    this.iterations = iterations;
+  }
+
+  /**
+   * Method to check if the run ends with an assignment pass over every color
+   * @return true if there is a final pass
+   */
+  public boolean isFinalPass() { return finalPass; }
+
+  /**
+   * Method to set if the run ends with an assignment pass over every color
+   * @param finalPass true for a final pass
+   */
+  public void setFinalPass(boolean finalPass)
+  {
+    this.finalPass = finalPass;
+  }
+
+  /**
+   * Method to get the number of threads used by the final pass
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads used by the final pass
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to get the seed for picking the batches
+   * @return the seed
+   */
+  public long getSeed() { return seed; }
+
+  /**
+   * Method to set the seed for picking the batches.  The same seed,
+   * seeding and colors always give the same palette.
+   * @param seed the seed
+   */
+  public void setSeed(long seed)
+  {
+    this.seed = seed;
+  }
+
+  /**
+   * Method to get the way the starting palette is picked
+   * @return the seed strategy
+   */
+  public SeedStrategy getSeeding() { return seeding; }
+
+  /**
+   * Method to set the way the starting palette is picked
+   * @param seeding the seed strategy to use
+   */
+  public void setSeeding(SeedStrategy seeding)
+  {
+    this.seeding = seeding;
+  }
+
+  /**
+   * Method to run mini-batch k-means starting from a palette picked by
+   * the seed strategy
+   * @param number the number of palette colors wanted
+   * @return the final palette, the number of batches run and, if there
+   * was a final pass, the error of the mini-batch palette over every color
+   */
+  public KMeansResult run(int number)
+  {
+    KMeansResult result = run(seeding.seed(colors, weights, number));
+    return new KMeansResult(result.getPalette(), result.getIterations(),
+                            result.getStopReason(), result.getSse(), seeding);
+  }
+
+  /**
+   * Method to run mini-batch k-means starting from the given palette
+   * @param seeds the packed colors to start from (they are not changed)
+   * @return the final palette, the number of batches run and, if there
+   * was a final pass, the error of the mini-batch palette over every
+   * color (-1 if there was not)
+   */
+  public KMeansResult run(int[] seeds)
+  {
+    int size = seeds.length;
+    double[] red = new double[size];
+    double[] green = new double[size];
+    double[] blue = new double[size];
+    long[] given = new long[size];
+    for (int j = 0; j < size; j++)
+    {
+      red[j] = (seeds[j] >> 16) & 0xff;
+      green[j] = (seeds[j] >> 8) & 0xff;
+      blue[j] = seeds[j] & 0xff;
+    }
+
+    Random random = new Random(seed);
+    int[] batch = new int[batchSize];
+    int[] closest = new int[batchSize];
+    if (colors.length > 0 && size > 0)
+    {
+      for (int iteration = 0; iteration < iterations; iteration++)
+      {
+        // assign the whole batch to the palette as it was at the start
+        for (int b = 0; b < batchSize; b++)
+        {
+          batch[b] = colors[sample(random)];
+          closest[b] = findClosest(batch[b], red, green, blue, size);
+        }
+
+        // then move each palette color towards its batch colors
+        for (int b = 0; b < batchSize; b++)
+        {
+          int j = closest[b];
+          int rgb = batch[b];
+          given[j]++;
+          double rate = 1.0 / given[j];
+          red[j] += rate * (((rgb >> 16) & 0xff) - red[j]);
+          green[j] += rate * (((rgb >> 8) & 0xff) - green[j]);
+          blue[j] += rate * ((rgb & 0xff) - blue[j]);
+        }
+      }
+    }
+
+    int[] palette = new int[size];
+    int newSize = 0;
+    for (int j = 0; j < size; j++)
+    {
+      if (given[j] > 0)
+        palette[newSize++] = (int) Math.round(red[j]) << 16 |
+                             (int) Math.round(green[j]) << 8 |
+                             (int) Math.round(blue[j]);
+    }
+    palette = Arrays.copyOf(palette, newSize);
+
+    if (!finalPass || newSize == 0)
+      return new KMeansResult(palette, iterations, KMeansResult.StopReason.MAX_ITERATIONS,
+                              -1, null);
+
+    KMeans kMeans = makeKMeans();
+    kMeans.setMaxIterations(1);
+    KMeansResult last = kMeans.run(palette);
+    return new KMeansResult(last.getPalette(), iterations + 1, last.getStopReason(),
+                            last.getSse(), null);
+  }
+
+  /**
+   * Method to measure the sum of squared distances from every color to
+   * its closest color in a palette
+   * @param palette the packed palette colors
+   * @return the (weighted) sum of squared distances
+   */
+  public long measureError(int[] palette)
+  {
+    return makeKMeans().assignClusters(palette, palette.length,
+                                       new long[3 * palette.length], new long[palette.length]);
+  }
+
+  /**
+   * Method to compare the palette this finds with the one full k-means
+   * finds from the same starting palette.  Both palettes are measured
+   * over every color, so this takes as long as a full k-means run; it is
+   * meant for picking a batch size and number of iterations on sample
+   * pictures.
+   * @param number the number of palette colors wanted
+   * @return the error of the mini-batch palette divided by the error of
+   * the full k-means palette (1 means just as good)
+   */
+  public double compareWithFull(int number)
+  {
+    int[] seeds = seeding.seed(colors, weights, number);
+    long miniBatchError = measureError(run(seeds).getPalette());
+    long fullError = measureError(makeKMeans().run(seeds).getPalette());
+    if (fullError == 0)
+      return miniBatchError == 0 ? 1 : Double.POSITIVE_INFINITY;
+    return (double) miniBatchError / fullError;
+  }
+
+  /**
+   * Method to make a KMeans over the same colors
+   * @return the KMeans
+   */
+  private KMeans makeKMeans()
+  {
+    KMeans kMeans = weights == null ? new KMeans(colors, width) : new KMeans(colors, weights);
+    kMeans.setThreads(threads);
+    return kMeans;
+  }
+
+  /**
+   * Method to pick the index of a random color, in proportion to its
+   * weight if there are weights
+   * @param random the random number generator
+   * @return the index of the color
+   */
+  private int sample(Random random)
+  {
+    if (cumulative == null)
+      return random.nextInt(colors.length);
+    long total = cumulative[cumulative.length - 1];
+    long target = (long) (random.nextDouble() * total);
+    int index = Arrays.binarySearch(cumulative, target + 1);
+    if (index < 0)
+      index = -index - 1;
+    return index;
+  }
+
+  /**
+   * Method to find the palette color closest to a color
+   * @param rgb the packed color
+   * @param red the red of each palette color
+   * @param green the green of each palette color
+   * @param blue the blue of each palette color
+   * @param size the number of palette colors
+   * @return the index of the closest palette color (the first on a tie)
+   */
+  private static int findClosest(int rgb, double[] red, double[] green, double[] blue, int size)
+  {
+    int r = (rgb >> 16) & 0xff;
+    int g = (rgb >> 8) & 0xff;
+    int b = rgb & 0xff;
+    int chosen = 0;
+    double distance = Double.MAX_VALUE;
+    for (int j = 0; j < size; j++)
+    {
+      double dr = r - red[j];
+      double dg = g - green[j];
+      double db = b - blue[j];
+      double test = dr * dr + dg * dg + db * db;
+      if (test < distance)
+      {
+        distance = test;
+        chosen = j;
+      }
+    }
+    return chosen;
+  }
+
+  /**
+   * Method to return a string with information about this clustering
+   * @return a string with information about this clustering
+   */
+  public String toString()
+  {
+    return "MiniBatchKMeans over " + colors.length + " colors with " + iterations +
+      " batches of " + batchSize + (finalPass ? " and a final pass" : "") +
+      " seeded by " + seeding;
+  }
+
+}
@@ -0,0 +1,592 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A class that does the oil paint effect: each pixel gets the most common
+ * color among the pixels up to a distance away in x and in y.  Instead of
+ * counting the whole square again for every pixel, as
+ * Pixel.getMostCommonColorInRange does, each row slides a window of
+ * counts along, adding the column that comes in and taking out the one
+ * that leaves, so a step costs about 2 * dist + 1 updates and creates no
+ * objects.
+ *
+ * In EXACT mode the colors are counted as they are and the picture is
+ * the same as Picture.oilPaint has always made.  If no color is there
+ * more than once the pixel keeps its own color.  When several colors are
+ * the most common, the old code took the first one a HashMap of Colors
+ * gave back; that order comes from the color hash codes, the size of the
+ * map and, within a bucket, which color was seen first, and it is worked
+ * out the same way here.  Windows with so many colors in one bucket that
+ * the HashMap would have turned it into a tree are counted again with a
+ * real HashMap.
+ *
+ * In QUANTIZED mode the colors are counted in bins that keep only the
+ * high bits of red, green and blue, and each pixel gets the average of
+ * the colors in the fullest bin.  Every update is an array access, and
+ * near colors in a photograph count together, which gives flatter areas.
+ *
+ * Each row starts its window from nothing, so rows can be split across
+ * threads by row bands and the picture does not depend on the thread
+ * count.
+ */
+public class ModeFilter
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /**
+   * The ways colors can be counted
+   */
+  public enum Mode
+  {
+    /** count each color, giving the same picture as Picture.oilPaint */
+    EXACT,
+    /** count colors in bins of near colors and use the bin average */
+    QUANTIZED
+  }
+
+  /** the number of bits kept for each color in QUANTIZED mode if none is given */
+  public static final int DEFAULT_BITS = 5;
+
+  /** the HashMap table sizes (from java.util.HashMap) */
+  private static final int HASH_MAP_START = 16;
+  private static final int TREE_START = 64;
+
+  /** the most keys a HashMap bucket holds before it becomes a tree */
+  private static final int TREE_BUCKET = 8;
+
+  /** the alpha bits of a Color made from red, green and blue */
+  private static final int OPAQUE = 0xff000000;
+
+  /** the distance from the pixel to the edge of the square counted */
+  private int dist;
+
+  /** the way colors are counted */
+  private Mode mode = Mode.EXACT;
+
+  /** the number of bits kept for each color in QUANTIZED mode */
+  private int bits = DEFAULT_BITS;
+
+  /** the number of threads used */
+  private int threads = 1;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the distance to look around each pixel
+   * @param dist the distance in x and in y (0 leaves the picture as it is)
+   */
+  public ModeFilter(int dist)
+  {
+    if (dist < 0)
+      throw new IllegalArgumentException("dist can not be negative: " + dist);
+    this.dist = dist;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the distance looked at around each pixel
+   * @return the distance
+   */
+  public int getDist() { return dist; }
+
+  /**
+   * Method to get the way colors are counted
+   * @return the mode
+   */
+  public Mode getMode() { return mode; }
+
+  /**
+   * Method to set the way colors are counted
+   * @param mode EXACT or QUANTIZED
+   */
+  public void setMode(Mode mode) { this.mode = mode; }
+
+  /**
+   * Method to get the number of bits kept for each color in QUANTIZED mode
+   * @return the number of bits
+   */
+  public int getBits() { return bits; }
+
+  /**
+   * Method to set the number of bits kept for each color in QUANTIZED mode
+   * @param bits the number of bits, from 1 to 7 (5 gives 32768 bins)
+   */
+  public void setBits(int bits)
+  {
+    if (bits < 1 || bits > 7)
+      throw new IllegalArgumentException("bits must be from 1 to 7, not " + bits);
+    this.bits = bits;
+  }
+
+  /**
+   * Method to get the number of threads used
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads used
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to filter packed pixels
+   * @param pixels the packed pixels, row by row (not changed)
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @return the new packed pixels, opaque
+   */
+  public int[] filter(final int[] pixels, final int width, final int height)
+  {
+    final int[] result = new int[pixels.length];
+    RowBands bands = new RowBands(threads);
+    try
+    {
+      bands.forEach(height, new RowBands.Task() {
+        public void run(int band, int fromRow, int toRow)
+        {
+          Window window = mode == Mode.EXACT ? new ExactWindow() : new QuantizedWindow();
+          for (int y = fromRow; y < toRow; y++)
+            window.filterRow(pixels, width, height, y, result);
+        }
+      });
+    }
+    finally
+    {
+      bands.close();
+    }
+    return result;
+  }
+
+  /**
+   * Method to get the HashMap bucket a color goes in, as for a Color key
+   * @param rgb the packed color
+   * @param capacity the number of buckets
+   * @return the bucket index
+   */
+  private static int bucket(int rgb, int capacity)
+  {
+    int h = rgb | OPAQUE;
+    return (h ^ (h >>> 16)) & (capacity - 1);
+  }
+
+  /**
+   * Method to get the size of the table of a HashMap that had a number
+   * of keys put in it, if none of its buckets got too full
+   * @param keys the number of keys
+   * @return the number of buckets
+   */
+  private static int hashMapCapacity(int keys)
+  {
+    int capacity = HASH_MAP_START;
+    while (keys > capacity * 3 / 4)
+      capacity *= 2;
+    return capacity;
+  }
+
+  /**
+   * Method to find the most common color around a pixel the way
+   * Pixel.getMostCommonColorInRange does, with a HashMap of Colors
+   * @param pixels the packed pixels
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @param x the x of the pixel
+   * @param y the y of the pixel
+   * @return the most common packed color
+   */
+  private int countWithHashMap(int[] pixels, int width, int height, int x, int y)
+  {
+    Map<Color,Integer> colorMap = new HashMap<Color,Integer>();
+    for (int currY = Math.max(0, y - dist); currY <= Math.min(height - 1, y + dist); currY++)
+      for (int currX = Math.max(0, x - dist); currX <= Math.min(width - 1, x + dist); currX++)
+      {
+        Color key = new Color(pixels[currY * width + currX] & KMeans.RGB_MASK);
+        Integer value = colorMap.get(key);
+        colorMap.put(key, value == null ? 1 : value + 1);
+      }
+    int maxValue = 1;
+    int theKey = pixels[y * width + x] & KMeans.RGB_MASK;
+    Set<Color> keySet = colorMap.keySet();
+    for (Color key : keySet)
+    {
+      int currValue = colorMap.get(key);
+      if (currValue > maxValue)
+      {
+        theKey = key.getRGB() & KMeans.RGB_MASK;
+        maxValue = currValue;
+      }
+    }
+    return theKey;
+  }
+
+  /**
+   * The counts in the window of one row.  It keeps how many keys have
+   * each count, so the biggest count is always known, and a key with
+   * that count when it can tell which one it is.
+   */
+  private abstract class Window
+  {
+    /** the number of keys with each count */
+    int[] keysWithCount = new int[(2 * dist + 1) * (2 * dist + 1) + 1];
+
+    /** the biggest count */
+    int max;
+
+    /** a key with the biggest count (if known) */
+    int best;
+    boolean bestKnown;
+
+    /**
+     * Method to count a pixel coming into the window
+     * @param rgb the packed color
+     */
+    abstract void add(int rgb);
+
+    /**
+     * Method to count a pixel leaving the window
+     * @param rgb the packed color
+     */
+    abstract void remove(int rgb);
+
+    /**
+     * Method to start counting again for a new row
+     */
+    abstract void clear();
+
+    /**
+     * Method to find the new color of the pixel in the middle of the window
+     * @param pixels the packed pixels
+     * @param width the number of pixels in each row
+     * @param height the number of rows
+     * @param x the x of the pixel
+     * @param y the y of the pixel
+     * @return the new packed color
+     */
+    abstract int pick(int[] pixels, int width, int height, int x, int y);
+
+    /**
+     * Method to note that a key's count went up by one
+     * @param key the key
+     * @param count its new count
+     */
+    void countedUp(int key, int count)
+    {
+      keysWithCount[count - 1]--;
+      keysWithCount[count]++;
+      if (count > max)
+      {
+        max = count;
+        best = key;
+        bestKnown = true;
+      }
+    }
+
+    /**
+     * Method to note that a key's count went down by one
+     * @param key the key
+     * @param count its new count
+     */
+    void countedDown(int key, int count)
+    {
+      keysWithCount[count + 1]--;
+      keysWithCount[count]++;
+      if (count + 1 == max)
+      {
+        if (keysWithCount[max] == 0)
+        {
+          max = count;
+          best = key;
+          bestKnown = count > 0;
+        }
+        else if (key == best)
+          bestKnown = false;
+      }
+    }
+
+    /**
+     * Method to start the counts from nothing
+     */
+    void clearCounts()
+    {
+      Arrays.fill(keysWithCount, 0);
+      max = 0;
+      bestKnown = false;
+    }
+
+    /**
+     * Method to add or take out a column of the window
+     * @param pixels the packed pixels
+     * @param width the number of pixels in each row
+     * @param x the column
+     * @param fromRow the first row of the window
+     * @param toRow the last row of the window
+     * @param adding true to add the column, false to take it out
+     */
+    void slide(int[] pixels, int width, int x, int fromRow, int toRow, boolean adding)
+    {
+      for (int y = fromRow, i = fromRow * width + x; y <= toRow; y++, i += width)
+      {
+        if (adding)
+          add(pixels[i] & KMeans.RGB_MASK);
+        else
+          remove(pixels[i] & KMeans.RGB_MASK);
+      }
+    }
+
+    /**
+     * Method to work out the new colors of a row
+     * @param pixels the packed pixels
+     * @param width the number of pixels in each row
+     * @param height the number of rows
+     * @param y the row
+     * @param result where to put the new colors
+     */
+    void filterRow(int[] pixels, int width, int height, int y, int[] result)
+    {
+      int fromRow = Math.max(0, y - dist);
+      int toRow = Math.min(height - 1, y + dist);
+      clear();
+      for (int x = 0; x <= Math.min(width - 1, dist); x++)
+        slide(pixels, width, x, fromRow, toRow, true);
+      for (int x = 0; x < width; x++)
+      {
+        result[y * width + x] = OPAQUE | pick(pixels, width, height, x, y);
+        if (x - dist >= 0)
+          slide(pixels, width, x - dist, fromRow, toRow, false);
+        if (x + dist + 1 < width)
+          slide(pixels, width, x + dist + 1, fromRow, toRow, true);
+      }
+    }
+  }
+
+  /**
+   * A window that counts each color
+   */
+  private class ExactWindow extends Window
+  {
+    /** the count of each color in the window */
+    IntIntMap counts = new IntIntMap(keysWithCount.length);
+
+    /** the number of colors in each bucket of a HashMap with TREE_START buckets */
+    int[] inBucket = new int[TREE_START];
+
+    /** the colors tied for the biggest count */
+    int[] tied = new int[keysWithCount.length];
+
+    void add(int rgb)
+    {
+      int count = counts.add(rgb, 1);
+      if (count == 1)
+        inBucket[bucket(rgb, TREE_START)]++;
+      countedUp(rgb, count);
+    }
+
+    void remove(int rgb)
+    {
+      int count = counts.add(rgb, -1);
+      if (count == 0)
+      {
+        counts.remove(rgb);
+        inBucket[bucket(rgb, TREE_START)]--;
+      }
+      countedDown(rgb, count);
+    }
+
+    void clear()
+    {
+      counts.clear();
+      Arrays.fill(inBucket, 0);
+      clearCounts();
+    }
+
+    int pick(int[] pixels, int width, int height, int x, int y)
+    {
+      if (max <= 1)
+        return pixels[y * width + x] & KMeans.RGB_MASK;
+      if (keysWithCount[max] == 1 && bestKnown)
+        return best;
+
+      int count = 0;
+      for (int slot = 0; slot < counts.capacity(); slot++)
+        if (counts.getKeyAt(slot) != IntIntMap.EMPTY && counts.getValueAt(slot) == max)
+          tied[count++] = counts.getKeyAt(slot);
+      if (count == 1)
+      {
+        best = tied[0];
+        bestKnown = true;
+        return best;
+      }
+
+      // the HashMap would give back the tied color in the first bucket,
+      // and in that bucket the one put in first
+      int capacity = hashMapCapacity(counts.size());
+      if (fullestBucket(Math.min(capacity, TREE_START)) > TREE_BUCKET)
+        return countWithHashMap(pixels, width, height, x, y);
+      int first = Integer.MAX_VALUE;
+      int inFirst = 0;
+      for (int i = 0; i < count; i++)
+      {
+        int b = bucket(tied[i], capacity);
+        if (b < first)
+        {
+          first = b;
+          inFirst = 0;
+        }
+        if (b == first)
+          tied[inFirst++] = tied[i];
+      }
+      if (inFirst == 1)
+        return tied[0];
+      return firstSeen(pixels, width, height, x, y, inFirst);
+    }
+
+    /**
+     * Method to get the most colors in one bucket of a smaller HashMap table
+     * @param capacity the number of buckets, from HASH_MAP_START to TREE_START
+     * @return the most colors in a bucket
+     */
+    int fullestBucket(int capacity)
+    {
+      int most = 0;
+      for (int b = 0; b < capacity; b++)
+      {
+        int total = 0;
+        for (int i = b; i < TREE_START; i += capacity)
+          total += inBucket[i];
+        most = Math.max(most, total);
+      }
+      return most;
+    }
+
+    /**
+     * Method to find which of the first tied colors comes first in the window
+     * @param pixels the packed pixels
+     * @param width the number of pixels in each row
+     * @param height the number of rows
+     * @param x the x of the pixel in the middle
+     * @param y the y of the pixel in the middle
+     * @param count the number of tied colors to look for
+     * @return the one seen first going along the rows
+     */
+    int firstSeen(int[] pixels, int width, int height, int x, int y, int count)
+    {
+      for (int currY = Math.max(0, y - dist); currY <= Math.min(height - 1, y + dist); currY++)
+        for (int currX = Math.max(0, x - dist); currX <= Math.min(width - 1, x + dist); currX++)
+        {
+          int rgb = pixels[currY * width + currX] & KMeans.RGB_MASK;
+          for (int i = 0; i < count; i++)
+            if (tied[i] == rgb)
+              return rgb;
+        }
+      return tied[0];
+    }
+  }
+
+  /**
+   * A window that counts colors in bins and keeps their sums
+   */
+  private class QuantizedWindow extends Window
+  {
+    /** the number of bits dropped from each color */
+    int shift = 8 - bits;
+
+    /** the count and the red, green and blue sums of each bin */
+    int[] counts = new int[1 << (3 * bits)];
+    int[] reds = new int[counts.length];
+    int[] greens = new int[counts.length];
+    int[] blues = new int[counts.length];
+
+    /**
+     * Method to get the bin a color goes in
+     * @param rgb the packed color
+     * @return the bin index
+     */
+    int bin(int rgb)
+    {
+      return ((rgb >> (16 + shift)) & ((1 << bits) - 1)) << (2 * bits) |
+        ((rgb >> (8 + shift)) & ((1 << bits) - 1)) << bits |
+        ((rgb >> shift) & ((1 << bits) - 1));
+    }
+
+    void add(int rgb)
+    {
+      int bin = bin(rgb);
+      reds[bin] += (rgb >> 16) & 0xff;
+      greens[bin] += (rgb >> 8) & 0xff;
+      blues[bin] += rgb & 0xff;
+      countedUp(bin, ++counts[bin]);
+    }
+
+    void remove(int rgb)
+    {
+      int bin = bin(rgb);
+      reds[bin] -= (rgb >> 16) & 0xff;
+      greens[bin] -= (rgb >> 8) & 0xff;
+      blues[bin] -= rgb & 0xff;
+      countedDown(bin, --counts[bin]);
+    }
+
+    void clear()
+    {
+      // only the bins in use need to be zeroed, and the window is empty
+      // at the end of each row
+      clearCounts();
+    }
+
+    void filterRow(int[] pixels, int width, int height, int y, int[] result)
+    {
+      super.filterRow(pixels, width, height, y, result);
+
+      // take out the columns still in the window
+      int fromRow = Math.max(0, y - dist);
+      int toRow = Math.min(height - 1, y + dist);
+      for (int x = Math.max(0, width - dist); x < width; x++)
+        slide(pixels, width, x, fromRow, toRow, false);
+    }
+
+    int pick(int[] pixels, int width, int height, int x, int y)
+    {
+      if (max <= 1)
+        return pixels[y * width + x] & KMeans.RGB_MASK;
+      if (!bestKnown)
+      {
+        // the first pixel along the rows that is in a fullest bin
+        for (int currY = Math.max(0, y - dist); currY <= Math.min(height - 1, y + dist) && !bestKnown; currY++)
+          for (int currX = Math.max(0, x - dist); currX <= Math.min(width - 1, x + dist); currX++)
+          {
+            int bin = bin(pixels[currY * width + currX]);
+            if (counts[bin] == max)
+            {
+              best = bin;
+              bestKnown = true;
+              break;
+            }
+          }
+      }
+      int count = counts[best];
+      return (reds[best] / count) << 16 | (greens[best] / count) << 8 | blues[best] / count;
+    }
+  }
+
+  /**
+   * Method to return a string with information about this filter
+   * @return a string with information about this filter
+   */
+  public String toString()
+  {
+    return "ModeFilter for distance " + dist + " (" + mode +
+      (mode == Mode.QUANTIZED ? ", " + bits + " bits" : "") + ", " + threads + " threads)";
+  }
+
+}
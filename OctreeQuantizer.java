@@ -0,0 +1,286 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * A quantizer that picks the palette with an octree (Gervautz and
+ * Purgathofer).  Each color goes down the tree one bit of red, green and
+ * blue at a time, adding its weight and values to the leaf it ends in,
+ * so the tree is built in one pass.  Then, while there are more leaves
+ * than wanted colors, the deepest node whose children are all leaves is
+ * merged into one leaf, the one with the fewest pixels first, and each
+ * leaf gives the average of its colors.
+ *
+ * The tree goes down DEFAULT_DEPTH levels (a leaf for every 4 x 4 x 4
+ * block of colors), which bounds its size however many colors there are.
+ * The nodes are kept in arrays, so building it creates no object per
+ * color.  Merging all the children of a node can leave fewer colors than
+ * wanted.
+ */
+public class OctreeQuantizer implements Quantizer
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the number of levels below the root if none is given */
+  public static final int DEFAULT_DEPTH = 6;
+
+  /** the number of levels below the root */
+  private int depth;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that uses DEFAULT_DEPTH levels
+   */
+  public OctreeQuantizer()
+  {
+    this(DEFAULT_DEPTH);
+  }
+
+  /**
+   * A constructor that takes the number of levels of the tree
+   * @param depth the number of levels below the root (1 to 8, where 8
+   * keeps every color apart)
+   */
+  public OctreeQuantizer(int depth)
+  {
+    if (depth < 1 || depth > 8)
+      throw new IllegalArgumentException("depth must be from 1 to 8, not " + depth);
+    this.depth = depth;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of levels of the tree
+   * @return the number of levels below the root
+   */
+  public int getDepth() { return depth; }
+
+  /**
+   * Method to pick a palette using an octree
+   * @param colors the packed rgb colors (alpha bits ignored)
+   * @param weights the number of pixels each color stands for (may be null)
+   * @param number the number of palette colors wanted
+   * @return the average colors of the leaves (fewer if there are not that
+   * many different colors)
+   */
+  public int[] computeColors(int[] colors, int[] weights, int number)
+  {
+    if (number < 1 || colors.length == 0)
+      return new int[0];
+    Tree tree = new Tree(depth);
+    int leaves = tree.addAll(colors, weights);
+    return tree.reduce(leaves, number);
+  }
+
+  /**
+   * An octree with its nodes in arrays
+   */
+  private static class Tree
+  {
+    /** the 8 children of each node (0 for none, as the root is nobody's child) */
+    private int[] children;
+
+    /** the parent of each node */
+    private int[] parent;
+
+    /** the level of each node (0 for the root) */
+    private int[] level;
+
+    /** the number of children of each node (0 for a leaf) */
+    private int[] childCount;
+
+    /** the total weight and red, green and blue sums of the colors under each node */
+    private long[] weight, red, green, blue;
+
+    /** the number of nodes made so far */
+    private int nodes;
+
+    /** the number of levels below the root */
+    private int depth;
+
+    /**
+     * A constructor that takes the number of levels
+     * @param depth the number of levels below the root
+     */
+    Tree(int depth)
+    {
+      this.depth = depth;
+      int capacity = 1024;
+      children = new int[8 * capacity];
+      parent = new int[capacity];
+      level = new int[capacity];
+      childCount = new int[capacity];
+      weight = new long[capacity];
+      red = new long[capacity];
+      green = new long[capacity];
+      blue = new long[capacity];
+      addNode(-1, 0);
+    }
+
+    /**
+     * Method to add colors to the leaves they fall in, making the nodes on the way
+     * @param colors the packed rgb colors
+     * @param weights the number of pixels each color stands for (may be null)
+     * @return the number of leaves
+     */
+    int addAll(int[] colors, int[] weights)
+    {
+      int leaves = 0;
+      for (int i = 0; i < colors.length; i++)
+      {
+        int rgb = colors[i];
+        long w = weights == null ? 1 : weights[i];
+        int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+        int node = 0;
+        add(node, w, r, g, b);
+        for (int l = 0; l < depth; l++)
+        {
+          int shift = 7 - l;
+          int octant = ((r >> shift) & 1) << 2 | ((g >> shift) & 1) << 1 | ((b >> shift) & 1);
+          int child = children[8 * node + octant];
+          if (child == 0)
+          {
+            child = addNode(node, l + 1);
+            children[8 * node + octant] = child;
+            childCount[node]++;
+            if (l + 1 == depth)
+              leaves++;
+          }
+          node = child;
+          add(node, w, r, g, b);
+        }
+      }
+      return leaves;
+    }
+
+    /**
+     * Method to merge nodes until there are few enough leaves
+     * @param leaves the number of leaves
+     * @param number the most leaves wanted
+     * @return the average colors of the leaves
+     */
+    int[] reduce(int leaves, int number)
+    {
+      // merge the deepest nodes whose children are all leaves, fewest pixels first
+      PriorityQueue<Integer> reducible = new PriorityQueue<Integer>((a, b) -> {
+        if (level[a] != level[b])
+          return Integer.compare(level[b], level[a]);
+        if (weight[a] != weight[b])
+          return Long.compare(weight[a], weight[b]);
+        return Integer.compare(a, b);
+      });
+      for (int node = 0; node < nodes; node++)
+        if (level[node] == depth - 1)
+          reducible.add(node);
+      while (leaves > number && !reducible.isEmpty())
+      {
+        int node = reducible.poll();
+        leaves -= childCount[node] - 1;
+        Arrays.fill(children, 8 * node, 8 * node + 8, 0);
+        childCount[node] = 0;
+        int up = parent[node];
+        if (up >= 0 && allLeaves(up))
+          reducible.add(up);
+      }
+
+      int[] palette = new int[leaves];
+      int size = 0;
+      for (int node = 0; node < nodes; node++)
+      {
+        // a merged node's old children are left in the arrays but not linked
+        if (childCount[node] == 0 && isLinked(node))
+          palette[size++] = (int) (red[node] / weight[node]) << 16 |
+            (int) (green[node] / weight[node]) << 8 | (int) (blue[node] / weight[node]);
+      }
+      return Arrays.copyOf(palette, size);
+    }
+
+    /**
+     * Method to make a new node
+     * @param up the parent of the node (-1 for the root)
+     * @param nodeLevel the level of the node
+     * @return the new node
+     */
+    private int addNode(int up, int nodeLevel)
+    {
+      if (nodes == parent.length)
+      {
+        int capacity = 2 * nodes;
+        children = Arrays.copyOf(children, 8 * capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        level = Arrays.copyOf(level, capacity);
+        childCount = Arrays.copyOf(childCount, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        red = Arrays.copyOf(red, capacity);
+        green = Arrays.copyOf(green, capacity);
+        blue = Arrays.copyOf(blue, capacity);
+      }
+      int node = nodes++;
+      parent[node] = up;
+      level[node] = nodeLevel;
+      return node;
+    }
+
+    /**
+     * Method to add a color to the sums of a node
+     * @param node the node
+     * @param w the weight of the color
+     * @param r the red value
+     * @param g the green value
+     * @param b the blue value
+     */
+    private void add(int node, long w, int r, int g, int b)
+    {
+      weight[node] += w;
+      red[node] += w * r;
+      green[node] += w * g;
+      blue[node] += w * b;
+    }
+
+    /**
+     * Method to tell if all the children of a node are leaves
+     * @param node the node
+     * @return true if none of its children have children
+     */
+    private boolean allLeaves(int node)
+    {
+      for (int octant = 0; octant < 8; octant++)
+      {
+        int child = children[8 * node + octant];
+        if (child != 0 && childCount[child] != 0)
+          return false;
+      }
+      return true;
+    }
+
+    /**
+     * Method to tell if a node is still in the tree, which it is not if
+     * one of the nodes above it was merged
+     * @param node the node
+     * @return true if every node above it still has it as a child
+     */
+    private boolean isLinked(int node)
+    {
+      while (node != 0)
+      {
+        int up = parent[node];
+        if (childCount[up] == 0)
+          return false;
+        node = up;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Method to return a string with information about this quantizer
+   * @return a string with information about this quantizer
+   */
+  public String toString()
+  {
+    return "octree of depth " + depth;
+  }
+
+}
@@ -0,0 +1,516 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A class that keeps the palettes k-means found so the same picture at
+ * the same number of colors is not clustered again, as happens with
+ * thumbnails, re-exports and retries.  A palette is found by a key made
+ * from a hash of the pixel colors, the size of the picture, the number of
+ * colors and the seed strategy (by its toString, so two strategies that
+ * print the same must pick the same seeds).
+ *
+ * The palettes are kept in memory, the least recently used going first
+ * once they take more than a number of bytes.  They can also be kept in
+ * a directory, one small file each, so they last between runs; a palette
+ * found on disk is put back in memory.  The disk is only a cache, so a
+ * file that can not be read or written counts as a miss and nothing more.
+ *
+ * When a picture is not in the cache but a similar one is (the previous
+ * frame of a video, or a near copy), k-means can start from that
+ * palette with FixedSeeds and usually needs only a few iterations.  The
+ * palette it finds is kept under a key that also holds a hash of the
+ * palette it started from, so a lookup with the seed strategy alone
+ * never gets it.
+ *
+ * One cache can be used by several threads.  Files are read and written
+ * without holding the cache's lock, so threads that find their palettes
+ * in memory do not wait on the disk.
+ */
+public class PaletteCache
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the most bytes of palettes kept in memory if no limit is given */
+  public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+  /** the bytes counted for an entry besides its colors */
+  private static final int ENTRY_BYTES = 96;
+
+  /** the end of the palette file names */
+  private static final String SUFFIX = ".palette";
+
+  /** the palettes in memory, least recently used first */
+  private LinkedHashMap<String, int[]> entries = new LinkedHashMap<String, int[]>(16, 0.75f, true);
+
+  /** the most bytes of palettes kept in memory */
+  private long maxBytes;
+
+  /** the bytes of palettes kept in memory */
+  private long bytes;
+
+  /** the directory the palettes are also kept in (null for none) */
+  private File directory;
+
+  /** the number of threads k-means uses */
+  private int threads = 1;
+
+  /** the counts of what happened */
+  private long memoryHits, diskHits, misses, warmStarts, evictions, diskErrors;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that keeps up to DEFAULT_MAX_BYTES of palettes in memory
+   */
+  public PaletteCache()
+  {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * A constructor that takes the most bytes of palettes to keep in memory
+   * @param maxBytes the most bytes (0 keeps nothing in memory)
+   */
+  public PaletteCache(long maxBytes)
+  {
+    if (maxBytes < 0)
+      throw new IllegalArgumentException("maxBytes can not be negative: " + maxBytes);
+    this.maxBytes = maxBytes;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the directory the palettes are also kept in
+   * @return the directory (null if the palettes are only in memory)
+   */
+  public synchronized File getDirectory() { return directory; }
+
+  /**
+   * Method to keep the palettes in a directory too
+   * @param directory the directory, which is made if it is not there
+   * (null to keep them only in memory)
+   */
+  public synchronized void setDirectory(File directory)
+  {
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+      throw new IllegalArgumentException(directory + " could not be made");
+    this.directory = directory;
+  }
+
+  /**
+   * Method to get the number of threads k-means uses
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to set the number of threads k-means uses
+   * @param threads the number of threads (1 runs on the calling thread)
+   */
+  public void setThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Method to hash the colors of a picture.  The alpha bits are left out.
+   * @param pixels the packed pixels, row by row
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @return a 64 bit hash (FNV-1a over the pixels and the size)
+   */
+  public static long contentHash(int[] pixels, int width, int height)
+  {
+    long hash = 0xcbf29ce484222325L;
+    hash = (hash ^ width) * 0x100000001b3L;
+    hash = (hash ^ height) * 0x100000001b3L;
+    for (int i = 0; i < pixels.length; i++)
+      hash = (hash ^ (pixels[i] & KMeans.RGB_MASK)) * 0x100000001b3L;
+    return hash;
+  }
+
+  /**
+   * Method to make the key of a palette
+   * @param hash the content hash of the picture
+   * @param number the number of colors wanted
+   * @param seeding the seed strategy
+   * @return the key, which can also be used as a file name
+   */
+  public static String makeKey(long hash, int number, SeedStrategy seeding)
+  {
+    String strategy = String.valueOf(seeding).replaceAll("[^A-Za-z0-9+.,-]", "_");
+    return String.format(Locale.ROOT, "%016x-%d-%s", hash, number, strategy);
+  }
+
+  /**
+   * Method to make the key of a palette found by starting from the
+   * palette of a similar picture
+   * @param hash the content hash of the picture
+   * @param number the number of colors wanted
+   * @param seeding the seed strategy used for colors the similar palette is short of
+   * @param similar the palette k-means started from (null if it started from seeding)
+   * @return the key, which can also be used as a file name
+   */
+  public static String makeKey(long hash, int number, SeedStrategy seeding, int[] similar)
+  {
+    String key = makeKey(hash, number, seeding);
+    if (similar == null)
+      return key;
+    return key + String.format(Locale.ROOT, "-from-%016x", contentHash(similar, similar.length, 1));
+  }
+
+  /**
+   * Method to get a palette from the cache
+   * @param key the key of the palette
+   * @return a copy of the palette, or null if it is not in the cache
+   */
+  public int[] get(String key)
+  {
+    File from;
+    synchronized (this)
+    {
+      int[] palette = entries.get(key);
+      if (palette != null)
+      {
+        memoryHits++;
+        return palette.clone();
+      }
+      from = directory;
+    }
+    int[] palette = readFile(from, key);
+    synchronized (this)
+    {
+      if (palette == null)
+      {
+        misses++;
+        return null;
+      }
+      diskHits++;
+      keep(key, palette);
+      return palette.clone();
+    }
+  }
+
+  /**
+   * Method to look at a palette in the cache without counting it as a hit
+   * or a miss, for example to warm start from it
+   * @param key the key of the palette
+   * @return a copy of the palette, or null if it is not in the cache
+   */
+  public int[] peek(String key)
+  {
+    File from;
+    synchronized (this)
+    {
+      int[] palette = entries.get(key);
+      if (palette != null)
+        return palette.clone();
+      from = directory;
+    }
+    return readFile(from, key);
+  }
+
+  /**
+   * Method to put a palette in the cache
+   * @param key the key of the palette
+   * @param palette the packed palette colors (they are copied)
+   */
+  public void put(String key, int[] palette)
+  {
+    palette = palette.clone();
+    File to;
+    synchronized (this)
+    {
+      keep(key, palette);
+      to = directory;
+    }
+    writeFile(to, key, palette);
+  }
+
+  /**
+   * Method to get the palette of a picture from the cache, or run k-means
+   * and keep the palette it finds
+   * @param pixels the packed pixels, row by row
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @param number the number of colors wanted
+   * @param seeding the seed strategy
+   * @return the packed palette colors
+   */
+  public int[] computeColors(int[] pixels, int width, int height, int number, SeedStrategy seeding)
+  {
+    return computeColors(pixels, width, height, number, seeding, null);
+  }
+
+  /**
+   * Method to get the palette of a picture from the cache, or run k-means
+   * starting from the palette of a similar picture and keep the palette
+   * it finds under a key made from this picture and the similar palette
+   * @param pixels the packed pixels, row by row
+   * @param width the number of pixels in each row
+   * @param height the number of rows
+   * @param number the number of colors wanted
+   * @param seeding the seed strategy (also used for colors the similar
+   * palette is short of)
+   * @param similar the palette of a similar picture (null to start from seeding)
+   * @return the packed palette colors
+   */
+  public int[] computeColors(int[] pixels, int width, int height, int number, SeedStrategy seeding,
+                             int[] similar)
+  {
+    String key = makeKey(contentHash(pixels, width, height), number, seeding, similar);
+    int[] palette = get(key);
+    if (palette != null)
+      return palette;
+
+    // the cache is not locked while k-means runs, so two threads may both
+    // compute the same palette; they get the same answer
+    KMeans kMeans = new KMeans(pixels, width);
+    kMeans.setThreads(threads);
+    kMeans.setSeeding(similar == null ? seeding : new FixedSeeds(similar, seeding));
+    palette = kMeans.run(number).getPalette();
+    synchronized (this)
+    {
+      if (similar != null)
+        warmStarts++;
+    }
+    put(key, palette);
+    return palette;
+  }
+
+  /**
+   * Method to keep a palette in memory, dropping the least recently used
+   * ones while there are too many bytes
+   * @param key the key of the palette
+   * @param palette the palette, not used anywhere else
+   */
+  private void keep(String key, int[] palette)
+  {
+    int[] old = entries.put(key, palette);
+    if (old != null)
+      bytes -= entryBytes(key, old);
+    bytes += entryBytes(key, palette);
+    Iterator<Map.Entry<String, int[]>> eldest = entries.entrySet().iterator();
+    while (bytes > maxBytes && eldest.hasNext())
+    {
+      Map.Entry<String, int[]> entry = eldest.next();
+      bytes -= entryBytes(entry.getKey(), entry.getValue());
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Method to count the bytes of an entry
+   * @param key the key
+   * @param palette the palette
+   * @return about the number of bytes the entry takes in memory
+   */
+  private static long entryBytes(String key, int[] palette)
+  {
+    return ENTRY_BYTES + 2L * key.length() + 4L * palette.length;
+  }
+
+  /**
+   * Method to count a palette file that could not be read or written
+   */
+  private synchronized void diskError()
+  {
+    diskErrors++;
+  }
+
+  /**
+   * Method to read a palette from the directory
+   * @param directory the directory (null if there is none)
+   * @param key the key of the palette
+   * @return the palette, or null if there is no directory or no good file
+   */
+  private int[] readFile(File directory, String key)
+  {
+    if (directory == null)
+      return null;
+    File file = new File(directory, key + SUFFIX);
+    if (!file.isFile())
+      return null;
+    DataInputStream in = null;
+    try
+    {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      int size = in.readInt();
+      if (size < 0 || size > file.length() / 4)
+        throw new IOException(file + " is not a palette file");
+      int[] palette = new int[size];
+      for (int i = 0; i < size; i++)
+        palette[i] = in.readInt();
+      return palette;
+    }
+    catch (IOException ex)
+    {
+      diskError();
+      return null;
+    }
+    finally
+    {
+      close(in);
+    }
+  }
+
+  /**
+   * Method to write a palette to the directory.  It goes to a new file
+   * of its own that is then renamed, so a reader never sees half a
+   * palette, even while another thread writes the same one.
+   * @param directory the directory (null if there is none)
+   * @param key the key of the palette
+   * @param palette the palette
+   */
+  private void writeFile(File directory, String key, int[] palette)
+  {
+    if (directory == null)
+      return;
+    File file = new File(directory, key + SUFFIX);
+    File temporary = null;
+    DataOutputStream out = null;
+    try
+    {
+      temporary = File.createTempFile(key, SUFFIX + ".tmp", directory);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+      out.writeInt(palette.length);
+      for (int i = 0; i < palette.length; i++)
+        out.writeInt(palette[i]);
+      out.close();
+      out = null;
+      if (file.exists() && !file.delete() || !temporary.renameTo(file))
+        throw new IOException(file + " could not be replaced");
+    }
+    catch (IOException ex)
+    {
+      diskError();
+      if (temporary != null)
+        temporary.delete();
+    }
+    finally
+    {
+      close(out);
+    }
+  }
+
+  /**
+   * Method to close a stream, ignoring errors
+   * @param stream the stream (may be null)
+   */
+  private static void close(Closeable stream)
+  {
+    if (stream == null)
+      return;
+    try
+    {
+      stream.close();
+    }
+    catch (IOException ex)
+    {
+      // nothing more can be done and the cache does not need the file
+    }
+  }
+
+  /**
+   * Method to take every palette out of memory (the files are kept)
+   */
+  public synchronized void clear()
+  {
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Method to set all the counts back to zero
+   */
+  public synchronized void resetStats()
+  {
+    memoryHits = diskHits = misses = warmStarts = evictions = diskErrors = 0;
+  }
+
+  /**
+   * Method to get the number of palettes in memory
+   * @return the number of palettes
+   */
+  public synchronized int size() { return entries.size(); }
+
+  /**
+   * Method to get about how many bytes the palettes in memory take
+   * @return the number of bytes
+   */
+  public synchronized long getBytes() { return bytes; }
+
+  /**
+   * Method to get the number of lookups found in memory
+   * @return the number of memory hits
+   */
+  public synchronized long getMemoryHits() { return memoryHits; }
+
+  /**
+   * Method to get the number of lookups found in the directory
+   * @return the number of disk hits
+   */
+  public synchronized long getDiskHits() { return diskHits; }
+
+  /**
+   * Method to get the number of lookups not found
+   * @return the number of misses
+   */
+  public synchronized long getMisses() { return misses; }
+
+  /**
+   * Method to get the fraction of lookups that were found
+   * @return the hit rate from 0 to 1 (0 if there were no lookups)
+   */
+  public synchronized double getHitRate()
+  {
+    long lookups = memoryHits + diskHits + misses;
+    return lookups == 0 ? 0 : (double) (memoryHits + diskHits) / lookups;
+  }
+
+  /**
+   * Method to get the number of k-means runs started from a similar palette
+   * @return the number of warm starts
+   */
+  public synchronized long getWarmStarts() { return warmStarts; }
+
+  /**
+   * Method to get the number of palettes dropped from memory to make room
+   * @return the number of evictions
+   */
+  public synchronized long getEvictions() { return evictions; }
+
+  /**
+   * Method to get the number of palette files that could not be read or written
+   * @return the number of disk errors
+   */
+  public synchronized long getDiskErrors() { return diskErrors; }
+
+  /**
+   * Method to return a string with information about this cache
+   * @return a string with information about this cache
+   */
+  public synchronized String toString()
+  {
+    return "PaletteCache with " + entries.size() + " palettes (" + bytes + " of " + maxBytes +
+      " bytes): " + memoryHits + " memory hits, " + diskHits + " disk hits, " + misses +
+      " misses, " + warmStarts + " warm starts, " + evictions + " evictions";
+  }
+
+}
@@ -0,0 +1,21 @@
+/**
+ * Interface for the ways of finding the palette color closest to a
+ * color.  Every index gives the same answer as a linear search over the
+ * palette using the squared rgb distance: the closest color, and the
+ * first one in the palette if several are equally close.
+ */
+public interface PaletteIndex
+{
+  /**
+   * Method to get the palette this index searches
+   * @return the packed rgb palette colors (do not change them)
+   */
+  int[] getPalette();
+
+  /**
+   * Method to find the palette color closest to a color
+   * @param rgb the packed color (alpha bits ignored)
+   * @return the index of the closest palette color
+   */
+  int findClosestColor(int rgb);
+}
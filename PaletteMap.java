@@ -0,0 +1,221 @@
+import java.util.Arrays;
+
+/**
+ * A palette index that splits the rgb cube into cells (32 x 32 x 32 by
+ * default) and works out once, for each cell, which palette colors could
+ * be the closest to some color in it.  A palette color is kept for a cell
+ * if its distance to the nearest corner of the cell is no more than the
+ * smallest distance any palette color has to the far corner of the cell.
+ * Most cells end up with a single palette color, so finding the closest
+ * color is one table lookup, and the rest only check their few kept
+ * colors.  The kept colors are checked in palette order, so the answer
+ * is exactly that of a linear search.
+ *
+ * Building the table takes about (number of cells) x (palette size) steps,
+ * so it pays off when there are more pixels to map than cells.
+ */
+public class PaletteMap implements PaletteIndex
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the number of bits per color used if none is given */
+  public static final int DEFAULT_BITS = 5;
+
+  /** the packed rgb palette colors */
+  private int[] palette;
+
+  /** the number of bits of each color used to pick the cell */
+  private int bits;
+
+  /** where each cell's palette colors start in candidates (one extra at the end) */
+  private int[] cellStart;
+
+  /** the palette colors that could be closest for each cell, in palette order */
+  private int[] candidates;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette and uses DEFAULT_BITS bits per color
+   * @param palette the packed rgb palette colors (at least one)
+   */
+  public PaletteMap(int[] palette)
+  {
+    this(palette, DEFAULT_BITS);
+  }
+
+  /**
+   * A constructor that takes the palette and the cell size
+   * @param palette the packed rgb palette colors (at least one)
+   * @param bits the number of bits of each color used to pick the cell (1 to 7)
+   */
+  public PaletteMap(int[] palette, int bits)
+  {
+    if (palette.length == 0)
+      throw new IllegalArgumentException("the palette is empty");
+    if (bits < 1 || bits > 7)
+      throw new IllegalArgumentException("bits must be from 1 to 7, not " + bits);
+    this.palette = palette;
+    this.bits = bits;
+    build();
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to tell if building a map is worth it for a number of pixels
+   * @param pixels the number of pixels to map
+   * @return true if there are more pixels than cells in a default map
+   */
+  public static boolean isWorthBuilding(long pixels)
+  {
+    return pixels > (1L << (3 * DEFAULT_BITS));
+  }
+
+  /**
+   * Method to get the palette this index searches
+   * @return the packed rgb palette colors
+   */
+  public int[] getPalette() { return palette; }
+
+  /**
+   * Method to get the number of bits of each color used to pick the cell
+   * @return the number of bits
+   */
+  public int getBits() { return bits; }
+
+  /**
+   * Method to find the palette color closest to a color
+   * @param rgb the packed color
+   * @return the index of the closest palette color
+   */
+  public int findClosestColor(int rgb)
+  {
+    int drop = 8 - bits;
+    int cell = (((rgb >> 16) & 0xff) >> drop) << (2 * bits) |
+               (((rgb >> 8) & 0xff) >> drop) << bits |
+               ((rgb & 0xff) >> drop);
+    int start = cellStart[cell];
+    int end = cellStart[cell + 1];
+    if (end - start == 1)
+      return candidates[start];
+
+    int chosen = candidates[start];
+    int distance = KMeans.colorDistance(rgb, palette[chosen]);
+    for (int i = start + 1; i < end; i++)
+    {
+      int testDistance = KMeans.colorDistance(rgb, palette[candidates[i]]);
+      if (testDistance < distance)
+      {
+        distance = testDistance;
+        chosen = candidates[i];
+      }
+    }
+    return chosen;
+  }
+
+  /**
+   * Method to get the average number of palette colors kept per cell
+   * @return the average number of colors checked for a lookup
+   */
+  public double getAverageCandidates()
+  {
+    return (double) candidates.length / (cellStart.length - 1);
+  }
+
+  /**
+   * Method to work out the palette colors kept for every cell
+   */
+  private void build()
+  {
+    int cells = 1 << (3 * bits);
+    int side = 1 << (8 - bits);
+    int size = palette.length;
+    int[] red = new int[size];
+    int[] green = new int[size];
+    int[] blue = new int[size];
+    for (int k = 0; k < size; k++)
+    {
+      red[k] = (palette[k] >> 16) & 0xff;
+      green[k] = (palette[k] >> 8) & 0xff;
+      blue[k] = palette[k] & 0xff;
+    }
+
+    cellStart = new int[cells + 1];
+    int[] kept = new int[cells * 2];
+    int[] near = new int[size];
+    int count = 0;
+    for (int cell = 0; cell < cells; cell++)
+    {
+      int redLow = (cell >> (2 * bits)) * side;
+      int greenLow = ((cell >> bits) & ((1 << bits) - 1)) * side;
+      int blueLow = (cell & ((1 << bits) - 1)) * side;
+
+      // the smallest distance any palette color has to the far corner
+      int bound = Integer.MAX_VALUE;
+      for (int k = 0; k < size; k++)
+      {
+        near[k] = axisNear(red[k], redLow, side) + axisNear(green[k], greenLow, side) +
+          axisNear(blue[k], blueLow, side);
+        int far = axisFar(red[k], redLow, side) + axisFar(green[k], greenLow, side) +
+          axisFar(blue[k], blueLow, side);
+        if (far < bound)
+          bound = far;
+      }
+
+      cellStart[cell] = count;
+      for (int k = 0; k < size; k++)
+      {
+        if (near[k] <= bound)
+        {
+          if (count == kept.length)
+            kept = Arrays.copyOf(kept, kept.length * 2);
+          kept[count++] = k;
+        }
+      }
+    }
+    cellStart[cells] = count;
+    candidates = Arrays.copyOf(kept, count);
+  }
+
+  /**
+   * Method to get the squared distance from a value to the closest
+   * point of a range along one color
+   * @param value the color value
+   * @param low the lowest value in the range
+   * @param side the number of values in the range
+   * @return the squared distance (0 if the value is in the range)
+   */
+  private static int axisNear(int value, int low, int side)
+  {
+    int high = low + side - 1;
+    int d = value < low ? low - value : (value > high ? value - high : 0);
+    return d * d;
+  }
+
+  /**
+   * Method to get the squared distance from a value to the furthest
+   * point of a range along one color
+   * @param value the color value
+   * @param low the lowest value in the range
+   * @param side the number of values in the range
+   * @return the squared distance
+   */
+  private static int axisFar(int value, int low, int side)
+  {
+    int d = Math.max(Math.abs(value - low), Math.abs(value - (low + side - 1)));
+    return d * d;
+  }
+
+  /**
+   * Method to return a string with information about this map
+   * @return a string with information about this map
+   */
+  public String toString()
+  {
+    return "PaletteMap of " + palette.length + " colors in " + (cellStart.length - 1) +
+      " cells (" + getAverageCandidates() + " colors per cell)";
+  }
+
+}
@@ -0,0 +1,286 @@
+/**
+ * A palette index that keeps the palette in the binary tree of splits
+ * made by BisectingKMeans.  The palette colors under a node come one
+ * after the other in the palette.  Each node holds the box around its
+ * palette colors, and each split holds the direction from the average
+ * of its left colors to the average of its right ones, with how far
+ * along it the left colors end and the right ones start.  For a tree of
+ * 2-means splits the two sides barely overlap along that direction, so
+ * it bounds the distance to the far side much better than its box does.
+ *
+ * A search goes down the near child first, and skips a child when no
+ * color under it could be closer, or as close and earlier in the
+ * palette, than the best found so far.  So it gives exactly the answer of
+ * a linear search while looking at only a few of the palette colors.
+ * The tree does not change after it is built, so several threads can
+ * search it at once.
+ */
+public class PaletteTree implements PaletteIndex
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the palette size from which a search of the tree beats a linear search */
+  public static final int MIN_COLORS = 128;
+
+  /** the number of bits a palette index takes in a search state */
+  private static final int INDEX_BITS = 24;
+
+  /** how much a distance along a split direction can be off from rounding */
+  private static final double SLACK = 1e-6;
+
+  /** the packed rgb palette colors, in the order of the tree's leaves */
+  private int[] palette;
+
+  /** the left child of each node (-1 for a leaf) */
+  private int[] left;
+
+  /** the right child of each node, or the palette index of a leaf */
+  private int[] right;
+
+  /** the first palette index under each node and one past the last */
+  private int[] first, last;
+
+  /** the box around the palette colors under each node */
+  private int[] minRed, maxRed, minGreen, maxGreen, minBlue, maxBlue;
+
+  /**
+   * for each split the unit direction (red, green, blue), the furthest
+   * left color and the nearest right color along it, 5 values a node
+   */
+  private double[] splits;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette and the shape of the tree.  Node
+   * 0 is the root, and the leaves from left to right must hold the
+   * palette colors in order.
+   * @param palette the packed rgb palette colors (at least one, at most 2^24)
+   * @param left the left child of each node (-1 for a leaf)
+   * @param right the right child of each node, or the palette index of a leaf
+   */
+  public PaletteTree(int[] palette, int[] left, int[] right)
+  {
+    if (palette.length == 0 || palette.length > 1 << INDEX_BITS)
+      throw new IllegalArgumentException("the palette must have from 1 to " + (1 << INDEX_BITS) +
+                                         " colors, not " + palette.length);
+    if (left.length != right.length)
+      throw new IllegalArgumentException("there are " + left.length + " left children but " +
+                                         right.length + " right ones");
+    this.palette = palette;
+    this.left = left;
+    this.right = right;
+    int nodes = left.length;
+    first = new int[nodes];
+    last = new int[nodes];
+    minRed = new int[nodes];
+    maxRed = new int[nodes];
+    minGreen = new int[nodes];
+    maxGreen = new int[nodes];
+    minBlue = new int[nodes];
+    maxBlue = new int[nodes];
+    splits = new double[5 * nodes];
+    if (build(0, 0) != palette.length)
+      throw new IllegalArgumentException("the tree has a different number of leaves than the " +
+                                         palette.length + " palette colors");
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the palette this index searches
+   * @return the packed rgb palette colors
+   */
+  public int[] getPalette() { return palette; }
+
+  /**
+   * Method to get the number of nodes in the tree
+   * @return the number of nodes (twice the palette size less one for a full tree)
+   */
+  public int getNodes() { return left.length; }
+
+  /**
+   * Method to find the palette color closest to a color
+   * @param rgb the packed color (alpha bits ignored)
+   * @return the index of the closest palette color (the first one on a tie)
+   */
+  public int findClosestColor(int rgb)
+  {
+    long best = search(0, (rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff, Long.MAX_VALUE);
+    return (int) (best & ((1 << INDEX_BITS) - 1));
+  }
+
+  /**
+   * Method to search under a node.  The search state is the best squared
+   * distance so far shifted above the palette index with that distance,
+   * so a smaller state is a closer color or an equal one earlier in the
+   * palette.
+   * @param node the node
+   * @param r the red of the color searched for
+   * @param g the green of the color searched for
+   * @param b the blue of the color searched for
+   * @param best the search state so far
+   * @return the search state after looking under the node
+   */
+  private long search(int node, int r, int g, int b, long best)
+  {
+    if (left[node] < 0)
+    {
+      long found = (long) boxDistance(node, r, g, b) << INDEX_BITS | first[node];
+      return Math.min(found, best);
+    }
+
+    // the colors under a child are at least as far as its box, and as
+    // far as the gap to its side along the split direction
+    int i = 5 * node;
+    double along = splits[i] * r + splits[i + 1] * g + splits[i + 2] * b;
+    int near = left[node];
+    int far = right[node];
+    int nearBound = Math.max(boxDistance(near, r, g, b), gapDistance(along - splits[i + 3]));
+    int farBound = Math.max(boxDistance(far, r, g, b), gapDistance(splits[i + 4] - along));
+    if (farBound < nearBound)
+    {
+      near = right[node];
+      far = left[node];
+      int swap = nearBound;
+      nearBound = farBound;
+      farBound = swap;
+    }
+
+    // no color under a child can do better than its bound
+    if (((long) nearBound << INDEX_BITS | first[near]) < best)
+      best = search(near, r, g, b, best);
+    if (((long) farBound << INDEX_BITS | first[far]) < best)
+      best = search(far, r, g, b, best);
+    return best;
+  }
+
+  /**
+   * Method to turn a gap along a split direction into a squared distance
+   * that is no more than the real one
+   * @param gap the gap (0 or less if there is none)
+   * @return the squared distance, rounded down
+   */
+  private static int gapDistance(double gap)
+  {
+    gap -= SLACK;
+    return gap > 0 ? (int) (gap * gap) : 0;
+  }
+
+  /**
+   * Method to get the squared distance from a color to the box of a node
+   * @param node the node
+   * @param r the red of the color
+   * @param g the green of the color
+   * @param b the blue of the color
+   * @return the squared distance (0 if the color is in the box)
+   */
+  private int boxDistance(int node, int r, int g, int b)
+  {
+    int dr = r < minRed[node] ? minRed[node] - r : (r > maxRed[node] ? r - maxRed[node] : 0);
+    int dg = g < minGreen[node] ? minGreen[node] - g : (g > maxGreen[node] ? g - maxGreen[node] : 0);
+    int db = b < minBlue[node] ? minBlue[node] - b : (b > maxBlue[node] ? b - maxBlue[node] : 0);
+    return dr * dr + dg * dg + db * db;
+  }
+
+  /**
+   * Method to work out the palette range, box and split direction of a node
+   * @param node the node
+   * @param next the palette index the node's first leaf should have
+   * @return the palette index after the node's last leaf
+   */
+  private int build(int node, int next)
+  {
+    first[node] = next;
+    if (left[node] < 0)
+    {
+      if (right[node] != next)
+        throw new IllegalArgumentException("leaf " + node + " holds palette color " + right[node] +
+                                           " where color " + next + " was expected");
+      int rgb = palette[next];
+      minRed[node] = maxRed[node] = (rgb >> 16) & 0xff;
+      minGreen[node] = maxGreen[node] = (rgb >> 8) & 0xff;
+      minBlue[node] = maxBlue[node] = rgb & 0xff;
+      last[node] = next + 1;
+      return next + 1;
+    }
+    int l = left[node];
+    int r = right[node];
+    next = build(r, build(l, next));
+    last[node] = next;
+    minRed[node] = Math.min(minRed[l], minRed[r]);
+    maxRed[node] = Math.max(maxRed[l], maxRed[r]);
+    minGreen[node] = Math.min(minGreen[l], minGreen[r]);
+    maxGreen[node] = Math.max(maxGreen[l], maxGreen[r]);
+    minBlue[node] = Math.min(minBlue[l], minBlue[r]);
+    maxBlue[node] = Math.max(maxBlue[l], maxBlue[r]);
+
+    // the direction from the average left color to the average right one
+    double[] leftMean = mean(first[l], last[l]);
+    double[] rightMean = mean(first[r], last[r]);
+    double[] direction = new double[3];
+    double length = 0;
+    for (int c = 0; c < 3; c++)
+    {
+      direction[c] = rightMean[c] - leftMean[c];
+      length += direction[c] * direction[c];
+    }
+    length = Math.sqrt(length);
+    int i = 5 * node;
+    if (length == 0)
+    {
+      // no direction, so the gaps are always empty
+      splits[i + 3] = Double.POSITIVE_INFINITY;
+      splits[i + 4] = Double.NEGATIVE_INFINITY;
+      return next;
+    }
+    for (int c = 0; c < 3; c++)
+      splits[i + c] = direction[c] / length;
+    double leftEnd = Double.NEGATIVE_INFINITY;
+    double rightStart = Double.POSITIVE_INFINITY;
+    for (int k = first[l]; k < last[r]; k++)
+    {
+      int rgb = palette[k];
+      double along = splits[i] * ((rgb >> 16) & 0xff) + splits[i + 1] * ((rgb >> 8) & 0xff) +
+        splits[i + 2] * (rgb & 0xff);
+      if (k < last[l])
+        leftEnd = Math.max(leftEnd, along);
+      else
+        rightStart = Math.min(rightStart, along);
+    }
+    splits[i + 3] = leftEnd;
+    splits[i + 4] = rightStart;
+    return next;
+  }
+
+  /**
+   * Method to get the average of a range of palette colors
+   * @param from the first palette index
+   * @param to one past the last palette index
+   * @return the average red, green and blue
+   */
+  private double[] mean(int from, int to)
+  {
+    double[] sums = new double[3];
+    for (int k = from; k < to; k++)
+    {
+      sums[0] += (palette[k] >> 16) & 0xff;
+      sums[1] += (palette[k] >> 8) & 0xff;
+      sums[2] += palette[k] & 0xff;
+    }
+    for (int c = 0; c < 3; c++)
+      sums[c] /= to - from;
+    return sums;
+  }
+
+  /**
+   * Method to return a string with information about this index
+   * @return a string with information about this index
+   */
+  public String toString()
+  {
+    return "PaletteTree of " + palette.length + " colors in " + left.length + " nodes";
+  }
+
+}
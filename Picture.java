@@ -130,15 +130,13 @@ public class Picture extends SimplePicture {
    * Method to negate a picture
    */
   public void negate() {
-    Pixel [] pixelArray = this.getPixels();
-    int red,green,blue;
+    int[] pixels = this.getBasicPixels();
     
-    for (Pixel pixelObj : pixelArray) {
-      red = pixelObj.getRed();
-      green = pixelObj.getGreen();
-      blue = pixelObj.getBlue();
-      pixelObj.setColor(new Color(255-red, 255-green, 255-blue));
+    // flip the red, green, and blue bits and keep the alpha
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = pixels[i] ^ RGB_MASK;
     }
+    this.setBasicPixels(pixels);
   }
   
   /**
@@ -358,56 +356,65 @@ public class Picture extends SimplePicture {
    */
   public void grayscaleWithLuminance()
   {
-    Pixel[] pixelArray = this.getPixels();
-    Pixel pixel = null;
+    int[] pixels = this.getBasicPixels();
+    int value = 0;
     int luminance = 0;
     double redValue = 0;
     double greenValue = 0;
     double blueValue = 0;
 
     // loop through all the pixels
-    for (int i = 0; i < pixelArray.length; i++)
+    for (int i = 0; i < pixels.length; i++)
     {
-      // get the current pixel
-      pixel = pixelArray[i];
+      // get the current pixel value
+      value = pixels[i];
 
       // get the corrected red, green, and blue values
-      redValue = pixel.getRed() * 0.299;
-      greenValue = pixel.getGreen() * 0.587;
-      blueValue = pixel.getBlue() * 0.114;
+      redValue = Pixel.getRed(value) * 0.299;
+      greenValue = Pixel.getGreen(value) * 0.587;
+      blueValue = Pixel.getBlue(value) * 0.114;
 
       // compute the intensity of the pixel (average value)
       luminance = (int) (redValue + greenValue + blueValue);
 
       // set the pixel color to the new color
-      pixel.setColor(new Color(luminance,luminance,luminance));
+      pixels[i] = (value & ALPHA_MASK) |
+        (luminance << 16) | (luminance << 8) | luminance;
 
     }
+    this.setBasicPixels(pixels);
   }
   
   /** 
-   * Method to do an oil paint effect on a picture
+   * Method to do an oil paint effect on a picture: each pixel gets the
+   * most common color in the square around it (see ModeFilter)
    * @param dist the distance from the current pixel 
    * to use in the range
    * @return the new picture
    */
   public Picture oilPaint(int dist) {
+    return oilPaint(dist, ModeFilter.Mode.EXACT, 1);
+  }
+  
+  /** 
+   * Method to do an oil paint effect on a picture, splitting the rows
+   * across threads
+   * @param dist the distance from the current pixel 
+   * to use in the range
+   * @param mode EXACT for the same picture as oilPaint(dist), QUANTIZED
+   * to count near colors together
+   * @param threads the number of threads used
+   * @return the new picture
+   */
+  public Picture oilPaint(int dist, ModeFilter.Mode mode, int threads) {
     
     // create the picture to return
     Picture retPict = new Picture(this.getWidth(),this.getHeight());
     
-    // declare pixels
-    Pixel currPixel = null;
-    Pixel retPixel = null;
-    
-    // loop through the pixels
-    for (int x = 0; x < this.getWidth(); x++) {
-      for (int y = 0; y < this.getHeight(); y++) {
-        currPixel = this.getPixel(x,y);
-        retPixel = retPict.getPixel(x,y);
-        retPixel.setColor(currPixel.getMostCommonColorInRange(dist));
-      }
-    }
+    ModeFilter filter = new ModeFilter(dist);
+    filter.setMode(mode);
+    filter.setThreads(threads);
+    retPict.setBasicPixels(filter.filter(this.getBasicPixels(), this.getWidth(), this.getHeight()));
     return retPict;
   }
   
@@ -423,30 +430,46 @@ public class Picture extends SimplePicture {
   * The same is done for green and blue
   */
  public void reduceTo8() {
-   Pixel [] pixelArray = this.getPixels();  // Array of all pixels in the image
+   int[] pixels = this.getBasicPixels();  // Array of all pixel values in the image
    final int THRESHOLD = 126;     // Dividing line between low and high color values
    
-   for(int colorNum = 1; colorNum <= 3; colorNum++) {
-     ArrayList<Pixel> lowValues = new ArrayList<Pixel>();
-     ArrayList<Pixel> highValues = new ArrayList<Pixel>();
-     
-     for(Pixel pixel : pixelArray) {
-       // Split the pixels into low and high color values for color colorNum
-       if(getColor(pixel, colorNum) <= THRESHOLD)
-         lowValues.add(pixel);
-       else
-         highValues.add(pixel);
-     } 
-       
-     int lowAve = Math.round(averageColors(lowValues, colorNum));
-     int highAve = Math.round(averageColors(highValues, colorNum));
-       
-     // Reset the color values to the average values
-     for (Pixel lowPix : lowValues)
-       setColor(lowPix, lowAve, colorNum);
-     for (Pixel highPix : highValues)
-       setColor(highPix, highAve, colorNum);                                 
-   }
+   // One counting pass and one writing pass over the packed pixels (see ChannelQuantizer)
+   new ChannelQuantizer(new int[] {THRESHOLD}).quantize(pixels, getWidth());
+   this.setBasicPixels(pixels);
+ }
+ 
+ /**
+  * Reduces the number of colors the way reduceTo8 does, but with 2^bits values for each of red, green and blue
+  * and thresholds between them that fit this picture instead of a fixed THRESHOLD.
+  * @param bits the number of bits kept for each color, from 1 to 8 (1 gives up to 8 colors, 2 up to 64)
+  */
+ public void reduceChannels(int bits) {
+   reduceChannels(bits, 1);
+ }
+ 
+ /**
+  * Reduces the number of colors with 2^bits values for each of red, green and blue, splitting the work
+  * across threads.  The picture does not depend on the number of threads.
+  * @param bits the number of bits kept for each color, from 1 to 8
+  * @param threads the number of threads used
+  */
+ public void reduceChannels(int bits, int threads) {
+   int[] pixels = this.getBasicPixels();
+   ChannelQuantizer quantizer = new ChannelQuantizer(bits);
+   quantizer.setThreads(threads);
+   quantizer.quantize(pixels, getWidth());
+   this.setBasicPixels(pixels);
+ }
+ 
+ /**
+  * Gets the value of the color corresponding to colorNum from a pixel value.
+  * Precondition - colorNum is 1, 2, or 3.
+  * 
+  * @param value the pixel value (alpha, red, green, blue)
+  * @param colorNum the color to choose: 1 = red, 2 = green, 3 = blue
+  */
+ public static int getColor(int value, int colorNum) {
+   return (value >> (8 * (3 - colorNum))) & 0xff;
  }
  
  /**
@@ -514,80 +537,156 @@ public class Picture extends SimplePicture {
   */
  
  /**
-  * Method that transforms an image by replacing each pixel color by a weighted sum of its color and the colors of its eight adjacent pixels. 
+  * Method that transforms an image by replacing each pixel color by a weighted sum of its color and the colors of its neighbours.
+  * The kernel can be any odd size; 3x3 kernels give the same pictures as before (see Convolver).
   * @param matrix: matrix of weights for the new color
   * @param title: the title of the new picture
   * @return the picture with its colors replaced
   */
  public Picture convolve(double [][] matrix, String title){
-	  Picture convolution = new Picture(this);
-	  for(int i = 1; i < convolution.getHeight() - 1; i++){
-		  for(int j = 1; j < convolution.getWidth() - 1; j++){
-			  
-			  double topLeftRed = ( (super.getPixel(j-1,i-1).getRed()) * (matrix[0][0]) );
-			  double topLeftGreen = ( (super.getPixel(j-1,i-1).getGreen()) * (matrix[0][0]) );
-			  double topLeftBlue = ( (super.getPixel(j-1,i-1).getBlue()) * (matrix[0][0]) );
-			  
-			  double topMiddleRed = ( (super.getPixel(j,i-1).getRed()) * (matrix[0][1]) );
-			  double topMiddleGreen = ( (super.getPixel(j,i-1).getGreen()) * (matrix[0][1]) );
-			  double topMiddleBlue = ( (super.getPixel(j,i-1).getBlue()) * (matrix[0][1]) );
-			  
-			  double topRightRed = ( (super.getPixel(j+1,i-1).getRed()) * (matrix[0][2]) );
-			  double topRightGreen = ( (super.getPixel(j+1,i-1).getGreen()) * (matrix[0][2]) );
-			  double topRightBlue = ( (super.getPixel(j+1,i-1).getBlue()) * (matrix[0][2]) );
-			  
-			  double leftRed = ( (super.getPixel(j-1,i).getRed()) * (matrix[1][0]) );
-			  double leftGreen = ( (super.getPixel(j-1,i).getGreen()) * (matrix[1][0]) );
-			  double leftBlue = ( (super.getPixel(j-1,i).getBlue()) * (matrix[1][0]) );
-			  
-			  double middleRed = ( (super.getPixel(j,i).getRed()) * (matrix[1][1]) );
-			  double middleGreen = ( (super.getPixel(j,i).getGreen()) * (matrix[1][1]) );
-			  double middleBlue = ( (super.getPixel(j,i).getBlue()) * (matrix[1][1]) );
-			  
-			  double rightRed = ( (super.getPixel(j+1,i).getRed()) * (matrix[1][2]) );
-			  double rightGreen = ( (super.getPixel(j+1,i).getGreen()) * (matrix[1][2]) );
-			  double rightBlue = ( (super.getPixel(j+1,i).getBlue()) * (matrix[1][2]) );
-			  
-			  double bottomLeftRed = ( (super.getPixel(j-1,i+1).getRed()) * (matrix[2][0]) );
-			  double bottomLeftGreen = ( (super.getPixel(j-1,i+1).getGreen()) * (matrix[2][0]) );
-			  double bottomLeftBlue = ( (super.getPixel(j-1,i+1).getBlue()) * (matrix[2][0]) );
-			  
-			  double bottomMiddleRed = ( (super.getPixel(j,i+1).getRed()) * (matrix[2][1]) );
-			  double bottomMiddleGreen = ( (super.getPixel(j,i+1).getGreen()) * (matrix[2][1]) );
-			  double bottomMiddleBlue = ( (super.getPixel(j,i+1).getBlue()) * (matrix[2][1]) );
-			  
-			  double bottomRightRed = ( (super.getPixel(j+1,i+1).getRed()) * (matrix[2][2]) );
-			  double bottomRightGreen = ( (super.getPixel(j+1,i+1).getGreen()) * (matrix[2][2]) );
-			  double bottomRightBlue = ( (super.getPixel(j+1,i+1).getBlue()) * (matrix[2][2]) );
-			  
-			  int newRed = (int) (topLeftRed + topMiddleRed + topRightRed + leftRed + middleRed + rightRed + bottomLeftRed + bottomMiddleRed + bottomRightRed);
-			  int newGreen = (int) (topLeftGreen + topMiddleGreen + topRightGreen + leftGreen + middleGreen + rightGreen + bottomLeftGreen + bottomMiddleGreen + bottomRightGreen);
-			  int newBlue = (int) (topLeftBlue + topMiddleBlue + topRightBlue + leftBlue + middleBlue + rightBlue + bottomLeftBlue + bottomMiddleBlue + bottomRightBlue);
-			  
-			  convolution.getPixel(j, i).setRed(Pixel.correctValue(newRed));
-			  convolution.getPixel(j, i).setGreen(Pixel.correctValue(newGreen));
-			  convolution.getPixel(j, i).setBlue(Pixel.correctValue(newBlue));
-		  }
-	  }
-	  convolution.setTitle(title);
-	  return convolution;
+	 return convolve(matrix, title, 1);
+ }
+ 
+ /**
+  * Method that transforms an image by replacing each pixel color by a weighted sum of its color and the colors of its neighbours,
+  * splitting the rows across threads. Big box and separable kernels are done the fast way.
+  * @param matrix: matrix of weights for the new color, a square with an odd number of rows
+  * @param title: the title of the new picture
+  * @param threads: the number of threads used
+  * @return the picture with its colors replaced
+  */
+ public Picture convolve(double [][] matrix, String title, int threads){
+	 Convolver convolver = new Convolver(matrix);
+	 convolver.setThreads(threads);
+	 Picture convolution = new Picture(this);
+	 convolution.setBasicPixels(convolver.convolve(getBasicPixels(), getWidth(), getHeight()));
+	 convolution.setTitle(title);
+	 return convolution;
  }
  
  /**
   * Method to modify an image to use only colors from a given list.
+  * For big pictures the closest colors are found with a PaletteMap built once for the list.
   * @param colors: the list of colors used to replace the image's original colors
   * @return the picture with its colors replaced.
   */
  public Picture mapToColorList(ArrayList<Color> colors){
+	 return mapToColorList(makePaletteIndex(colors));
+ }
+ 
+ /**
+  * Method to modify an image to use only colors from a given list, dithering so that gradients are not banded.
+  * @param colors: the list of colors used to replace the image's original colors
+  * @param dithering: ORDERED, FLOYD_STEINBERG or NONE (see Ditherer)
+  * @return the picture with its colors replaced.
+  */
+ public Picture mapToColorList(ArrayList<Color> colors, Ditherer.Method dithering){
+	 return mapToColorList(makePaletteIndex(colors), dithering, 1);
+ }
+ 
+ /**
+  * Method to modify an image to use only colors from a palette with dithering, splitting the work across threads.
+  * @param index: the palette and the way to search it
+  * @param dithering: ORDERED, FLOYD_STEINBERG or NONE (see Ditherer)
+  * @param threads: the number of threads used
+  * @return the picture with its colors replaced.
+  */
+ public Picture mapToColorList(PaletteIndex index, Ditherer.Method dithering, int threads){
+	 Ditherer ditherer = new Ditherer(index);
+	 ditherer.setMethod(dithering);
+	 ditherer.setThreads(threads);
+	 Picture colorMappedPicture = new Picture(this);
+	 colorMappedPicture.setBasicPixels(ditherer.map(getBasicPixels(), getWidth(), getHeight()));
+	 return colorMappedPicture;
+ }
+ 
+ /**
+  * Method to modify an image to use only colors from a given list, picking for each pixel the color that looks closest.
+  * The distances are measured in a perceptual color space instead of in rgb (see LabSpace).
+  * @param colors: the list of colors used to replace the image's original colors
+  * @param space: OKLAB or CIELAB
+  * @return the picture with its colors replaced.
+  */
+ public Picture mapToColorList(ArrayList<Color> colors, LabSpace space){
+	 return mapToColorList(colors, space, 1);
+ }
+ 
+ /**
+  * Method to modify an image to use only colors from a given list, picking for each pixel the color that looks closest
+  * in a perceptual color space. Each distinct color of the picture is converted and searched for once, split across
+  * threads, and the pixels are then written through a map from each distinct color to its closest one.
+  * @param colors: the list of colors used to replace the image's original colors
+  * @param space: OKLAB or CIELAB
+  * @param threads: the number of threads searching the list (the picture does not depend on it)
+  * @return the picture with its colors replaced.
+  */
+ public Picture mapToColorList(ArrayList<Color> colors, LabSpace space, int threads){
+	 LabPaletteIndex index = new LabPaletteIndex(toPackedColors(colors), space);
+	 int[] palette = index.getPalette();
+	 int[] distinct = getColorHistogram(ColorHistogram.Mode.HASH).getColors();
+	 int[] chosen = index.findClosestColors(distinct, threads);
+	 IntIntMap closest = new IntIntMap(distinct.length);
+	 for(int k = 0; k < distinct.length; k++){
+		 closest.add(distinct[k], palette[chosen[k]]);
+	 }
+	 Picture colorMappedPicture = new Picture(this);
+	 int[] pixels = colorMappedPicture.getBasicPixels();
+	 for(int i = 0; i < pixels.length; i++){
+		 pixels[i] = (pixels[i] & ALPHA_MASK) | closest.get(pixels[i] & RGB_MASK);
+	 }
+	 colorMappedPicture.setBasicPixels(pixels);
+	 return colorMappedPicture;
+ }
+ 
+ /**
+  * Method to map an image to a list of colors as an indexed image, which keeps a palette index of a byte or less
+  * for each pixel instead of an int. IndexedImage.write saves it as an 8-bit PNG or a GIF.
+  * @param colors: the list of at most 256 colors
+  * @return the indexed image
+  */
+ public BufferedImage mapToIndexedImage(ArrayList<Color> colors){
+	 return IndexedImage.map(getBasicPixels(), getWidth(), getHeight(), makePaletteIndex(colors), 1);
+ }
+ 
+ /**
+  * Method to pick the way to search a list of colors for this picture.
+  * For big pictures the closest colors are found with a PaletteMap built once for the list,
+  * and for small ones with a ClosestColorKernel, which compares several colors at once where it can.
+  * @param colors: the list of colors
+  * @return the palette index
+  */
+ private PaletteIndex makePaletteIndex(ArrayList<Color> colors){
+	 int[] palette = toPackedColors(colors);
+	 if(PaletteMap.isWorthBuilding((long) getWidth() * getHeight())){
+		 return new PaletteMap(palette);
+	 }
+	 return ClosestColorKernel.create(palette, palette.length);
+ }
+ 
+ /**
+  * Method to modify an image to use only colors from a palette, using a given way to find the closest colors.
+  * @param index: the palette and the way to search it
+  * @return the picture with its colors replaced.
+  */
+ public Picture mapToColorList(PaletteIndex index){
 	  Picture colorMappedPicture = new Picture(this);
-	  for(int i = 0; i < colorMappedPicture.getHeight(); i++){
-		  for(int j = 0; j < colorMappedPicture.getWidth(); j++){
-			  
-			  Pixel currentPixel = colorMappedPicture.getPixel(j,i);
-			  int chosen = findClosestColor(currentPixel, colors);
-			  currentPixel.setColor(colors.get(chosen));
+	  int[] palette = index.getPalette();
+	  int[] pixels = colorMappedPicture.getBasicPixels();
+	  if(index instanceof ClosestColorKernel){
+		  // the kernel finds the closest colors of all the pixels in one pass
+		  int[] chosen = new int[pixels.length];
+		  ((ClosestColorKernel) index).findClosestColors(pixels, 0, pixels.length, chosen, 0);
+		  for(int i = 0; i < pixels.length; i++){
+			  pixels[i] = (pixels[i] & ALPHA_MASK) | palette[chosen[i]];
+		  }
+	  }
+	  else{
+		  for(int i = 0; i < pixels.length; i++){
+			  int chosen = index.findClosestColor(pixels[i]);
+			  pixels[i] = (pixels[i] & ALPHA_MASK) | palette[chosen];
 		  }
 	  }
+	  colorMappedPicture.setBasicPixels(pixels);
 	  return colorMappedPicture;
  }
  
@@ -720,42 +819,183 @@ public class Picture extends SimplePicture {
  
  /**
   * Method that returns a list of that k colors computed using k-means.
+  * The clustering is done by KMeans over the packed pixel colors so no objects are created per pixel.
   * @param number: the desired number of color clusters
   * @return: list with (ideally) k colors that best represent a wider range of colors
   */
  public ArrayList<Color> computeColors(int number){
+	 return computeColors(number, 1);
+ }
+ 
+ /**
+  * Method that returns a list of that k colors computed using k-means, splitting the work across threads.
+  * The palette does not depend on the number of threads.
+  * @param number: the desired number of color clusters
+  * @param threads: the number of threads used to assign pixels to clusters
+  * @return: list with (ideally) k colors that best represent a wider range of colors
+  */
+ public ArrayList<Color> computeColors(int number, int threads){
 	 ArrayList<Color> finalColors = generateRandomColorList(number);
 	 //ArrayList<Color> finalColors = firstPixelColors(number);
 	 
-	 boolean finalListFound = false;
-	 while(!finalListFound){
-		 ArrayList<ArrayList<Color>> clusters = new ArrayList<ArrayList<Color>>();
-		 for(int i = 0; i < number; i++){
-			  clusters.add(new ArrayList<Color>());
-		 }
-		 
-		 assignClusters(finalColors, clusters);
-		 
-		 ArrayList<Color> newColors = new ArrayList<Color>();
-		 for(int i = 0; i < number; i++){
-			 ArrayList<Color> currentCluster = clusters.get(i);
-			 if(currentCluster.size() > 0){
-				 newColors.add(computeCentroid(currentCluster));
-			 }
-		 }
-		 if(newColors.equals(finalColors)){
-			 finalListFound = true;
-		 }
-		 else{
-			 finalColors = new ArrayList<Color>();
-			 for(Color c : newColors){
-				 if(c != null){
-					 finalColors.add(c);
-				 }
-			 }
-		 }
+	 KMeans kMeans = new KMeans(getBasicPixels(), getWidth());
+	 kMeans.setThreads(threads);
+	 return toColorList(kMeans.computeColors(toPackedColors(finalColors)));
+ }
+ 
+ /**
+  * Method that returns a list of k colors computed using k-means, starting from colors picked by a seed strategy.
+  * @param number: the desired number of color clusters
+  * @param seeding: the way the starting colors are picked (for example a KMeansPlusPlusSeeds)
+  * @return: list with (ideally) k colors that best represent a wider range of colors
+  */
+ public ArrayList<Color> computeColors(int number, SeedStrategy seeding){
+	 return toColorList(clusterColors(number, seeding, 1).getPalette());
+ }
+ 
+ /**
+  * Method that returns a list of k colors computed using k-means, or found in a cache of palettes from before.
+  * A picture with the same colors, size, number and seeding gets its palette from the cache without clustering.
+  * @param number: the desired number of color clusters
+  * @param seeding: the way the starting colors are picked
+  * @param cache: the palettes found before (see PaletteCache)
+  * @return: list with (ideally) k colors that best represent a wider range of colors
+  */
+ public ArrayList<Color> computeColors(int number, SeedStrategy seeding, PaletteCache cache){
+	 return toColorList(cache.computeColors(getBasicPixels(), getWidth(), getHeight(), number, seeding));
+ }
+ 
+ /**
+  * Method that runs k-means on the colors of this picture and reports how it went.
+  * Comparing getIterations() of the results shows which seed strategy converges fastest on a kind of image.
+  * @param number: the desired number of color clusters
+  * @param seeding: the way the starting colors are picked
+  * @param threads: the number of threads used to assign pixels to clusters
+  * @return: the palette and the number of iterations it took
+  */
+ public KMeansResult clusterColors(int number, SeedStrategy seeding, int threads){
+	 KMeans kMeans = new KMeans(getBasicPixels(), getWidth());
+	 kMeans.setThreads(threads);
+	 kMeans.setSeeding(seeding);
+	 return kMeans.run(number);
+ }
+ 
+ /**
+  * Method that returns a list of k colors computed using k-means over a histogram of the picture's colors.
+  * Each iteration looks at each distinct color once instead of at every pixel.
+  * @param number: the desired number of color clusters
+  * @param seeding: the way the starting colors are picked
+  * @param mode: the way the colors are counted (HASH and DIRECT are exact, QUANTIZED is approximate)
+  * @return: list with (ideally) k colors that best represent a wider range of colors
+  */
+ public ArrayList<Color> computeColors(int number, SeedStrategy seeding, ColorHistogram.Mode mode){
+	 KMeans kMeans = new KMeans(getColorHistogram(mode));
+	 kMeans.setSeeding(seeding);
+	 return toColorList(kMeans.run(number).getPalette());
+ }
+ 
+ /**
+  * Method that returns a list of k colors computed using k-means in a perceptual color space.
+  * The errors are spread more evenly over what people see than with rgb k-means, so fewer colors give the same look.
+  * Each iteration looks at each distinct color once.
+  * @param number: the desired number of color clusters
+  * @param seeding: the way the starting colors are picked
+  * @param space: OKLAB or CIELAB (see LabSpace)
+  * @return: list with (ideally) k colors that best represent a wider range of colors
+  */
+ public ArrayList<Color> computeColors(int number, SeedStrategy seeding, LabSpace space){
+	 LabKMeans kMeans = new LabKMeans(getColorHistogram(ColorHistogram.Mode.HASH), space);
+	 kMeans.setSeeding(seeding);
+	 return toColorList(kMeans.computeColors(number));
+ }
+ 
+ /**
+  * Method that returns a list of k colors computed using mini-batch k-means, for pictures too big for a full k-means run.
+  * Each of the batches looks at batchSize random pixels, so the time taken does not grow with the size of the picture.
+  * @param number: the desired number of color clusters
+  * @param batchSize: the number of pixels in each batch
+  * @param batches: the number of batches (more batches and bigger ones give colors closer to computeColors)
+  * @return: list with (ideally) k colors that best represent a wider range of colors
+  */
+ public ArrayList<Color> computeColorsMiniBatch(int number, int batchSize, int batches){
+	 MiniBatchKMeans kMeans = new MiniBatchKMeans(getBasicPixels(), getWidth());
+	 kMeans.setBatchSize(batchSize);
+	 kMeans.setIterations(batches);
+	 return toColorList(kMeans.run(number).getPalette());
+ }
+ 
+ /**
+  * Method that returns a list of k colors computed using bisecting k-means, for large numbers of colors.
+  * The cluster with the largest error is split in two until there are k clusters, and each split only looks
+  * at the colors of the cluster it splits (see BisectingKMeans).
+  * @param number: the desired number of color clusters
+  * @return: list with (ideally) k colors that best represent a wider range of colors
+  */
+ public ArrayList<Color> computeColorsBisecting(int number){
+	 BisectingKMeans kMeans = new BisectingKMeans(getColorHistogram(ColorHistogram.Mode.HASH));
+	 return toColorList(kMeans.run(number).getPalette());
+ }
+ 
+ /**
+  * Method to "posterize" an image using bisecting k-means.  For large numbers of colors the pixels are mapped
+  * through the tree of splits, which finds the closest color without comparing it with every color.
+  * @param number: number of colors used to "posterize" the image
+  * @return: the "posterized" image
+  */
+ public Picture reduceColorsBisecting(int number){
+	 BisectingKMeans kMeans = new BisectingKMeans(getColorHistogram(ColorHistogram.Mode.HASH));
+	 int[] palette = kMeans.run(number).getPalette();
+	 if(palette.length < PaletteTree.MIN_COLORS){
+		 return mapToColorList(toColorList(palette));
+	 }
+	 return mapToColorList(kMeans.getTree());
+ }
+ 
+ /**
+  * Method that returns a list of k colors picked by a quantizer over a histogram of the picture's colors.
+  * A MedianCutQuantizer or OctreeQuantizer picks them in one pass, for previews that can not wait for k-means.
+  * @param number: the desired number of colors
+  * @param quantizer: the way the colors are picked (see Quantizer)
+  * @return: list with (ideally) k colors that best represent a wider range of colors
+  */
+ public ArrayList<Color> computeColorsQuantized(int number, Quantizer quantizer){
+	 ColorHistogram histogram = getColorHistogram(ColorHistogram.Mode.HASH);
+	 return toColorList(quantizer.computeColors(histogram.getColors(), histogram.getCounts(), number));
+ }
+ 
+ /**
+  * Method to count how many pixels have each color
+  * @param mode: the way the colors are counted
+  * @return: the histogram of the picture's colors
+  */
+ public ColorHistogram getColorHistogram(ColorHistogram.Mode mode){
+	 return ColorHistogram.build(getBasicPixels(), mode);
+ }
+ 
+ /**
+  * Method to convert a list of colors to packed rgb ints
+  * @param colors: the list of colors
+  * @return: the packed colors in the same order
+  */
+ public static int[] toPackedColors(ArrayList<Color> colors){
+	 int[] packed = new int[colors.size()];
+	 for(int i = 0; i < packed.length; i++){
+		 packed[i] = colors.get(i).getRGB() & KMeans.RGB_MASK;
 	 }
-	 return finalColors;
+	 return packed;
+ }
+ 
+ /**
+  * Method to convert packed rgb ints to a list of colors
+  * @param packed: the packed colors
+  * @return: the list of colors in the same order
+  */
+ public static ArrayList<Color> toColorList(int[] packed){
+	 ArrayList<Color> colors = new ArrayList<Color>();
+	 for(int rgb : packed){
+		 colors.add(new Color(rgb & KMeans.RGB_MASK));
+	 }
+	 return colors;
  }
  
  /**
@@ -767,6 +1007,55 @@ public class Picture extends SimplePicture {
 	 return mapToColorList(computeColors(number));
  }
  
+ /**
+  * Method to "posterize" an image, computing the colors with several threads
+  * @param number: number of colors used to "posterize" the image
+  * @param threads: the number of threads used by k-means
+  * @return: the "posterized" image
+  */
+ public Picture reduceColors(int number, int threads){
+	 return mapToColorList(computeColors(number, threads));
+ }
+ 
+ /**
+  * Method to "posterize" an image with dithering, so a few colors are enough to show gradients
+  * @param number: the number of colors in the new picture
+  * @param dithering: ORDERED, FLOYD_STEINBERG or NONE (see Ditherer)
+  * @return the picture with its colors replaced.
+  */
+ public Picture reduceColors(int number, Ditherer.Method dithering){
+	 return mapToColorList(computeColors(number), dithering);
+ }
+ 
+ /**
+  * Method to "posterize" an image with colors found and matched in a perceptual color space
+  * @param number: number of colors used to "posterize" the image
+  * @param space: OKLAB or CIELAB (see LabSpace)
+  * @return: the "posterized" image
+  */
+ public Picture reduceColors(int number, LabSpace space){
+	 return mapToColorList(computeColors(number, new KMeansPlusPlusSeeds(0), space), space);
+ }
+ 
+ /**
+  * Method to "posterize" an image with colors picked by a quantizer
+  * @param number: number of colors used to "posterize" the image
+  * @param quantizer: the way the colors are picked (see Quantizer)
+  * @return: the "posterized" image
+  */
+ public Picture reduceColors(int number, Quantizer quantizer){
+	 return mapToColorList(computeColorsQuantized(number, quantizer));
+ }
+ 
+ /**
+  * Method to measure how different the colors of this picture look from those of the picture it was made from.
+  * @param source: the picture this one was made from, of the same size
+  * @return: the Delta E of the pixels (see DeltaEReport)
+  */
+ public DeltaEReport compareColors(Picture source){
+	 return new DeltaEReport(source.getBasicPixels(), getBasicPixels());
+ }
+ 
   public static void main(String[] args)
   {
 	  
@@ -0,0 +1,20 @@
+/**
+ * Interface for the ways of picking a palette for a picture's colors.
+ * Median cut and octree quantizers pick one in a single pass, which is
+ * fast enough for previews; the k-means quantizer iterates to a better
+ * palette, and can start from the palette of one of the others (see
+ * QuantizerSeeds).  Picture.reduceColors takes any of them.
+ */
+public interface Quantizer
+{
+  /**
+   * Method to pick a palette
+   * @param colors the packed rgb colors (alpha bits ignored, not changed)
+   * @param weights the number of pixels each color stands for (null if
+   * each color is one pixel)
+   * @param number the number of palette colors wanted
+   * @return the packed palette colors (at most number of them, fewer if
+   * there are not that many different colors)
+   */
+  int[] computeColors(int[] colors, int[] weights, int number);
+}
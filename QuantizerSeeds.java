@@ -0,0 +1,48 @@
+/**
+ * A seed strategy that starts k-means from the palette of a quantizer,
+ * such as an OctreeQuantizer, so k-means only has to polish a palette
+ * that is already close instead of starting from scratch.
+ */
+public class QuantizerSeeds implements SeedStrategy
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the quantizer that picks the starting colors */
+  private Quantizer quantizer;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the quantizer that picks the starting colors
+   * @param quantizer the quantizer
+   */
+  public QuantizerSeeds(Quantizer quantizer)
+  {
+    this.quantizer = quantizer;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to pick the colors using the quantizer
+   * @param colors the packed colors being clustered
+   * @param weights the number of pixels each color stands for (may be null)
+   * @param number the number of colors wanted
+   * @return the quantizer's palette
+   */
+  public int[] seed(int[] colors, int[] weights, int number)
+  {
+    return quantizer.computeColors(colors, weights, number);
+  }
+
+  /**
+   * Method to return a string with information about this strategy
+   * @return a string with information about this strategy
+   */
+  public String toString()
+  {
+    return quantizer.toString();
+  }
+
+}
@@ -0,0 +1,64 @@
+import java.util.Random;
+
+/**
+ * A seed strategy that picks distinct random colors from the whole rgb
+ * cube, the way Picture.generateRandomColorList does, but from a
+ * java.util.Random that can be given a seed so runs can be repeated.
+ */
+public class RandomSeeds implements SeedStrategy
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the seed for the random number generator */
+  private long seed;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the seed for the random number generator
+   * @param seed the seed to use (the same seed gives the same colors)
+   */
+  public RandomSeeds(long seed)
+  {
+    this.seed = seed;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to pick distinct random colors
+   * @param colors the colors being clustered (not used)
+   * @param weights the weights of the colors (not used)
+   * @param number the number of colors wanted
+   * @return the packed random colors
+   */
+  public int[] seed(int[] colors, int[] weights, int number)
+  {
+    Random random = new Random(seed);
+    int[] palette = new int[number];
+    for (int i = 0; i < number; i++)
+    {
+      boolean uniqueFound = false;
+      while (!uniqueFound)
+      {
+        palette[i] = random.nextInt(1 << 24);
+        uniqueFound = true;
+        for (int j = 0; j < i; j++)
+          if (palette[j] == palette[i])
+            uniqueFound = false;
+      }
+    }
+    return palette;
+  }
+
+  /**
+   * Method to return a string with information about this strategy
+   * @return a string with information about this strategy
+   */
+  public String toString()
+  {
+    return "random(" + seed + ")";
+  }
+
+}
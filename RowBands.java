@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A class that splits the rows of a picture into bands and runs a task
+ * on each band using a ForkJoinPool.  With one thread the bands are run
+ * in order on the calling thread and no pool is created.  The split only
+ * depends on the number of rows and threads, so a task that keeps one
+ * partial result per band and merges them in band order gets the same
+ * answer every time.
+ */
+public class RowBands
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the number of bands made for each thread so uneven bands balance out */
+  public static final int BANDS_PER_THREAD = 4;
+
+  /** the number of threads to use */
+  private int threads;
+
+  /** the pool that runs the bands (null for one thread) */
+  private ForkJoinPool pool;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the number of threads to use
+   * @param threads the number of threads (values less than 1 mean 1)
+   */
+  public RowBands(int threads)
+  {
+    this.threads = Math.max(1, threads);
+    if (this.threads > 1)
+      pool = new ForkJoinPool(this.threads);
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * The work done on one band of rows
+   */
+  public interface Task
+  {
+    /**
+     * Method to process the rows in a band
+     * @param band the index of the band (0 for the top band)
+     * @param fromRow the first row in the band
+     * @param toRow one past the last row in the band
+     */
+    void run(int band, int fromRow, int toRow);
+  }
+
+  /**
+   * Method to get the number of threads used
+   * @return the number of threads
+   */
+  public int getThreads() { return threads; }
+
+  /**
+   * Method to get the number of bands the given rows are split into
+   * @param rows the number of rows
+   * @return the number of bands (at least 1)
+   */
+  public int countBands(int rows)
+  {
+    if (threads == 1)
+      return 1;
+    return Math.max(1, Math.min(rows, threads * BANDS_PER_THREAD));
+  }
+
+  /**
+   * Method to run a task on every band of the given rows and wait
+   * for them all to finish
+   * @param rows the number of rows
+   * @param task the task to run on each band
+   */
+  public void forEach(int rows, Task task)
+  {
+    int bands = countBands(rows);
+    if (pool == null)
+    {
+      for (int band = 0; band < bands; band++)
+        task.run(band, firstRow(rows, bands, band), firstRow(rows, bands, band + 1));
+      return;
+    }
+
+    ArrayList<RecursiveAction> actions = new ArrayList<RecursiveAction>();
+    for (int band = 0; band < bands; band++)
+    {
+      final int b = band;
+      final int fromRow = firstRow(rows, bands, band);
+      final int toRow = firstRow(rows, bands, band + 1);
+      actions.add(new RecursiveAction() {
+        protected void compute() { task.run(b, fromRow, toRow); }
+      });
+    }
+    pool.invoke(new RecursiveAction() {
+      protected void compute() { invokeAll(actions); }
+    });
+  }
+
+  /**
+   * Method to get the first row of a band
+   * @param rows the number of rows
+   * @param bands the number of bands
+   * @param band the band index (bands gives one past the last row)
+   * @return the first row of the band
+   */
+  public static int firstRow(int rows, int bands, int band)
+  {
+    return (int) ((long) rows * band / bands);
+  }
+
+  /**
+   * Method to stop the pool threads.  The bands can not be used after this.
+   */
+  public void close()
+  {
+    if (pool != null)
+      pool.shutdown();
+  }
+
+  /**
+   * Method to return a string with information about these bands
+   * @return a string with information about these bands
+   */
+  public String toString()
+  {
+    return "RowBands with " + threads + " threads";
+  }
+
+}
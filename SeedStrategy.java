@@ -0,0 +1,19 @@
+/**
+ * Interface for the ways of picking the palette that k-means starts
+ * from.  Better starting colors mean fewer iterations before the palette
+ * stops changing.
+ */
+public interface SeedStrategy
+{
+  /**
+   * Method to pick the starting palette
+   * @param colors the packed rgb colors being clustered (alpha bits ignored,
+   * not changed)
+   * @param weights the number of pixels each color stands for (null if
+   * each color is one pixel)
+   * @param number the number of palette colors wanted
+   * @return the packed starting colors (at most number of them, fewer
+   * if there are not that many different colors)
+   */
+  int[] seed(int[] colors, int[] weights, int number);
+}
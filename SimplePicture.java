@@ -1,5 +1,9 @@
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.awt.*;
 import java.io.*;
 import java.awt.geom.*;
@@ -44,6 +48,16 @@ public class SimplePicture implements DigitalPicture
    */
   private String extension;
   
+  /**
+   * mask for the alpha bits of a pixel value
+   */
+  public static final int ALPHA_MASK = 0xff000000;
+  
+  /**
+   * mask for the red, green, and blue bits of a pixel value
+   */
+  public static final int RGB_MASK = 0x00ffffff;
+  
  
  /////////////////////// Constructors /////////////////////////
  
@@ -150,27 +164,25 @@ public class SimplePicture implements DigitalPicture
   */
  public void copyPicture(SimplePicture sourcePicture)
  {
-   Pixel sourcePixel = null;
-   Pixel targetPixel = null;
+   int[] sourcePixels = sourcePicture.getBasicPixels();
+   int[] targetPixels = this.getBasicPixels();
+   int sourceWidth = sourcePicture.getWidth();
+   int targetWidth = this.getWidth();
+   int width = Math.min(sourceWidth, targetWidth);
+   int height = Math.min(sourcePicture.getHeight(), this.getHeight());
    
-   // loop through the columns
-   for (int sourceX = 0, targetX = 0; 
-        sourceX < sourcePicture.getWidth() &&
-        targetX < this.getWidth();
-        sourceX++, targetX++)
+   // loop through the rows that are in both pictures
+   for (int y = 0; y < height; y++)
    {
-     // loop through the rows
-     for (int sourceY = 0, targetY = 0; 
-          sourceY < sourcePicture.getHeight() && 
-          targetY < this.getHeight();
-          sourceY++, targetY++)
-     {
-       sourcePixel = sourcePicture.getPixel(sourceX,sourceY);
-       targetPixel = this.getPixel(targetX,targetY);
-       targetPixel.setColor(sourcePixel.getColor());
-     }
+     int sourceIndex = y * sourceWidth;
+     int targetIndex = y * targetWidth;
+     
+     // copy the color but keep the alpha of the target
+     for (int x = 0; x < width; x++, sourceIndex++, targetIndex++)
+       targetPixels[targetIndex] = (targetPixels[targetIndex] & ALPHA_MASK) |
+                                   (sourcePixels[sourceIndex] & RGB_MASK);
    }
-   
+   this.setBasicPixels(targetPixels);
  }
  
  /**
@@ -179,15 +191,13 @@ public class SimplePicture implements DigitalPicture
   */
  public void setAllPixelsToAColor(Color color)
  {
-   // loop through all x
-   for (int x = 0; x < this.getWidth(); x++)
-   {
-     // loop through all y
-     for (int y = 0; y < this.getHeight(); y++)
-     {
-       getPixel(x,y).setColor(color);
-     }
-   }
+   int rgb = color.getRGB() & RGB_MASK;
+   int[] pixels = getBasicPixels();
+   
+   // set the color but keep the alpha of each pixel
+   for (int i = 0; i < pixels.length; i++)
+     pixels[i] = (pixels[i] & ALPHA_MASK) | rgb;
+   setBasicPixels(pixels);
  }
  
  /**
@@ -310,6 +320,70 @@ public class SimplePicture implements DigitalPicture
    bufferedImage.setRGB(x,y,rgb);
  }
   
+ /**
+  * Method to get the values of all the pixels at once as ints, row by row.
+  * Pixel (x,y) is at index y * width + x.  For a TYPE_INT_RGB picture this
+  * is the array the picture itself uses, so changes to it change the
+  * picture right away.  For other pictures it is a copy that has to be
+  * passed to setBasicPixels.  Either way call setBasicPixels when done.
+  * The alpha bits are only meaningful for pictures that have alpha (a
+  * TYPE_INT_RGB picture stores 0 there), so mask them off with RGB_MASK
+  * before comparing colors.
+  * @return the pixel values (alpha, red, green, blue) starting with y=0
+  */
+ public int[] getBasicPixels()
+ {
+   int[] pixels = getPixelBuffer();
+   if (pixels != null)
+     return pixels;
+   
+   int width = getWidth();
+   return bufferedImage.getRGB(0,0,width,getHeight(),null,0,width);
+ }
+ 
+ /**
+  * Method to set the values of all the pixels at once from ints, row by row
+  * @param pixels the pixel values (alpha, red, green, blue) starting with y=0,
+  * as returned by getBasicPixels
+  */
+ public void setBasicPixels(int[] pixels)
+ {
+   // nothing to do if the array is the picture's own
+   if (pixels == getPixelBuffer())
+     return;
+   
+   int width = getWidth();
+   bufferedImage.setRGB(0,0,width,getHeight(),pixels,0,width);
+ }
+ 
+ /**
+  * Method to get the array that holds the pixels of a TYPE_INT_RGB
+  * picture if it has one row after the other with nothing in between
+  * @return the array of the pixels or null if there isn't one
+  */
+ private int[] getPixelBuffer()
+ {
+   if (bufferedImage.getType() != BufferedImage.TYPE_INT_RGB)
+     return null;
+   
+   WritableRaster raster = bufferedImage.getRaster();
+   if (!(raster.getDataBuffer() instanceof DataBufferInt) ||
+       !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel) ||
+       raster.getSampleModelTranslateX() != 0 ||
+       raster.getSampleModelTranslateY() != 0)
+     return null;
+   
+   DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+   SinglePixelPackedSampleModel sampleModel =
+     (SinglePixelPackedSampleModel) raster.getSampleModel();
+   int[] pixels = buffer.getData();
+   if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0 ||
+       sampleModel.getScanlineStride() != getWidth() ||
+       pixels.length != getWidth() * getHeight())
+     return null;
+   return pixels;
+ }
+  
  /**
   * Method to get a pixel object for the given x and y location
   * @param x  the x location of the pixel in the picture
@@ -451,6 +525,22 @@ public class SimplePicture implements DigitalPicture
    }
    
    bufferedImage = ImageIO.read(file);
+   
+   // a file with a palette (such as one from writeIndexed) is read as an
+   // indexed image, which would snap every later edit to that palette,
+   // so copy it to an image that can hold any color
+   if (bufferedImage != null &&
+       bufferedImage.getColorModel() instanceof IndexColorModel)
+   {
+     int type = bufferedImage.getColorModel().hasAlpha() ?
+       BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+     BufferedImage copy = new BufferedImage(bufferedImage.getWidth(),
+                                            bufferedImage.getHeight(), type);
+     Graphics2D graphics = copy.createGraphics();
+     graphics.drawImage(bufferedImage, 0, 0, null);
+     graphics.dispose();
+     bufferedImage = copy;
+   }
  }
 
 
@@ -643,6 +733,40 @@ public class SimplePicture implements DigitalPicture
      }
          
  }
+ 
+ /**
+  * Method to write the picture to a png or gif file with a palette, which
+  * takes a byte or less for each pixel.  The picture must have no more
+  * than 256 colors, such as one made by reduceColors (see IndexedImage).
+  * Any alpha is dropped.
+  * @param fileName the name of the file to write the picture to
+  */
+ public void writeIndexedOrFail(String fileName) throws IOException
+ {
+   BufferedImage indexed =
+     IndexedImage.fromPixels(getBasicPixels(), getWidth(), getHeight());
+   if (indexed == null)
+     throw new IOException(fileName + " could not be written with a palette. " +
+                           "The picture has more than " + IndexedImage.MAX_COLORS + " colors.");
+   IndexedImage.write(indexed, fileName);
+ }
+ 
+ /**
+  * Method to write the picture to a png or gif file with a palette
+  * without throwing errors
+  * @param fileName the name of the file to write the picture to
+  * @return true if success else false
+  */
+ public boolean writeIndexed(String fileName)
+ {
+     try {
+         this.writeIndexedOrFail(fileName);
+         return true;
+     } catch (Exception ex) {
+         System.out.println("There was an error trying to write " + fileName);
+         return false;
+     }
+ }
 
  /**
   * Method to set the media path by setting the directory to use
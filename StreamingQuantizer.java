@@ -0,0 +1,486 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * A class that reduces the colors of an image file without ever holding
+ * the whole image in memory.  Picture.reduceColors needs the decoded
+ * image and a copy of it; this reads the file one strip of rows at a time
+ * with an ImageReader and a source region instead.
+ *
+ * The first pass adds each strip to a ColorHistogram, and k-means runs
+ * over the histogram.  The second pass hands an ImageWriter an image
+ * whose strips are only read and mapped to the palette when the writer
+ * asks for them, keeping just the last strip.  So the memory used depends
+ * on the strip height, the width and the number of distinct colors, and
+ * not on the height of the image.
+ *
+ * Some things to know when picking formats and strip heights:
+ * readers of tiled or striped formats (TIFF) read a region directly, but
+ * JPEG and PNG readers decode from the top of the image to the region
+ * each time, so taller strips mean fewer decodes.  PNG, BMP and TIFF
+ * writers ask for the image a few rows at a time; the JPEG writer asks
+ * for all of it at once, so JPEG output is not bounded.  Alpha is dropped.
+ * PNG and GIF files are written with the palette (see IndexedImage), so
+ * a strip takes a byte or less per pixel; other formats are written as RGB.
+ */
+public class StreamingQuantizer
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the number of pixels in a strip if no strip height is set */
+  public static final int DEFAULT_STRIP_PIXELS = 1 << 22;
+
+  /** the masks of the red, green and blue bits of the output pixels */
+  private static final int[] RGB_MASKS = {0xff0000, 0xff00, 0xff};
+
+  /** the image file read */
+  private File file;
+
+  /** the number of rows in a strip (0 to use DEFAULT_STRIP_PIXELS) */
+  private int stripHeight;
+
+  /** the way the colors are counted */
+  private ColorHistogram.Mode mode = ColorHistogram.Mode.HASH;
+
+  /** the way the starting palette is picked */
+  private SeedStrategy seeding = new KMeansPlusPlusSeeds(0);
+
+  /** the number of strips read so far */
+  private int stripsRead;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the image file to read
+   * @param fileName the name of the image file
+   */
+  public StreamingQuantizer(String fileName)
+  {
+    this(new File(fileName));
+  }
+
+  /**
+   * A constructor that takes the image file to read
+   * @param file the image file
+   */
+  public StreamingQuantizer(File file)
+  {
+    this.file = file;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to get the number of rows read at a time
+   * @return the strip height (0 if it is worked out from the width)
+   */
+  public int getStripHeight() { return stripHeight; }
+
+  /**
+   * Method to set the number of rows read at a time
+   * @param stripHeight the strip height (0 to read about
+   * DEFAULT_STRIP_PIXELS pixels at a time)
+   */
+  public void setStripHeight(int stripHeight)
+  {
+    if (stripHeight < 0)
+      throw new IllegalArgumentException("stripHeight can not be negative: " + stripHeight);
+    this.stripHeight = stripHeight;
+  }
+
+  /**
+   * Method to get the way the colors are counted
+   * @return the histogram mode
+   */
+  public ColorHistogram.Mode getMode() { return mode; }
+
+  /**
+   * Method to set the way the colors are counted.  QUANTIZED keeps the
+   * histogram small for photos with millions of colors.
+   * @param mode the histogram mode
+   */
+  public void setMode(ColorHistogram.Mode mode)
+  {
+    this.mode = mode;
+  }
+
+  /**
+   * Method to get the way the starting palette is picked
+   * @return the seed strategy
+   */
+  public SeedStrategy getSeeding() { return seeding; }
+
+  /**
+   * Method to set the way the starting palette is picked
+   * @param seeding the seed strategy to use
+   */
+  public void setSeeding(SeedStrategy seeding)
+  {
+    this.seeding = seeding;
+  }
+
+  /**
+   * Method to get the number of strips read so far, by both passes
+   * @return the number of strips read
+   */
+  public int getStripsRead() { return stripsRead; }
+
+  /**
+   * Method to count the colors of the image one strip at a time
+   * @return the histogram of the image's colors
+   * @throws IOException if the file can not be read
+   */
+  public ColorHistogram buildHistogram() throws IOException
+  {
+    ImageInputStream input = openInput();
+    ImageReader reader = openReader(input);
+    try
+    {
+      int width = reader.getWidth(0);
+      int height = reader.getHeight(0);
+      int rows = rowsPerStrip(width);
+      int[] pixels = new int[width * Math.min(rows, height)];
+      ColorHistogram histogram = new ColorHistogram(mode);
+      for (int y = 0; y < height; y += rows)
+      {
+        int count = readStrip(reader, y, Math.min(rows, height - y), width, pixels);
+        histogram.add(pixels, 0, count);
+      }
+      return histogram;
+    }
+    finally
+    {
+      reader.dispose();
+      input.close();
+    }
+  }
+
+  /**
+   * Method to compute a palette for the image with k-means over its histogram
+   * @param number the number of palette colors wanted
+   * @return the packed palette colors
+   * @throws IOException if the file can not be read
+   */
+  public int[] computeColors(int number) throws IOException
+  {
+    KMeans kMeans = new KMeans(buildHistogram());
+    kMeans.setSeeding(seeding);
+    return kMeans.run(number).getPalette();
+  }
+
+  /**
+   * Method to write the image with every pixel replaced by its closest
+   * palette color.  The format comes from the file name's extension.
+   * @param palette the packed palette colors
+   * @param fileName the name of the file to write
+   * @throws IOException if a file can not be read or written
+   */
+  public void write(int[] palette, String fileName) throws IOException
+  {
+    String extension = "jpg";
+    int posDot = fileName.lastIndexOf('.');
+    if (posDot >= 0)
+      extension = fileName.substring(posDot + 1);
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(extension);
+    if (!writers.hasNext())
+      throw new IOException("there is no writer for " + extension + " files");
+    ImageWriter writer = writers.next();
+
+    ImageInputStream input = openInput();
+    ImageReader reader = openReader(input);
+    ImageOutputStream output = null;
+    try
+    {
+      File out = new File(fileName);
+      if (out.exists() && !out.delete())
+        throw new IOException(fileName + " could not be replaced");
+      output = ImageIO.createImageOutputStream(out);
+      if (output == null)
+        throw new IOException(fileName + " could not be opened. Check to see if you can write to the directory.");
+      int width = reader.getWidth(0);
+      int height = reader.getHeight(0);
+      PaletteIndex index;
+      if (PaletteMap.isWorthBuilding((long) width * height))
+        index = new PaletteMap(palette);
+      else
+        index = ClosestColorKernel.create(palette, palette.length);
+      boolean indexed = IndexedImage.canWrite(extension) && palette.length <= IndexedImage.MAX_COLORS;
+      writer.setOutput(output);
+      writer.write(new MappedImage(reader, width, height, rowsPerStrip(width), index, indexed));
+    }
+    finally
+    {
+      writer.dispose();
+      if (output != null)
+        output.close();
+      reader.dispose();
+      input.close();
+    }
+  }
+
+  /**
+   * Method to "posterize" the image into a file: compute a palette and
+   * write the image mapped to it
+   * @param number the number of colors to use
+   * @param fileName the name of the file to write
+   * @return the packed palette colors used
+   * @throws IOException if a file can not be read or written
+   */
+  public int[] reduceColors(int number, String fileName) throws IOException
+  {
+    int[] palette = computeColors(number);
+    write(palette, fileName);
+    return palette;
+  }
+
+  /**
+   * Method to work out the number of rows in a strip
+   * @param width the width of the image
+   * @return the number of rows
+   */
+  private int rowsPerStrip(int width)
+  {
+    if (stripHeight > 0)
+      return stripHeight;
+    return Math.max(1, DEFAULT_STRIP_PIXELS / Math.max(1, width));
+  }
+
+  /**
+   * Method to open the image file for reading
+   * @return the input stream
+   * @throws IOException if the file can not be read
+   */
+  private ImageInputStream openInput() throws IOException
+  {
+    if (!file.canRead())
+      throw new IOException(file + " could not be opened. Check that you specified the path");
+    ImageInputStream input = ImageIO.createImageInputStream(file);
+    if (input == null)
+      throw new IOException(file + " could not be opened");
+    return input;
+  }
+
+  /**
+   * Method to find a reader for the image file
+   * @param input the input stream of the file
+   * @return the reader, reading from the stream
+   * @throws IOException if no reader knows the format
+   */
+  private ImageReader openReader(ImageInputStream input) throws IOException
+  {
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+    if (!readers.hasNext())
+    {
+      input.close();
+      throw new IOException(file + " is not in a format that can be read");
+    }
+    ImageReader reader = readers.next();
+    reader.setInput(input, false, true);
+    return reader;
+  }
+
+  /**
+   * Method to read a strip of rows from the image into packed colors
+   * @param reader the reader of the image
+   * @param y the first row of the strip
+   * @param rows the number of rows in the strip
+   * @param width the width of the image
+   * @param pixels the array to put the colors in, row by row
+   * @return the number of pixels read
+   * @throws IOException if the file can not be read
+   */
+  private int readStrip(ImageReader reader, int y, int rows, int width, int[] pixels)
+    throws IOException
+  {
+    ImageReadParam param = reader.getDefaultReadParam();
+    param.setSourceRegion(new Rectangle(0, y, width, rows));
+    BufferedImage strip = reader.read(0, param);
+    stripsRead++;
+    strip.getRGB(0, 0, width, rows, pixels, 0, width);
+    return width * rows;
+  }
+
+  /**
+   * Method to return a string with information about this quantizer
+   * @return a string with information about this quantizer
+   */
+  public String toString()
+  {
+    return "StreamingQuantizer of " + file + " (" + mode + " histogram, " +
+      (stripHeight > 0 ? stripHeight + " rows" : DEFAULT_STRIP_PIXELS + " pixels") +
+      " per strip)";
+  }
+
+  /**
+   * An image made of strips that are read and mapped to the palette only
+   * when asked for.  Each strip is one tile the width of the image.  The
+   * last strip is kept, so a writer that goes down the image a few rows
+   * at a time reads each strip once.
+   */
+  private class MappedImage implements RenderedImage
+  {
+    /** the reader of the source image */
+    private ImageReader reader;
+
+    /** the size of the image */
+    private int width, height;
+
+    /** the number of rows in each strip */
+    private int rows;
+
+    /** the palette and the way to search it */
+    private PaletteIndex index;
+
+    /** true if the strips hold palette indexes instead of colors */
+    private boolean indexed;
+
+    /** the colors and sample layout of the strips */
+    private ColorModel colorModel;
+    private SampleModel sampleModel;
+
+    /** the last strip made, and its number */
+    private WritableRaster cached;
+    private int cachedStrip = -1;
+
+    MappedImage(ImageReader reader, int width, int height, int rows, PaletteIndex index,
+                boolean indexed)
+    {
+      this.reader = reader;
+      this.width = width;
+      this.height = height;
+      this.rows = Math.min(rows, height);
+      this.index = index;
+      this.indexed = indexed;
+      if (indexed)
+      {
+        colorModel = IndexedImage.makeColorModel(index.getPalette());
+        sampleModel = colorModel.createCompatibleSampleModel(width, this.rows);
+      }
+      else
+      {
+        colorModel = new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+        sampleModel = new SinglePixelPackedSampleModel(DataBufferInt.TYPE_INT, width, this.rows, RGB_MASKS);
+      }
+    }
+
+    public Vector<RenderedImage> getSources() { return null; }
+    public Object getProperty(String name) { return java.awt.Image.UndefinedProperty; }
+    public String[] getPropertyNames() { return null; }
+    public ColorModel getColorModel() { return colorModel; }
+    public SampleModel getSampleModel() { return sampleModel; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getMinX() { return 0; }
+    public int getMinY() { return 0; }
+    public int getNumXTiles() { return 1; }
+    public int getNumYTiles() { return (height + rows - 1) / rows; }
+    public int getMinTileX() { return 0; }
+    public int getMinTileY() { return 0; }
+    public int getTileWidth() { return width; }
+    public int getTileHeight() { return rows; }
+    public int getTileGridXOffset() { return 0; }
+    public int getTileGridYOffset() { return 0; }
+
+    /** reads a strip, maps it to the palette and keeps it */
+    public Raster getTile(int tileX, int tileY)
+    {
+      if (tileY != cachedStrip)
+      {
+        int y = tileY * rows;
+        int count = Math.min(rows, height - y);
+        int[] pixels = new int[width * count];
+        try
+        {
+          readStrip(reader, y, count, width, pixels);
+        }
+        catch (IOException ex)
+        {
+          throw new IllegalStateException("could not read rows " + y + " to " + (y + count) +
+                                          " of " + file, ex);
+        }
+        if (indexed)
+          cached = mapToIndexes(pixels, count, y);
+        else
+        {
+          int[] palette = index.getPalette();
+          for (int i = 0; i < pixels.length; i++)
+            pixels[i] = palette[index.findClosestColor(pixels[i])];
+          cached = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, count,
+                                             width, RGB_MASKS, new Point(0, y));
+        }
+        cachedStrip = tileY;
+      }
+      return cached;
+    }
+
+    public Raster getData()
+    {
+      return getData(new Rectangle(0, 0, width, height));
+    }
+
+    /** maps the pixels of a strip to a raster of palette indexes */
+    private WritableRaster mapToIndexes(int[] pixels, int count, int y)
+    {
+      int bits = colorModel.getPixelSize();
+      WritableRaster raster = IndexedImage.createRaster(bits, width, count, new Point(0, y));
+      byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+      int stride = IndexedImage.bytesPerRow(bits, width);
+      int[] indexes = new int[width];
+      for (int row = 0; row < count; row++)
+      {
+        for (int x = 0, i = row * width; x < width; x++, i++)
+          indexes[x] = index.findClosestColor(pixels[i]);
+        IndexedImage.putRow(indexes, width, bits, data, row * stride);
+      }
+      return raster;
+    }
+
+    public Raster getData(Rectangle rect)
+    {
+      WritableRaster raster;
+      if (indexed)
+        raster = Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(rect.width, rect.height),
+                                             new Point(rect.x, rect.y));
+      else
+        raster = Raster.createPackedRaster(DataBufferInt.TYPE_INT, rect.width, rect.height,
+                                           RGB_MASKS, new Point(rect.x, rect.y));
+      return copyData(raster);
+    }
+
+    public WritableRaster copyData(WritableRaster raster)
+    {
+      Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+      if (bounds.isEmpty())
+        return raster;
+      int first = bounds.y / rows;
+      int last = (bounds.y + bounds.height - 1) / rows;
+      for (int strip = first; strip <= last; strip++)
+      {
+        raster.setRect(getTile(0, strip));
+      }
+      return raster;
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The picture filters and pixel access methods over whole pictures.
+ * Run with -prof gc to see how much each one allocates.  The filters
+ * that change the picture they are called on are in ReduceBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g"})
+public class FilterBenchmark
+{
+
+  /** the picture to filter */
+  @Param({"kmeans_first8.JPG", "kmeans_first256.JPG", "kmeans_random8.JPG", "kmeans_random256.JPG",
+          "mapToColorList_original8.JPG", "mapToColorList_my8.JPG", "mapToColorList_random8.JPG",
+          "mapToColorList_random256.JPG", "synthetic-1", "synthetic-10", "synthetic-50"})
+  public String image;
+
+  /** the 3x3 blur kernel the convolve benchmark uses */
+  private static final double[][] BLUR = {{1 / 9.0, 1 / 9.0, 1 / 9.0},
+                                         {1 / 9.0, 1 / 9.0, 1 / 9.0},
+                                         {1 / 9.0, 1 / 9.0, 1 / 9.0}};
+
+  private Object picture;
+  private Object target;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Throwable
+  {
+    BufferedImage buffered = Images.load(image);
+    picture = Repo.NEW_PICTURE.invoke(buffered);
+    target = Repo.NEW_PICTURE.invoke(new BufferedImage(buffered.getWidth(), buffered.getHeight(),
+                                                       BufferedImage.TYPE_INT_RGB));
+  }
+
+  @Benchmark
+  public Object convolve() throws Throwable
+  {
+    return Repo.CONVOLVE.invoke(picture, BLUR, "blur");
+  }
+
+  @Benchmark
+  public Object oilPaint() throws Throwable
+  {
+    return Repo.OIL_PAINT.invoke(picture, 3);
+  }
+
+  @Benchmark
+  public Object copyPicture() throws Throwable
+  {
+    Repo.COPY_PICTURE.invoke(target, picture);
+    return target;
+  }
+
+  @Benchmark
+  public Object getPixels() throws Throwable
+  {
+    return Repo.GET_PIXELS.invoke(picture);
+  }
+
+}
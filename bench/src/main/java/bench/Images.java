@@ -0,0 +1,77 @@
+package bench;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The pictures the benchmarks run on.  A name ending in .JPG or .jpg is
+ * one of the pictures that come with the repository, looked up in the
+ * directory named by the bench.images system property (the current
+ * directory if it is not set).  A name like synthetic-10 is a made up
+ * photo-like picture of that many megapixels: smooth gradients with
+ * some noise, so it has many distinct colors, built from a fixed seed so
+ * every run measures the same pixels.
+ */
+final class Images
+{
+
+  private Images() {}
+
+  /**
+   * Method to load or make a picture
+   * @param name a bundled file name or synthetic-megapixels
+   * @return the picture as a TYPE_INT_RGB image
+   * @throws IOException if a bundled picture can not be read
+   */
+  static BufferedImage load(String name) throws IOException
+  {
+    if (name.startsWith("synthetic-"))
+      return synthetic(Double.parseDouble(name.substring("synthetic-".length())));
+
+    File file = new File(System.getProperty("bench.images", "."), name);
+    BufferedImage read = ImageIO.read(file);
+    if (read == null)
+      throw new IOException(file + " could not be read");
+    BufferedImage image = new BufferedImage(read.getWidth(), read.getHeight(), BufferedImage.TYPE_INT_RGB);
+    image.getGraphics().drawImage(read, 0, 0, null);
+    return image;
+  }
+
+  /**
+   * Method to make a photo-like picture with a 4:3 shape
+   * @param megapixels the number of millions of pixels
+   * @return the picture
+   */
+  static BufferedImage synthetic(double megapixels)
+  {
+    long pixels = Math.round(megapixels * 1000000);
+    int width = (int) Math.round(Math.sqrt(pixels * 4.0 / 3.0));
+    int height = (int) Math.max(1, pixels / width);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(42);
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        double u = (double) x / width;
+        double v = (double) y / height;
+        int red = clamp(255 * u + 40 * Math.sin(9 * v) + random.nextGaussian() * 6);
+        int green = clamp(200 * v + 55 * Math.cos(7 * u * v) + random.nextGaussian() * 6);
+        int blue = clamp(128 + 100 * Math.sin(5 * (u + v)) + random.nextGaussian() * 6);
+        row[x] = red << 16 | green << 8 | blue;
+      }
+      image.setRGB(0, y, width, 1, row, 0, width);
+    }
+    return image;
+  }
+
+  private static int clamp(double value)
+  {
+    return (int) Math.max(0, Math.min(255, value));
+  }
+
+}
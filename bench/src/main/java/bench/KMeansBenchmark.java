@@ -0,0 +1,182 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The k-means steps over whole pictures: the ArrayList based methods of
+ * Picture next to the packed color ones of KMeans, at several palette
+ * sizes.  Run with -prof gc to see how much each one allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g", "--add-modules=jdk.incubator.vector"})
+public class KMeansBenchmark
+{
+
+  /** the picture to cluster */
+  @Param({"kmeans_first8.JPG", "kmeans_first256.JPG", "kmeans_random8.JPG", "kmeans_random256.JPG",
+          "mapToColorList_original8.JPG", "mapToColorList_my8.JPG", "mapToColorList_random8.JPG",
+          "mapToColorList_random256.JPG", "synthetic-1", "synthetic-10", "synthetic-50"})
+  public String image;
+
+  /** the number of palette colors */
+  @Param({"8", "64", "256"})
+  public int k;
+
+  private Object picture;
+  private int[] pixels;
+  private int width;
+  private int[] palette;
+  private ArrayList<?> colors;
+  private long[] sums;
+  private long[] counts;
+  private int[] centroids;
+  private ArrayList<ArrayList<java.awt.Color>> clusters;
+  private Object scalarKernel;
+  private Object vectorKernel;
+  private int[] chosen;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Throwable
+  {
+    java.awt.image.BufferedImage buffered = Images.load(image);
+    picture = Repo.NEW_PICTURE.invoke(buffered);
+    pixels = (int[]) Repo.GET_BASIC_PIXELS.invoke(picture);
+    width = buffered.getWidth();
+    Object seeding = Repo.NEW_KMEANS_PLUS_PLUS_SEEDS.invoke(0L);
+    palette = (int[]) Repo.SEED.invoke(seeding, pixels, (int[]) null, k);
+    colors = (ArrayList<?>) Repo.TO_COLOR_LIST.invoke(palette);
+    sums = new long[3 * palette.length];
+    counts = new long[palette.length];
+    centroids = new int[palette.length];
+
+    // one full assignment so the centroid benchmarks have real sums
+    Object kMeans = Repo.NEW_KMEANS.invoke(pixels, width);
+    Repo.KMEANS_ASSIGN_CLUSTERS.invoke(kMeans, palette, palette.length, sums, counts);
+    clusters = new ArrayList<ArrayList<java.awt.Color>>();
+    for (int i = 0; i < palette.length; i++)
+      clusters.add(new ArrayList<java.awt.Color>());
+    scalarKernel = Repo.CREATE_KERNEL.invoke(palette, palette.length, false);
+    vectorKernel = Repo.CREATE_KERNEL.invoke(palette, palette.length, true);
+    chosen = new int[pixels.length];
+  }
+
+  /** the packed closest color search over every pixel */
+  @Benchmark
+  public int kMeansFindClosestColor() throws Throwable
+  {
+    int total = 0;
+    for (int rgb : pixels)
+      total += (int) Repo.KMEANS_FIND_CLOSEST.invoke(rgb, palette, palette.length);
+    return total;
+  }
+
+  /** the closest color search over every pixel by the scalar kernel */
+  @Benchmark
+  public int[] scalarKernelFindClosestColors() throws Throwable
+  {
+    Repo.KERNEL_FIND_CLOSEST_COLORS.invoke(scalarKernel, pixels, 0, pixels.length, chosen, 0);
+    return chosen;
+  }
+
+  /**
+   * the closest color search over every pixel by the vector kernel (the
+   * same as the scalar one if the vector module is not there)
+   */
+  @Benchmark
+  public int[] vectorKernelFindClosestColors() throws Throwable
+  {
+    Repo.KERNEL_FIND_CLOSEST_COLORS.invoke(vectorKernel, pixels, 0, pixels.length, chosen, 0);
+    return chosen;
+  }
+
+  /** the Pixel and Color closest color search over one row of pixels */
+  @Benchmark
+  public int pictureFindClosestColor() throws Throwable
+  {
+    int total = 0;
+    for (int x = 0; x < width; x++)
+      total += (int) Repo.PICTURE_FIND_CLOSEST.invoke(picture, Repo.GET_PIXEL.invoke(picture, x, 0), colors);
+    return total;
+  }
+
+  /** one packed assignment pass */
+  @Benchmark
+  public long kMeansAssignClusters() throws Throwable
+  {
+    Object kMeans = Repo.NEW_KMEANS.invoke(pixels, width);
+    long[] passSums = new long[3 * palette.length];
+    long[] passCounts = new long[palette.length];
+    return (long) Repo.KMEANS_ASSIGN_CLUSTERS.invoke(kMeans, palette, palette.length, passSums, passCounts);
+  }
+
+  /** one assignment pass that builds lists of Colors */
+  @Benchmark
+  public Object pictureAssignClusters() throws Throwable
+  {
+    for (ArrayList<java.awt.Color> cluster : clusters)
+      cluster.clear();
+    Repo.PICTURE_ASSIGN_CLUSTERS.invoke(picture, colors, clusters);
+    return clusters;
+  }
+
+  /** the packed centroid update from sums and counts */
+  @Benchmark
+  public int kMeansComputeCentroids() throws Throwable
+  {
+    return (int) Repo.KMEANS_COMPUTE_CENTROIDS.invoke(sums, counts, palette.length, centroids);
+  }
+
+  /** the centroid of every cluster list, built once in the first call */
+  @Benchmark
+  public Object pictureComputeCentroid() throws Throwable
+  {
+    if (clusters.get(0).isEmpty())
+      Repo.PICTURE_ASSIGN_CLUSTERS.invoke(picture, colors, clusters);
+    Object last = null;
+    for (ArrayList<java.awt.Color> cluster : clusters)
+      if (!cluster.isEmpty())
+        last = Repo.PICTURE_COMPUTE_CENTROID.invoke(picture, cluster);
+    return last;
+  }
+
+  /** a whole k-means run from the same k-means++ seeds */
+  @Benchmark
+  public int[] kMeansComputeColors() throws Throwable
+  {
+    Object kMeans = Repo.NEW_KMEANS.invoke(pixels, width);
+    return (int[]) Repo.KMEANS_COMPUTE_COLORS.invoke(kMeans, palette);
+  }
+
+  /** a whole run through Picture, seeding included */
+  @Benchmark
+  public Object pictureComputeColors() throws Throwable
+  {
+    return Repo.PICTURE_COMPUTE_COLORS.invoke(picture, k, Repo.NEW_KMEANS_PLUS_PLUS_SEEDS.invoke(0L));
+  }
+
+  /** mapping every pixel to the palette */
+  @Benchmark
+  public Object mapToColorList() throws Throwable
+  {
+    return Repo.MAP_TO_COLOR_LIST.invoke(picture, colors);
+  }
+
+}
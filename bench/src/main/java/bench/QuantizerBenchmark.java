@@ -0,0 +1,116 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The quantizers side by side: the time to pick a palette for a whole
+ * picture (histogram included), and at the end of each trial the error
+ * of that palette, as the mean Delta E and the sum of squared rgb
+ * distances of the mapped picture.  The error is printed, not measured,
+ * so look for the "error:" lines in the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g", "--add-modules=jdk.incubator.vector"})
+public class QuantizerBenchmark
+{
+
+  /** the picture to quantize */
+  @Param({"kmeans_first8.JPG", "kmeans_first256.JPG", "kmeans_random8.JPG", "kmeans_random256.JPG",
+          "mapToColorList_original8.JPG", "mapToColorList_my8.JPG", "mapToColorList_random8.JPG",
+          "mapToColorList_random256.JPG", "synthetic-1", "synthetic-10"})
+  public String image;
+
+  /** the number of palette colors */
+  @Param({"8", "64", "256"})
+  public int k;
+
+  /** the quantizer: median-cut, octree, kmeans, or kmeans seeded by one of the others */
+  @Param({"median-cut", "octree", "kmeans", "kmeans-median-cut", "kmeans-octree"})
+  public String quantizer;
+
+  private Object picture;
+  private int[] pixels;
+  private Object chosen;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Throwable
+  {
+    picture = Repo.NEW_PICTURE.invoke(Images.load(image));
+    pixels = (int[]) Repo.GET_BASIC_PIXELS.invoke(picture);
+    switch (quantizer)
+    {
+      case "median-cut":
+        chosen = Repo.NEW_MEDIAN_CUT_QUANTIZER.invoke();
+        break;
+      case "octree":
+        chosen = Repo.NEW_OCTREE_QUANTIZER.invoke();
+        break;
+      case "kmeans":
+        chosen = Repo.NEW_KMEANS_QUANTIZER.invoke(Repo.NEW_KMEANS_PLUS_PLUS_SEEDS.invoke(0L));
+        break;
+      case "kmeans-median-cut":
+        chosen = Repo.NEW_KMEANS_QUANTIZER.invoke(
+          Repo.NEW_QUANTIZER_SEEDS.invoke(Repo.NEW_MEDIAN_CUT_QUANTIZER.invoke()));
+        break;
+      case "kmeans-octree":
+        chosen = Repo.NEW_KMEANS_QUANTIZER.invoke(
+          Repo.NEW_QUANTIZER_SEEDS.invoke(Repo.NEW_OCTREE_QUANTIZER.invoke()));
+        break;
+      default:
+        throw new IllegalArgumentException("unknown quantizer " + quantizer);
+    }
+  }
+
+  /** picking the palette, from counting the colors to the list of colors */
+  @Benchmark
+  public ArrayList<?> computeColors() throws Throwable
+  {
+    return (ArrayList<?>) Repo.PICTURE_COMPUTE_COLORS_QUANTIZED.invoke(picture, k, chosen);
+  }
+
+  /** the error of the palette, once the timing is done */
+  @TearDown(Level.Trial)
+  public void printError() throws Throwable
+  {
+    int[] palette = (int[]) Repo.TO_PACKED_COLORS.invoke(computeColors());
+    Object kernel = Repo.CREATE_KERNEL.invoke(palette, palette.length, true);
+    int[] indexes = new int[pixels.length];
+    Repo.KERNEL_FIND_CLOSEST_COLORS.invoke(kernel, pixels, 0, pixels.length, indexes, 0);
+    int[] mapped = new int[pixels.length];
+    long sse = 0;
+    for (int i = 0; i < pixels.length; i++)
+    {
+      int a = pixels[i];
+      int b = palette[indexes[i]];
+      mapped[i] = b;
+      int dr = ((a >> 16) & 0xff) - ((b >> 16) & 0xff);
+      int dg = ((a >> 8) & 0xff) - ((b >> 8) & 0xff);
+      int db = (a & 0xff) - (b & 0xff);
+      sse += dr * dr + dg * dg + db * db;
+    }
+    double deltaE = (double) Repo.DELTA_E_MEAN.invoke(Repo.NEW_DELTA_E_REPORT.invoke(pixels, mapped));
+    System.out.println(String.format(Locale.ROOT, "%nerror: %s %s k=%d colors=%d mean dE=%.3f sse=%d",
+                                     quantizer, image, k, palette.length, deltaE, sse));
+  }
+
+}
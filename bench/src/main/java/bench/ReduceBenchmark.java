@@ -0,0 +1,74 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The filters that reduce the colors of the picture they are called on.
+ * Each call gets a fresh copy of the picture, made before the call and
+ * not timed; it is kept out of FilterBenchmark so the other filters do
+ * not pay for a copy on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g"})
+public class ReduceBenchmark
+{
+
+  /** the picture to reduce */
+  @Param({"kmeans_first8.JPG", "kmeans_first256.JPG", "kmeans_random8.JPG", "kmeans_random256.JPG",
+          "mapToColorList_original8.JPG", "mapToColorList_my8.JPG", "mapToColorList_random8.JPG",
+          "mapToColorList_random256.JPG", "synthetic-1", "synthetic-10", "synthetic-50"})
+  public String image;
+
+  private Object picture;
+  private Object target;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Throwable
+  {
+    BufferedImage buffered = Images.load(image);
+    picture = Repo.NEW_PICTURE.invoke(buffered);
+    target = Repo.NEW_PICTURE.invoke(new BufferedImage(buffered.getWidth(), buffered.getHeight(),
+                                                       BufferedImage.TYPE_INT_RGB));
+  }
+
+  /** the reductions change the picture, so each call gets a fresh copy */
+  @Setup(Level.Invocation)
+  public void refresh() throws Throwable
+  {
+    Repo.COPY_PICTURE.invoke(target, picture);
+  }
+
+  @Benchmark
+  public Object reduceTo8() throws Throwable
+  {
+    Repo.REDUCE_TO_8.invoke(target);
+    return target;
+  }
+
+  /** adaptive thresholds with 8 levels a channel */
+  @Benchmark
+  public Object reduceChannels() throws Throwable
+  {
+    Repo.REDUCE_CHANNELS.invoke(target, 3);
+    return target;
+  }
+
+}
@@ -0,0 +1,214 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+
+/**
+ * Handles on the picture classes.  They are in the default package, which
+ * a named package can not import, and JMH will not generate benchmarks in
+ * the default package, so the benchmarks reach them through method
+ * handles.  The handles are static final so the JIT inlines them like
+ * direct calls; the benchmarks call them with invoke and declare
+ * Throwable.
+ */
+final class Repo
+{
+
+  /** the classes being measured */
+  static final Class<?> PICTURE = load("Picture");
+  static final Class<?> SIMPLE_PICTURE = load("SimplePicture");
+  static final Class<?> PIXEL = load("Pixel");
+  static final Class<?> KMEANS = load("KMeans");
+  static final Class<?> SEED_STRATEGY = load("SeedStrategy");
+  static final Class<?> KERNEL = load("ClosestColorKernel");
+  static final Class<?> QUANTIZER = load("Quantizer");
+
+  /** new Picture(BufferedImage) */
+  static final MethodHandle NEW_PICTURE =
+    constructor(PICTURE, BufferedImage.class);
+
+  /** picture.copyPicture(SimplePicture) */
+  static final MethodHandle COPY_PICTURE =
+    virtual(SIMPLE_PICTURE, "copyPicture", void.class, SIMPLE_PICTURE);
+
+  /** picture.getPixels() */
+  static final MethodHandle GET_PIXELS =
+    virtual(SIMPLE_PICTURE, "getPixels", arrayOf(PIXEL));
+
+  /** picture.getBasicPixels() */
+  static final MethodHandle GET_BASIC_PIXELS =
+    virtual(SIMPLE_PICTURE, "getBasicPixels", int[].class);
+
+  /** picture.getPixel(x, y) */
+  static final MethodHandle GET_PIXEL =
+    virtual(SIMPLE_PICTURE, "getPixel", PIXEL, int.class, int.class);
+
+  /** picture.convolve(double[][], String) */
+  static final MethodHandle CONVOLVE =
+    virtual(PICTURE, "convolve", PICTURE, double[][].class, String.class);
+
+  /** picture.oilPaint(int) */
+  static final MethodHandle OIL_PAINT =
+    virtual(PICTURE, "oilPaint", PICTURE, int.class);
+
+  /** picture.reduceTo8() */
+  static final MethodHandle REDUCE_TO_8 =
+    virtual(PICTURE, "reduceTo8", void.class);
+
+  /** picture.reduceChannels(int) */
+  static final MethodHandle REDUCE_CHANNELS =
+    virtual(PICTURE, "reduceChannels", void.class, int.class);
+
+  /** picture.findClosestColor(Pixel, ArrayList) */
+  static final MethodHandle PICTURE_FIND_CLOSEST =
+    virtual(PICTURE, "findClosestColor", int.class, PIXEL, ArrayList.class);
+
+  /** picture.assignClusters(ArrayList, ArrayList) */
+  static final MethodHandle PICTURE_ASSIGN_CLUSTERS =
+    virtual(PICTURE, "assignClusters", void.class, ArrayList.class, ArrayList.class);
+
+  /** picture.computeCentroid(ArrayList) */
+  static final MethodHandle PICTURE_COMPUTE_CENTROID =
+    virtual(PICTURE, "computeCentroid", java.awt.Color.class, ArrayList.class);
+
+  /** picture.computeColors(int, SeedStrategy) */
+  static final MethodHandle PICTURE_COMPUTE_COLORS =
+    virtual(PICTURE, "computeColors", ArrayList.class, int.class, SEED_STRATEGY);
+
+  /** picture.computeColorsQuantized(int, Quantizer) */
+  static final MethodHandle PICTURE_COMPUTE_COLORS_QUANTIZED =
+    virtual(PICTURE, "computeColorsQuantized", ArrayList.class, int.class, QUANTIZER);
+
+  /** picture.mapToColorList(ArrayList) */
+  static final MethodHandle MAP_TO_COLOR_LIST =
+    virtual(PICTURE, "mapToColorList", PICTURE, ArrayList.class);
+
+  /** Picture.toColorList(int[]) */
+  static final MethodHandle TO_COLOR_LIST =
+    statik(PICTURE, "toColorList", ArrayList.class, int[].class);
+
+  /** Picture.toPackedColors(ArrayList) */
+  static final MethodHandle TO_PACKED_COLORS =
+    statik(PICTURE, "toPackedColors", int[].class, ArrayList.class);
+
+  /** new KMeans(int[], int) */
+  static final MethodHandle NEW_KMEANS =
+    constructor(KMEANS, int[].class, int.class);
+
+  /** kMeans.assignClusters(int[], int, long[], long[]) */
+  static final MethodHandle KMEANS_ASSIGN_CLUSTERS =
+    virtual(KMEANS, "assignClusters", long.class, int[].class, int.class, long[].class, long[].class);
+
+  /** KMeans.computeCentroids(long[], long[], int, int[]) */
+  static final MethodHandle KMEANS_COMPUTE_CENTROIDS =
+    statik(KMEANS, "computeCentroids", int.class, long[].class, long[].class, int.class, int[].class);
+
+  /** KMeans.findClosestColor(int, int[], int) */
+  static final MethodHandle KMEANS_FIND_CLOSEST =
+    statik(KMEANS, "findClosestColor", int.class, int.class, int[].class, int.class);
+
+  /** kMeans.computeColors(int[]) */
+  static final MethodHandle KMEANS_COMPUTE_COLORS =
+    virtual(KMEANS, "computeColors", int[].class, int[].class);
+
+  /** ClosestColorKernel.create(int[], int, boolean) */
+  static final MethodHandle CREATE_KERNEL =
+    statik(KERNEL, "create", KERNEL, int[].class, int.class, boolean.class);
+
+  /** kernel.findClosestColors(int[], int, int, int[], int) */
+  static final MethodHandle KERNEL_FIND_CLOSEST_COLORS =
+    virtual(KERNEL, "findClosestColors", void.class, int[].class, int.class, int.class,
+            int[].class, int.class);
+
+  /** new KMeansPlusPlusSeeds(long) */
+  static final MethodHandle NEW_KMEANS_PLUS_PLUS_SEEDS =
+    constructor(load("KMeansPlusPlusSeeds"), long.class);
+
+  /** seeding.seed(int[], int[], int) */
+  static final MethodHandle SEED =
+    virtual(SEED_STRATEGY, "seed", int[].class, int[].class, int[].class, int.class);
+
+  /** new MedianCutQuantizer() */
+  static final MethodHandle NEW_MEDIAN_CUT_QUANTIZER =
+    constructor(load("MedianCutQuantizer"));
+
+  /** new OctreeQuantizer() */
+  static final MethodHandle NEW_OCTREE_QUANTIZER =
+    constructor(load("OctreeQuantizer"));
+
+  /** new KMeansQuantizer(SeedStrategy) */
+  static final MethodHandle NEW_KMEANS_QUANTIZER =
+    constructor(load("KMeansQuantizer"), SEED_STRATEGY);
+
+  /** new QuantizerSeeds(Quantizer) */
+  static final MethodHandle NEW_QUANTIZER_SEEDS =
+    constructor(load("QuantizerSeeds"), QUANTIZER);
+
+  /** new DeltaEReport(int[], int[]) */
+  static final MethodHandle NEW_DELTA_E_REPORT =
+    constructor(load("DeltaEReport"), int[].class, int[].class);
+
+  /** report.getMean() */
+  static final MethodHandle DELTA_E_MEAN =
+    virtual(load("DeltaEReport"), "getMean", double.class);
+
+  private Repo() {}
+
+  private static Class<?> load(String name)
+  {
+    try
+    {
+      return Class.forName(name);
+    }
+    catch (ClassNotFoundException ex)
+    {
+      throw new IllegalStateException(name + " is not on the class path; compile the" +
+                                      " picture classes before the benchmarks", ex);
+    }
+  }
+
+  private static Class<?> arrayOf(Class<?> type)
+  {
+    return java.lang.reflect.Array.newInstance(type, 0).getClass();
+  }
+
+  private static MethodHandle constructor(Class<?> type, Class<?>... params)
+  {
+    try
+    {
+      return MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class, params));
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static MethodHandle virtual(Class<?> type, String name, Class<?> result, Class<?>... params)
+  {
+    try
+    {
+      return MethodHandles.publicLookup().findVirtual(type, name, MethodType.methodType(result, params));
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static MethodHandle statik(Class<?> type, String name, Class<?> result, Class<?>... params)
+  {
+    try
+    {
+      return MethodHandles.publicLookup().findStatic(type, name, MethodType.methodType(result, params));
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+}
@@ -0,0 +1,27 @@
+/**
+ * JMH benchmarks for the quantization and filter hot paths, so changes
+ * to them can be measured instead of described.  KMeansBenchmark covers
+ * findClosestColor (including the scalar and vector ClosestColorKernel),
+ * assignClusters, computeCentroid(s), computeColors and mapToColorList at
+ * k = 8, 64 and 256; QuantizerBenchmark compares the time and error of
+ * the median cut, octree and k-means quantizers; FilterBenchmark covers
+ * convolve, oilPaint, copyPicture and getPixels, and ReduceBenchmark
+ * covers reduceTo8 and reduceChannels on a fresh copy each call.  They
+ * run on the eight bundled JPGs and on synthetic pictures of 1 to 50
+ * megapixels.
+ *
+ * There is no build file in this repository, so the benchmarks are
+ * compiled by hand against JMH 1.37 (jmh-core, jmh-generator-annprocess
+ * and their jopt-simple and commons-math3 dependencies in lib/):
+ *
+ *   javac -d classes *.java
+ *   javac --add-modules jdk.incubator.vector -cp classes -d classes vector/*.java
+ *   javac -cp classes:lib/* -d bench/classes bench/src/main/java/bench/*.java
+ *   java -cp classes:bench/classes:lib/* org.openjdk.jmh.Main -prof gc
+ *
+ * run from the repository root (or with -jvmArgsAppend -Dbench.images=dir)
+ * so the bundled pictures are found.  The gc profiler adds
+ * gc.alloc.rate.norm, the bytes allocated per operation, next to ops/s.
+ * Use -p image=synthetic-1 -p k=8 to run a smaller set.
+ */
+package bench;
@@ -0,0 +1,167 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A closest color kernel that uses the vector API (jdk.incubator.vector),
+ * so the squared distances are computed for as many colors at once as
+ * the CPU has int lanes (8 with AVX2, 16 with AVX-512).
+ *
+ * For a range of colors each lane holds one pixel and the palette colors
+ * are compared in turn, which keeps every lane busy however small the
+ * palette is.  For one color each lane holds one palette color instead,
+ * and the lanes keep the first index with their smallest distance so the
+ * first palette color still wins a tie.  Distances fit in an int (at most
+ * 3 * 255 * 255), so no lanes are widened.
+ *
+ * Do not make one of these directly: ClosestColorKernel.create makes one
+ * if the vector module is there.  This class is kept in vector/ so the
+ * rest of the classes compile without the module; compile it after them
+ * with javac --add-modules jdk.incubator.vector -cp classes -d classes
+ * vector/*.java.
+ */
+public class VectorClosestColorKernel extends ClosestColorKernel
+{
+
+  ////////////////////////// fields ///////////////////////////////////
+
+  /** the widest int vectors the CPU has */
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  /** a value for the padding palette colors that is farther than any real one */
+  private static final int FAR = 1 << 14;
+
+  /** the palette reds, greens and blues padded to a whole number of vectors */
+  private int[] paddedReds, paddedGreens, paddedBlues;
+
+  /** 0, 1, 2 ... for the palette index of each lane */
+  private int[] lanes;
+
+  ////////////////////// constructors /////////////////////////////////
+
+  /**
+   * A constructor that takes the palette to search
+   * @param palette the packed rgb palette colors
+   * @param size the number of palette colors in use
+   */
+  public VectorClosestColorKernel(int[] palette, int size)
+  {
+    super(palette, size);
+    int length = SPECIES.length();
+    int padded = (size + length - 1) / length * length;
+    paddedReds = pad(reds, padded);
+    paddedGreens = pad(greens, padded);
+    paddedBlues = pad(blues, padded);
+    lanes = new int[length];
+    for (int i = 0; i < length; i++)
+      lanes[i] = i;
+  }
+
+  ///////////////////////// methods //////////////////////////////
+
+  /**
+   * Method to copy palette values into a longer array padded with FAR
+   * @param values the values
+   * @param length the length of the new array
+   * @return the padded values
+   */
+  private static int[] pad(int[] values, int length)
+  {
+    int[] padded = new int[length];
+    System.arraycopy(values, 0, padded, 0, values.length);
+    for (int i = values.length; i < length; i++)
+      padded[i] = FAR;
+    return padded;
+  }
+
+  /**
+   * Method to find the palette color closest to a color, comparing it
+   * with a vector of palette colors at a time
+   * @param rgb the packed color (alpha bits ignored)
+   * @return the index of the closest palette color (the first one on a tie)
+   */
+  public int findClosestColor(int rgb)
+  {
+    // a palette shorter than a vector would leave most lanes idle
+    if (palette.length < SPECIES.length())
+      return super.findClosestColor(rgb);
+
+    IntVector red = IntVector.broadcast(SPECIES, (rgb >> 16) & 0xff);
+    IntVector green = IntVector.broadcast(SPECIES, (rgb >> 8) & 0xff);
+    IntVector blue = IntVector.broadcast(SPECIES, rgb & 0xff);
+    IntVector index = IntVector.fromArray(SPECIES, lanes, 0);
+    IntVector step = IntVector.broadcast(SPECIES, SPECIES.length());
+    IntVector best = IntVector.broadcast(SPECIES, Integer.MAX_VALUE);
+    IntVector bestIndex = IntVector.zero(SPECIES);
+    for (int k = 0; k < paddedReds.length; k += SPECIES.length())
+    {
+      IntVector redDistance = red.sub(IntVector.fromArray(SPECIES, paddedReds, k));
+      IntVector greenDistance = green.sub(IntVector.fromArray(SPECIES, paddedGreens, k));
+      IntVector blueDistance = blue.sub(IntVector.fromArray(SPECIES, paddedBlues, k));
+      IntVector distance = redDistance.mul(redDistance)
+        .add(greenDistance.mul(greenDistance))
+        .add(blueDistance.mul(blueDistance));
+      VectorMask<Integer> closer = distance.lt(best);
+      best = best.blend(distance, closer);
+      bestIndex = bestIndex.blend(index, closer);
+      index = index.add(step);
+    }
+
+    // the first index among the lanes with the smallest distance
+    int smallest = best.reduceLanes(VectorOperators.MIN);
+    return bestIndex.blend(Integer.MAX_VALUE, best.compare(VectorOperators.NE, smallest))
+      .reduceLanes(VectorOperators.MIN);
+  }
+
+  /**
+   * Method to find the closest palette color of each of a range of colors,
+   * a vector of colors at a time
+   * @param colors the packed colors (alpha bits ignored)
+   * @param from the index of the first color
+   * @param to one past the index of the last color
+   * @param chosen where to put the index of each closest palette color
+   * @param offset where to put the first one in chosen
+   */
+  public void findClosestColors(int[] colors, int from, int to, int[] chosen, int offset)
+  {
+    int size = palette.length;
+    int end = from + SPECIES.loopBound(to - from);
+    int i = from;
+    for (; i < end; i += SPECIES.length())
+    {
+      IntVector rgb = IntVector.fromArray(SPECIES, colors, i);
+      IntVector red = rgb.lanewise(VectorOperators.LSHR, 16).and(0xff);
+      IntVector green = rgb.lanewise(VectorOperators.LSHR, 8).and(0xff);
+      IntVector blue = rgb.and(0xff);
+      IntVector best = IntVector.broadcast(SPECIES, Integer.MAX_VALUE);
+      IntVector bestIndex = IntVector.zero(SPECIES);
+      for (int k = 0; k < size; k++)
+      {
+        IntVector redDistance = red.sub(reds[k]);
+        IntVector greenDistance = green.sub(greens[k]);
+        IntVector blueDistance = blue.sub(blues[k]);
+        IntVector distance = redDistance.mul(redDistance)
+          .add(greenDistance.mul(greenDistance))
+          .add(blueDistance.mul(blueDistance));
+        VectorMask<Integer> closer = distance.lt(best);
+        best = best.blend(distance, closer);
+        bestIndex = bestIndex.blend(k, closer);
+      }
+      bestIndex.intoArray(chosen, offset + i - from);
+    }
+    for (; i < to; i++)
+      chosen[offset + i - from] = super.findClosestColor(colors[i]);
+  }
+
+  /**
+   * Method to return a string with information about this kernel
+   * @return a string with information about this kernel
+   */
+  public String toString()
+  {
+    return "VectorClosestColorKernel of " + palette.length + " colors in " +
+      SPECIES.length() + " lanes";
+  }
+
+}